@@ -0,0 +1,81 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.core.IndexResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full client round trips (request building, serialization, HTTP, response parsing) against the
+ * in-process {@link StubElasticsearchServer}. Run with {@code -t} to add client threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+// The stub needs TCP_NODELAY, see StubElasticsearchServer
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+    @Param({"1", "10"})
+    public int hitsPerSearch;
+
+    private StubElasticsearchServer server;
+    private ElasticsearchClientFactory clientFactory;
+    private ElasticsearchDemo demo;
+    private ProductStatusHistory statusHistory;
+    private Product product;
+    private Instant time;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new StubElasticsearchServer(0, hitsPerSearch, Runtime.getRuntime().availableProcessors());
+        clientFactory = server.clientFactory();
+        demo = new ElasticsearchDemo(clientFactory);
+        statusHistory = new ProductStatusHistory(clientFactory);
+        product = new Product("1", "iPhone 13", "Latest Apple iPhone with amazing camera", 999.99, "Electronics");
+        time = Instant.parse("2025-04-10T14:00:00Z");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        clientFactory.close();
+        server.close();
+    }
+
+    @Benchmark
+    public IndexResponse indexProduct() {
+        return demo.indexProductAsync(product).join();
+    }
+
+    @Benchmark
+    public List<Product> searchProducts() {
+        return demo.searchProductsAsync("phone").join();
+    }
+
+    @Benchmark
+    public String recordStatusChange() {
+        return statusHistory.recordStatusChangeAsync("1", "Trending").join();
+    }
+
+    @Benchmark
+    public Optional<String> getStatusAtTime() throws IOException {
+        return statusHistory.findStatusAtTime("1", time);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.json.stream.JsonGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of the search request objects and their serialization to the JSON body the
+ * transport sends.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestBuildingBenchmark {
+    private final Instant time = Instant.parse("2025-04-10T14:00:00Z");
+    private JsonpMapper mapper;
+    private SearchRequest latestEntryRequest;
+
+    @Setup
+    public void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        mapper = new JacksonJsonpMapper(objectMapper);
+        latestEntryRequest = buildLatestEntryRequest();
+    }
+
+    @Benchmark
+    public SearchRequest buildLatestEntryRequest() {
+        return ProductStatusHistory.latestEntryRequest(
+            StatusHistoryIndices.partitionFor(time), "1", StatusHistoryIndices.partitionStart(time), time);
+    }
+
+    @Benchmark
+    public SearchRequest buildHistoryPageRequest() {
+        Query query = ProductStatusHistory.historyQuery("1", null, null);
+        return StatusHistoryScroller.pageRequest("pit-id", query, 1000, null);
+    }
+
+    @Benchmark
+    public SearchRequest buildProductSearchRequest() {
+        return ElasticsearchDemo.searchRequest("phone");
+    }
+
+    @Benchmark
+    public byte[] serializeLatestEntryRequest() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        try (JsonGenerator generator = mapper.jsonProvider().createGenerator(out)) {
+            latestEntryRequest.serialize(generator, mapper);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of the documents we index and read back, using the same mapper
+ * configuration as {@link ElasticsearchClientFactory} ({@code codec}) or the stock reflective
+ * mapping it replaced ({@code stock}).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+    @Param({"stock", "codec"})
+    private String mapper;
+
+    private ObjectMapper objectMapper;
+    private JacksonJsonpMapper jsonpMapper;
+    private Product product;
+    private ProductStatusHistory.StatusHistoryEntry entry;
+    private ProductStatusHistory.StatusHistoryEntryWithString entryWithString;
+    private byte[] productJson;
+    private byte[] entryWithStringJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        if (mapper.equals("codec")) {
+            objectMapper.registerModule(new StatusJsonModule());
+        }
+        jsonpMapper = new JacksonJsonpMapper(objectMapper);
+
+        product = new Product("1", "iPhone 13", "Latest Apple iPhone with amazing camera", 999.99, "Electronics");
+        entry = new ProductStatusHistory.StatusHistoryEntry("1", "Trending", Instant.parse("2025-04-03T15:30:00Z"));
+        entryWithString = new ProductStatusHistory.StatusHistoryEntryWithString("1", "Trending", "2025-04-03T15:30:00Z");
+        productJson = objectMapper.writeValueAsBytes(product);
+        entryWithStringJson = objectMapper.writeValueAsBytes(entryWithString);
+    }
+
+    @Benchmark
+    public byte[] writeProduct() throws IOException {
+        return objectMapper.writeValueAsBytes(product);
+    }
+
+    @Benchmark
+    public byte[] writeStatusHistoryEntry() throws IOException {
+        return objectMapper.writeValueAsBytes(entry);
+    }
+
+    @Benchmark
+    public byte[] writeStatusHistoryEntryWithString() throws IOException {
+        return objectMapper.writeValueAsBytes(entryWithString);
+    }
+
+    @Benchmark
+    public Product readProduct() throws IOException {
+        return objectMapper.readValue(productJson, Product.class);
+    }
+
+    @Benchmark
+    public ProductStatusHistory.StatusHistoryEntryWithString readStatusHistoryEntryWithString() throws IOException {
+        return objectMapper.readValue(entryWithStringJson, ProductStatusHistory.StatusHistoryEntryWithString.class);
+    }
+
+    // The path the client takes for search hits: a JSON-P parser handed to the mapper
+    @Benchmark
+    public ProductStatusHistory.StatusHistoryEntryWithString readStatusHistoryEntryViaJsonp() {
+        try (jakarta.json.stream.JsonParser parser = jsonpMapper.jsonProvider()
+                .createParser(new java.io.ByteArrayInputStream(entryWithStringJson))) {
+            return jsonpMapper.deserialize(parser, ProductStatusHistory.StatusHistoryEntryWithString.class);
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package com.example.elasticsearch;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load-test harness for a {@link StatusHistoryStore}. Workers pick operations from a configurable
+ * write / point-in-time read / history read mix, products from a Zipfian distribution, and query
+ * times from a mix of "recent" and uniformly old instants. With a target rate each worker follows a
+ * fixed schedule and latency is measured from the scheduled start, so a stalled client shows up in
+ * the percentiles instead of silently lowering the offered load.
+ * <p>
+ * Run {@code main} with {@code --key=value} options (see {@link #usage()}); without {@code --host}
+ * it starts an in-process {@link StubElasticsearchServer} so client-side scaling can be measured
+ * without a cluster, and with {@code --data-dir} it runs against an {@link EmbeddedStatusHistoryStore}.
+ * Built with the benchmarks: {@code mvn -Pjmh package && java -cp target/benchmarks.jar
+ * com.example.elasticsearch.StatusLoadTest}.
+ */
+public class StatusLoadTest {
+    private static final String[] STATUSES = {"New", "Trending", "Old", "ACTIVE", "OUT_OF_STOCK"};
+
+    public enum Operation {
+        WRITE("recordStatusChange"),
+        POINT_READ("findStatusAtTime"),
+        HISTORY_READ("findStatusHistory");
+
+        private final String displayName;
+
+        Operation(String displayName) {
+            this.displayName = displayName;
+        }
+    }
+
+    private final int products;
+    private final int workers;
+    private final Duration duration;
+    private final Duration warmup;
+    private final double targetRate;
+    private final double writeRatio;
+    private final double pointReadRatio;
+    private final double skew;
+    private final double recentQueryFraction;
+    private final Duration recentWindow;
+    private final Duration horizon;
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private volatile boolean measuring;
+    private volatile boolean stopped;
+
+    private StatusLoadTest(Builder builder) {
+        this.products = builder.products;
+        this.workers = builder.workers;
+        this.duration = builder.duration;
+        this.warmup = builder.warmup;
+        this.targetRate = builder.targetRate;
+        double total = builder.writeWeight + builder.pointReadWeight + builder.historyReadWeight;
+        this.writeRatio = builder.writeWeight / total;
+        this.pointReadRatio = builder.pointReadWeight / total;
+        this.skew = builder.skew;
+        this.recentQueryFraction = builder.recentQueryFraction;
+        this.recentWindow = builder.recentWindow;
+        this.horizon = builder.horizon;
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Runs the warmup and then the measured phase, blocking until both are done.
+     */
+    public Report run(StatusHistoryStore history) throws InterruptedException {
+        ZipfianGenerator productChooser = new ZipfianGenerator(products, skew);
+        long intervalNanos = targetRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * workers / targetRate) : 0;
+
+        List<Thread> threads = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(() -> workLoop(history, productChooser, intervalNanos), "load-test-worker-" + (i + 1));
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+        measuring = false;
+        stopped = false;
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        Thread.sleep(warmup.toMillis());
+        measuring = true;
+        long measureStart = System.nanoTime();
+        Thread.sleep(duration.toMillis());
+        stopped = true;
+        long elapsedNanos = System.nanoTime() - measureStart;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return report(elapsedNanos);
+    }
+
+    private void workLoop(StatusHistoryStore history, ZipfianGenerator productChooser, long intervalNanos) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // Spread the workers' schedules over one interval so they do not fire in lockstep
+        long next = System.nanoTime() + (intervalNanos > 0 ? random.nextLong(intervalNanos) : 0);
+        while (!stopped) {
+            if (intervalNanos > 0) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            long start = intervalNanos > 0 ? next : System.nanoTime();
+            next += intervalNanos;
+
+            Operation operation = chooseOperation(random);
+            String productId = "product-" + productChooser.next(random);
+            boolean recording = measuring;
+            try {
+                execute(history, operation, productId, random);
+                if (recording) {
+                    latencies.get(operation).record(System.nanoTime() - start);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (recording) {
+                    errors.get(operation).increment();
+                }
+            }
+        }
+    }
+
+    private Operation chooseOperation(ThreadLocalRandom random) {
+        double roll = random.nextDouble();
+        if (roll < writeRatio) {
+            return Operation.WRITE;
+        }
+        return roll < writeRatio + pointReadRatio ? Operation.POINT_READ : Operation.HISTORY_READ;
+    }
+
+    private void execute(StatusHistoryStore history, Operation operation, String productId, ThreadLocalRandom random)
+            throws IOException {
+        switch (operation) {
+            case WRITE -> {
+                try {
+                    history.recordStatusChangeAsync(productId, STATUSES[random.nextInt(STATUSES.length)]).join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof IOException io) {
+                        throw io;
+                    }
+                    throw e;
+                }
+            }
+            case POINT_READ -> history.findStatusAtTime(productId, queryTime(random));
+            case HISTORY_READ -> history.findStatusHistory(productId);
+        }
+    }
+
+    // Mostly recent instants (exponentially distributed back from now), the rest uniform over the horizon
+    private Instant queryTime(ThreadLocalRandom random) {
+        long backMillis;
+        if (random.nextDouble() < recentQueryFraction) {
+            backMillis = (long) (-Math.log(1 - random.nextDouble()) * recentWindow.toMillis());
+        } else {
+            backMillis = random.nextLong(Math.max(1, horizon.toMillis()));
+        }
+        return Instant.now().minusMillis(Math.min(backMillis, horizon.toMillis()));
+    }
+
+    private Report report(long elapsedNanos) {
+        Map<Operation, OperationReport> operations = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram.Snapshot snapshot = latencies.get(operation).snapshot();
+            operations.put(operation, new OperationReport(snapshot.count(), errors.get(operation).sum(), snapshot));
+        }
+        return new Report(operations, elapsedNanos, workers, targetRate);
+    }
+
+    public record OperationReport(long count, long errors, LatencyHistogram.Snapshot latency) {}
+
+    public record Report(Map<Operation, OperationReport> operations, long elapsedNanos, int workers, double targetRate) {
+        public long totalCount() {
+            long total = 0;
+            for (OperationReport operation : operations.values()) {
+                total += operation.count();
+            }
+            return total;
+        }
+
+        public double throughput() {
+            return totalCount() * 1e9 / elapsedNanos;
+        }
+
+        public void print(PrintStream out) {
+            out.printf("Load test: %d workers, %s, %.1fs measured%n", workers,
+                targetRate > 0 ? String.format("target %.0f ops/s", targetRate) : "unthrottled", elapsedNanos / 1e9);
+            out.printf("%-20s %10s %8s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "errors", "ops/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms");
+            for (Map.Entry<Operation, OperationReport> entry : operations.entrySet()) {
+                OperationReport operation = entry.getValue();
+                LatencyHistogram.Snapshot latency = operation.latency();
+                out.printf("%-20s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f %10.2f%n",
+                    entry.getKey().displayName, operation.count(), operation.errors(),
+                    operation.count() * 1e9 / elapsedNanos, latency.mean() / 1e6,
+                    latency.percentile(0.50) / 1e6, latency.percentile(0.90) / 1e6,
+                    latency.percentile(0.99) / 1e6, latency.percentile(0.999) / 1e6);
+            }
+            out.printf("%-20s %10d %8s %10.1f%n", "total", totalCount(), "", throughput());
+        }
+    }
+
+    /**
+     * Zipfian integers in [0, items) after Gray et al., "Quickly Generating Billion-Record Synthetic
+     * Databases". Item popularity is scrambled by a hash so the hot items are not adjacent ids. A skew
+     * of 0 gives a uniform distribution.
+     */
+    static final class ZipfianGenerator {
+        private final int items;
+        private final double theta;
+        private final double zetaN;
+        private final double alpha;
+        private final double eta;
+
+        ZipfianGenerator(int items, double theta) {
+            if (items <= 0 || theta < 0 || theta == 1.0) {
+                throw new IllegalArgumentException("items must be positive and skew must be >= 0 and != 1");
+            }
+            this.items = items;
+            this.theta = theta;
+            this.zetaN = zeta(items, theta);
+            this.alpha = 1.0 / (1.0 - theta);
+            this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+        }
+
+        int next(ThreadLocalRandom random) {
+            if (theta == 0) {
+                return random.nextInt(items);
+            }
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            long rank;
+            if (uz < 1.0) {
+                rank = 0;
+            } else if (uz < 1.0 + Math.pow(0.5, theta)) {
+                rank = 1;
+            } else {
+                rank = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+            }
+            return scramble(Math.min(rank, items - 1));
+        }
+
+        private int scramble(long rank) {
+            // FNV-1a over the rank's bytes
+            long hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < 8; i++) {
+                hash ^= (rank >>> (i * 8)) & 0xFF;
+                hash *= 0x100000001B3L;
+            }
+            return (int) Math.floorMod(hash, (long) items);
+        }
+
+        private static double zeta(long n, double theta) {
+            double sum = 0;
+            for (long i = 1; i <= n; i++) {
+                sum += 1.0 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+    }
+
+    public static class Builder {
+        private int products = 10_000;
+        private int workers = 8;
+        private Duration duration = Duration.ofSeconds(30);
+        private Duration warmup = Duration.ofSeconds(5);
+        private double targetRate;
+        private double writeWeight = 0.2;
+        private double pointReadWeight = 0.7;
+        private double historyReadWeight = 0.1;
+        private double skew = 0.99;
+        private double recentQueryFraction = 0.8;
+        private Duration recentWindow = Duration.ofHours(1);
+        private Duration horizon = Duration.ofDays(30);
+
+        private Builder() {
+        }
+
+        public Builder products(int products) {
+            this.products = products;
+            return this;
+        }
+
+        public Builder workers(int workers) {
+            this.workers = workers;
+            return this;
+        }
+
+        public Builder duration(Duration duration) {
+            this.duration = duration;
+            return this;
+        }
+
+        public Builder warmup(Duration warmup) {
+            this.warmup = warmup;
+            return this;
+        }
+
+        // Total operations per second across all workers; 0 runs unthrottled
+        public Builder targetRate(double targetRate) {
+            this.targetRate = targetRate;
+            return this;
+        }
+
+        // Relative weights of the operations; the status change rate is targetRate times the write share
+        public Builder mix(double writes, double pointReads, double historyReads) {
+            this.writeWeight = writes;
+            this.pointReadWeight = pointReads;
+            this.historyReadWeight = historyReads;
+            return this;
+        }
+
+        // Zipfian skew of product popularity; 0 is uniform, 0.99 is the usual "hot set" skew
+        public Builder skew(double skew) {
+            this.skew = skew;
+            return this;
+        }
+
+        // Share of point-in-time reads asking about the recent past, the rest spread over the horizon
+        public Builder queryTimes(double recentFraction, Duration recentWindow, Duration horizon) {
+            this.recentQueryFraction = recentFraction;
+            this.recentWindow = recentWindow;
+            this.horizon = horizon;
+            return this;
+        }
+
+        public StatusLoadTest build() {
+            if (products <= 0 || workers <= 0 || targetRate < 0) {
+                throw new IllegalArgumentException("products and workers must be positive, targetRate not negative");
+            }
+            if (writeWeight < 0 || pointReadWeight < 0 || historyReadWeight < 0
+                    || writeWeight + pointReadWeight + historyReadWeight <= 0) {
+                throw new IllegalArgumentException("Operation weights must not be negative and not all zero");
+            }
+            if (!(recentQueryFraction >= 0 && recentQueryFraction <= 1) || recentWindow.isNegative() || recentWindow.isZero()
+                    || horizon.isNegative() || horizon.isZero()) {
+                throw new IllegalArgumentException("recent fraction must be within [0, 1], recent window and horizon positive");
+            }
+            return new StatusLoadTest(this);
+        }
+    }
+
+    static String usage() {
+        return "Options: --host=<host:port> (default: in-process stub) --stub-hits=<n> --data-dir=<embedded store path>"
+            + " --products=<n> --workers=<n>"
+            + " --duration=<seconds> --warmup=<seconds> --rate=<ops/s, 0=unthrottled>"
+            + " --mix=<writes>,<point reads>,<history reads> --skew=<theta>"
+            + " --recent=<fraction> --recent-window=<minutes> --horizon=<days>";
+    }
+
+    public static void main(String[] args) throws Exception {
+        Builder builder = builder();
+        String host = null;
+        String dataDir = null;
+        int stubHits = 10;
+        double recentFraction = builder.recentQueryFraction;
+        Duration recentWindow = builder.recentWindow;
+        Duration horizon = builder.horizon;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String key = eq < 0 ? arg : arg.substring(0, eq);
+            String value = eq < 0 ? "" : arg.substring(eq + 1);
+            switch (key) {
+                case "--host" -> host = value;
+                case "--stub-hits" -> stubHits = Integer.parseInt(value);
+                case "--data-dir" -> dataDir = value;
+                case "--products" -> builder.products(Integer.parseInt(value));
+                case "--workers" -> builder.workers(Integer.parseInt(value));
+                case "--duration" -> builder.duration(Duration.ofSeconds(Long.parseLong(value)));
+                case "--warmup" -> builder.warmup(Duration.ofSeconds(Long.parseLong(value)));
+                case "--rate" -> builder.targetRate(Double.parseDouble(value));
+                case "--mix" -> {
+                    String[] weights = value.split(",");
+                    builder.mix(Double.parseDouble(weights[0]), Double.parseDouble(weights[1]), Double.parseDouble(weights[2]));
+                }
+                case "--skew" -> builder.skew(Double.parseDouble(value));
+                case "--recent" -> recentFraction = Double.parseDouble(value);
+                case "--recent-window" -> recentWindow = Duration.ofMinutes(Long.parseLong(value));
+                case "--horizon" -> horizon = Duration.ofDays(Long.parseLong(value));
+                default -> {
+                    System.err.println("Unknown option " + arg);
+                    System.err.println(usage());
+                    System.exit(2);
+                }
+            }
+        }
+        StatusLoadTest loadTest = builder.queryTimes(recentFraction, recentWindow, horizon).build();
+
+        if (dataDir != null) {
+            try (EmbeddedStatusHistoryStore store = EmbeddedStatusHistoryStore.builder(Path.of(dataDir)).build()) {
+                System.out.println("Running against embedded store in " + dataDir);
+                loadTest.run(store).print(System.out);
+            }
+            return;
+        }
+        StubElasticsearchServer stub = null;
+        ElasticsearchClientFactory factory;
+        if (host == null) {
+            // Read when the first HttpServer starts; an explicit -D setting wins
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+                System.setProperty("sun.net.httpserver.nodelay", "true");
+            }
+            stub = new StubElasticsearchServer(0, stubHits, Runtime.getRuntime().availableProcessors());
+            factory = stub.clientFactory();
+            System.out.println("Running against in-process stub on port " + stub.port());
+        } else {
+            String[] hostAndPort = host.split(":");
+            factory = ElasticsearchClientFactory.builder()
+                .host(hostAndPort[0], hostAndPort.length > 1 ? Integer.parseInt(hostAndPort[1]) : 9200)
+                .build();
+            System.out.println("Running against " + host);
+        }
+        try {
+            Report report = loadTest.run(new ProductStatusHistory(factory));
+            report.print(System.out);
+        } finally {
+            factory.close();
+            if (stub != null) {
+                stub.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.elasticsearch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process HTTP server that answers the Elasticsearch endpoints used by this project with canned
+ * responses. It lets benchmarks and load tests measure client-side cost (serialization, request
+ * building, connection handling) without a cluster.
+ * <p>
+ * Start the JVM with {@code -Dsun.net.httpserver.nodelay=true}: without TCP_NODELAY small responses sit
+ * behind Nagle/delayed-ACK for ~40ms each. The property is read once, when the first server starts.
+ */
+public class StubElasticsearchServer implements Closeable {
+    private static final byte[] EMPTY_OBJECT = "{}".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] statusSearchResponse;
+    private final byte[] productSearchResponse;
+    private final byte[] statusSearchItem;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+
+    public StubElasticsearchServer(int port, int hitsPerSearch, int threads) throws IOException {
+        this.statusSearchResponse = searchResponse(hitsPerSearch, false).getBytes(StandardCharsets.UTF_8);
+        this.productSearchResponse = searchResponse(hitsPerSearch, true).getBytes(StandardCharsets.UTF_8);
+        this.statusSearchItem = (searchResponseBody(hitsPerSearch, false) + ",\"status\":200").getBytes(StandardCharsets.UTF_8);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "stub-elasticsearch-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    // Starts on an ephemeral port with one canned hit per search
+    public static StubElasticsearchServer start() throws IOException {
+        return new StubElasticsearchServer(0, 1, Runtime.getRuntime().availableProcessors());
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    // A client factory pointed at this server
+    public ElasticsearchClientFactory clientFactory() {
+        return ElasticsearchClientFactory.builder().host("127.0.0.1", port()).build();
+    }
+
+    public long requestCount() {
+        return requests.sum();
+    }
+
+    public long bytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.increment();
+            byte[] body = readBody(exchange.getRequestBody());
+            bytesReceived.add(body.length);
+
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+
+            if ("HEAD".equals(method)) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            respond(exchange, route(method, path, body));
+        }
+    }
+
+    private byte[] route(String method, String path, byte[] body) {
+        if (path.endsWith("/_bulk")) {
+            return bulkResponse(countLines(body) / 2);
+        }
+        if (path.endsWith("/_msearch")) {
+            return msearchResponse(countLines(body) / 2);
+        }
+        if (path.endsWith("/_pit")) {
+            return "DELETE".equals(method)
+                ? "{\"succeeded\":true,\"num_freed\":1}".getBytes(StandardCharsets.UTF_8)
+                : "{\"id\":\"stub-pit\"}".getBytes(StandardCharsets.UTF_8);
+        }
+        if (path.endsWith("/_search")) {
+            return path.startsWith("/products") ? productSearchResponse : statusSearchResponse;
+        }
+        if (path.contains("/_doc") || path.contains("/_create")) {
+            String index = path.substring(1, path.indexOf('/', 1));
+            return indexResponse(index).getBytes(StandardCharsets.UTF_8);
+        }
+        if (path.startsWith("/_index_template") || "PUT".equals(method)) {
+            return "{\"acknowledged\":true,\"shards_acknowledged\":true,\"index\":\"stub\"}".getBytes(StandardCharsets.UTF_8);
+        }
+        return EMPTY_OBJECT;
+    }
+
+    private static void respond(HttpExchange exchange, byte[] response) throws IOException {
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        return in.readAllBytes();
+    }
+
+    private static int countLines(byte[] body) {
+        int lines = 0;
+        for (byte b : body) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private static String indexResponse(String index) {
+        return "{\"_index\":\"" + index + "\",\"_id\":\"stub-id\",\"_version\":1,\"result\":\"created\","
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":0,\"_primary_term\":1}";
+    }
+
+    private static byte[] bulkResponse(int items) {
+        StringBuilder json = new StringBuilder(64 + items * 180);
+        json.append("{\"took\":1,\"errors\":false,\"items\":[");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"index\":{\"_index\":\"stub\",\"_id\":\"stub-").append(i)
+                .append("\",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},")
+                .append("\"_seq_no\":0,\"_primary_term\":1,\"status\":201}}");
+        }
+        json.append("]}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] msearchResponse(int searches) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32 + searches * (statusSearchItem.length + 1));
+        out.writeBytes("{\"took\":1,\"responses\":[".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < searches; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.writeBytes(statusSearchItem);
+            out.write('}');
+        }
+        out.writeBytes("]}".getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    private static String searchResponse(int hits, boolean products) {
+        return searchResponseBody(hits, products) + "}";
+    }
+
+    // Search response without its closing brace, so msearch items can append a status field
+    private static String searchResponseBody(int hits, boolean products) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"took\":1,\"timed_out\":false,\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},")
+            .append("\"hits\":{\"total\":{\"value\":").append(hits).append(",\"relation\":\"eq\"},\"max_score\":null,\"hits\":[");
+        for (int i = 0; i < hits; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"_index\":\"").append(products ? "products" : "product_status_history-2025.04")
+                .append("\",\"_id\":\"").append(i).append("\",\"_score\":null,\"_source\":");
+            if (products) {
+                json.append("{\"id\":\"").append(i).append("\",\"name\":\"iPhone 13\",\"description\":\"Latest Apple iPhone with amazing camera\",")
+                    .append("\"price\":999.99,\"category\":\"Electronics\",\"status\":\"ACTIVE\",\"timestamp\":1743501600.000000000}");
+            } else {
+                json.append("{\"productId\":\"").append(i).append("\",\"status\":\"Trending\",\"timestamp\":\"2025-04-03T15:30:00Z\"}");
+            }
+            json.append(",\"sort\":[").append(1743694200000L + i).append(',').append(i).append("]}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.elasticsearch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timestamp formatting and parsing done for every status write and point-in-time lookup. The
+ * local-date-time variant is the formatting the status history used before it switched to UTC
+ * instants, kept as a baseline.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimestampBenchmark {
+    private final Instant instant = Instant.parse("2025-04-03T15:30:00.123Z");
+    private final String formatted = "2025-04-03T15:30:00.123Z";
+
+    @Benchmark
+    public String formatInstant() {
+        return DateTimeFormatter.ISO_INSTANT.format(instant);
+    }
+
+    @Benchmark
+    public String formatLocalDateTime() {
+        return LocalDateTime.ofInstant(instant, ZoneId.systemDefault()).format(DateTimeFormatter.ISO_DATE_TIME);
+    }
+
+    @Benchmark
+    public long parseTimestamp() {
+        return ProductStatusHistory.parseTimestamp(formatted);
+    }
+
+    @Benchmark
+    public String partitionFor() {
+        return StatusHistoryIndices.partitionFor(instant);
+    }
+}
@@ -1,3 +1,4 @@
+import com.example.elasticsearch.ElasticsearchClientFactory;
 import com.example.elasticsearch.ElasticsearchDemo;
 import com.example.elasticsearch.Product;
 
@@ -34,6 +35,8 @@ public class Main {
 
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            ElasticsearchClientFactory.shutdownDefault();
         }
     }
 }
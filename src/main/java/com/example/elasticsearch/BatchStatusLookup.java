@@ -0,0 +1,160 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonData;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Point-in-time status lookups for many products at once. Product ids are split into chunks and each
+ * chunk is answered by one search that filters on the ids and collapses on {@code productId}, keeping
+ * only the latest change at or before the instant. Chunks run in parallel.
+ */
+public class BatchStatusLookup implements Closeable {
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ISO_INSTANT;
+
+    private final ElasticsearchClient client;
+    private final int chunkSize;
+    private final ExecutorService executor;
+
+    public BatchStatusLookup(ElasticsearchClient client, int chunkSize, int parallelism) {
+        if (chunkSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("chunkSize and parallelism must be positive");
+        }
+        this.client = client;
+        this.chunkSize = chunkSize;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "batch-status-lookup-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Latest entry at or before the instant for each product that had a status by then
+    public Map<String, ProductStatusHistory.StatusHistoryEntryWithString> lookup(Collection<String> productIds, Instant time)
+            throws IOException {
+        return join(lookupAsync(productIds, time));
+    }
+
+    public Map<Instant, Map<String, ProductStatusHistory.StatusHistoryEntryWithString>> lookup(
+            Collection<String> productIds, Collection<Instant> times) throws IOException {
+        Map<Instant, CompletableFuture<Map<String, ProductStatusHistory.StatusHistoryEntryWithString>>> pending = new LinkedHashMap<>();
+        for (Instant time : times) {
+            pending.put(time, lookupAsync(productIds, time));
+        }
+        Map<Instant, Map<String, ProductStatusHistory.StatusHistoryEntryWithString>> results = new LinkedHashMap<>();
+        for (Map.Entry<Instant, CompletableFuture<Map<String, ProductStatusHistory.StatusHistoryEntryWithString>>> entry : pending.entrySet()) {
+            results.put(entry.getKey(), join(entry.getValue()));
+        }
+        return results;
+    }
+
+    private CompletableFuture<Map<String, ProductStatusHistory.StatusHistoryEntryWithString>> lookupAsync(
+            Collection<String> productIds, Instant time) {
+        List<String> ids = new ArrayList<>(productIds);
+        List<CompletableFuture<List<ProductStatusHistory.StatusHistoryEntryWithString>>> chunks = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += chunkSize) {
+            List<String> chunk = ids.subList(from, Math.min(from + chunkSize, ids.size()));
+            chunks.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return searchChunk(chunk, time);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            Map<String, ProductStatusHistory.StatusHistoryEntryWithString> results = new HashMap<>(ids.size() * 2);
+            for (CompletableFuture<List<ProductStatusHistory.StatusHistoryEntryWithString>> chunk : chunks) {
+                for (ProductStatusHistory.StatusHistoryEntryWithString entry : chunk.join()) {
+                    results.put(entry.productId(), entry);
+                }
+            }
+            return results;
+        });
+    }
+
+    private List<ProductStatusHistory.StatusHistoryEntryWithString> searchChunk(List<String> productIds, Instant time)
+            throws IOException {
+        List<FieldValue> values = new ArrayList<>(productIds.size());
+        for (String productId : productIds) {
+            values.add(FieldValue.of(productId));
+        }
+
+        SearchResponse<ProductStatusHistory.StatusHistoryEntryWithString> response = client.search(builder -> builder
+            .index(StatusHistoryIndices.ALIAS)
+            .ignoreUnavailable(true)
+            .allowNoIndices(true)
+            .query(q -> q
+                .bool(b -> b
+                    .filter(f -> f
+                        .terms(t -> t
+                            .field("productId")
+                            .terms(tv -> tv.value(values))
+                        )
+                    )
+                    .filter(f -> f
+                        .range(r -> r
+                            .field("timestamp")
+                            .lte(JsonData.of(DATE_FORMATTER.format(time)))
+                        )
+                    )
+                )
+            )
+            // One hit per product: the one that sorts first, i.e. the latest change
+            .collapse(c -> c.field("productId"))
+            .sort(sort -> sort
+                .field(f -> f
+                    .field("timestamp")
+                    .order(SortOrder.Desc)
+                )
+            )
+            .trackTotalHits(t -> t.enabled(false))
+            .size(productIds.size()),
+            ProductStatusHistory.StatusHistoryEntryWithString.class
+        );
+
+        List<ProductStatusHistory.StatusHistoryEntryWithString> entries = new ArrayList<>(response.hits().hits().size());
+        for (Hit<ProductStatusHistory.StatusHistoryEntryWithString> hit : response.hits().hits()) {
+            entries.add(hit.source());
+        }
+        return entries;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.elasticsearch;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for running blocking client calls off the caller's thread.
+ */
+public final class BlockingExecutors {
+
+    private BlockingExecutors() {
+    }
+
+    /**
+     * One virtual thread per task when the runtime supports it (Java 21+), so a blocked request does
+     * not pin a platform thread. On older runtimes falls back to a fixed pool of daemon threads.
+     */
+    public static ExecutorService newPerTaskExecutor(String namePrefix, int fallbackThreads) {
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        if (virtual != null) {
+            return virtual;
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(fallbackThreads, r -> {
+            Thread t = new Thread(r, namePrefix + "-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static boolean virtualThreadsAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            // Looked up reflectively so the project still compiles for Java 17
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batches status history writes into {@code _bulk} requests.
+ * <p>
+ * Producers hand documents to a bounded queue and block when it is full. A single dispatcher
+ * thread cuts batches by action count, estimated bytes or age and sends up to
+ * {@code maxInFlight} of them concurrently.
+ */
+public class BulkStatusIngester implements Closeable {
+
+    // Rough per-document overhead of the bulk action line and JSON field names
+    private static final int ACTION_OVERHEAD_BYTES = 96;
+
+    private final ElasticsearchClient client;
+    private final int maxActions;
+    private final long maxBytes;
+    private final long flushIntervalNanos;
+    private final Listener listener;
+    private final BlockingQueue<PendingWrite> queue;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final ExecutorService senders;
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    private BulkStatusIngester(Builder builder) {
+        this.client = builder.client;
+        this.maxActions = builder.maxActions;
+        this.maxBytes = builder.maxBytes;
+        this.flushIntervalNanos = builder.flushInterval.toNanos();
+        this.listener = builder.listener;
+        this.queue = new ArrayBlockingQueue<>(builder.queueCapacity);
+        this.maxInFlight = builder.maxInFlight;
+        this.inFlight = new Semaphore(builder.maxInFlight);
+
+        AtomicInteger senderCount = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(builder.maxInFlight, r -> {
+            Thread t = new Thread(r, "bulk-status-sender-" + senderCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.dispatcher = new Thread(this::dispatchLoop, "bulk-status-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    public static Builder builder(ElasticsearchClient client) {
+        return new Builder(client);
+    }
+
+    /**
+     * Queues a document, blocking while the queue is full. The returned future completes with the
+     * document id once the bulk item is acknowledged, or exceptionally if the item failed.
+     */
+    public CompletableFuture<String> add(String index, String id, ProductStatusHistory.StatusHistoryEntryWithString document)
+            throws InterruptedException {
+        return add(index, id, null, document);
+    }
+
+    // Like add, with a custom routing key (null for the default, routing by id)
+    public CompletableFuture<String> add(String index, String id, String routing,
+                                         ProductStatusHistory.StatusHistoryEntryWithString document) throws InterruptedException {
+        PendingWrite write = newWrite(index, id, routing, document);
+        queue.put(write);
+        rejectIfClosed(write);
+        return write.result;
+    }
+
+    // Like add, but gives up after the timeout and returns null so the caller can shed load
+    public CompletableFuture<String> offer(String index, String id, ProductStatusHistory.StatusHistoryEntryWithString document,
+                                           Duration timeout) throws InterruptedException {
+        return offer(index, id, null, document, timeout);
+    }
+
+    public CompletableFuture<String> offer(String index, String id, String routing,
+                                           ProductStatusHistory.StatusHistoryEntryWithString document,
+                                           Duration timeout) throws InterruptedException {
+        PendingWrite write = newWrite(index, id, routing, document);
+        if (!queue.offer(write, timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+            return null;
+        }
+        rejectIfClosed(write);
+        return write.result;
+    }
+
+    public int queuedCount() {
+        return queue.size();
+    }
+
+    public int inFlightCount() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    private PendingWrite newWrite(String index, String id, String routing,
+                                  ProductStatusHistory.StatusHistoryEntryWithString document) {
+        if (closed) {
+            throw new IllegalStateException("Bulk ingester is closed");
+        }
+        return new PendingWrite(index, id, routing, document, estimateBytes(id, document));
+    }
+
+    // close() may have raced the enqueue: whoever removes the write from the queue, the dispatcher
+    // or this check, is the one that completes it
+    private void rejectIfClosed(PendingWrite write) {
+        if (closed && queue.remove(write)) {
+            write.result.completeExceptionally(new IllegalStateException("Bulk ingester is closed"));
+        }
+    }
+
+    private static long estimateBytes(String id, ProductStatusHistory.StatusHistoryEntryWithString document) {
+        long bytes = ACTION_OVERHEAD_BYTES;
+        if (id != null) {
+            bytes += id.length();
+        }
+        bytes += length(document.productId()) + length(document.status()) + length(document.timestamp());
+        return bytes;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private void dispatchLoop() {
+        List<PendingWrite> batch = new ArrayList<>(maxActions);
+        long batchBytes = 0;
+        long batchStarted = 0;
+
+        while (!closed || !queue.isEmpty() || !batch.isEmpty()) {
+            try {
+                long waitNanos = batch.isEmpty()
+                        ? flushIntervalNanos
+                        : flushIntervalNanos - (System.nanoTime() - batchStarted);
+                PendingWrite write = waitNanos > 0 ? queue.poll(waitNanos, TimeUnit.NANOSECONDS) : queue.poll();
+
+                if (write != null) {
+                    if (batch.isEmpty()) {
+                        batchStarted = System.nanoTime();
+                    }
+                    batch.add(write);
+                    batchBytes += write.estimatedBytes;
+                }
+
+                boolean full = batch.size() >= maxActions || batchBytes >= maxBytes;
+                boolean aged = !batch.isEmpty() && System.nanoTime() - batchStarted >= flushIntervalNanos;
+                boolean draining = closed && queue.isEmpty();
+                if (!batch.isEmpty() && (full || aged || draining)) {
+                    send(batch);
+                    batch = new ArrayList<>(maxActions);
+                    batchBytes = 0;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                closed = true;
+                failAll(batch, e);
+                failQueued(e);
+                return;
+            }
+        }
+        failQueued(new IllegalStateException("Bulk ingester is closed"));
+    }
+
+    // Completes writes that can no longer be sent once the dispatcher has stopped
+    private void failQueued(Exception cause) {
+        List<PendingWrite> left = new ArrayList<>();
+        queue.drainTo(left);
+        failAll(left, cause);
+    }
+
+    private void send(List<PendingWrite> batch) throws InterruptedException {
+        // Blocks the dispatcher (and therefore, once the queue fills, the producers) while
+        // maxInFlight batches are outstanding
+        inFlight.acquire();
+        try {
+            senders.execute(() -> {
+                try {
+                    execute(batch);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            failAll(batch, e);
+        }
+    }
+
+    private void execute(List<PendingWrite> batch) {
+        BulkRequest.Builder request = new BulkRequest.Builder();
+        for (PendingWrite write : batch) {
+            request.operations(op -> op.index(i -> {
+                i.index(write.index).document(write.document);
+                if (write.id != null) {
+                    i.id(write.id);
+                }
+                if (write.routing != null) {
+                    i.routing(write.routing);
+                }
+                return i;
+            }));
+        }
+
+        BulkResponse response;
+        try {
+            response = client.bulk(request.build());
+        } catch (IOException | RuntimeException e) {
+            listener.onBatchFailure(batch.size(), e);
+            failAll(batch, e);
+            return;
+        }
+
+        List<BulkResponseItem> items = response.items();
+        for (int i = 0; i < batch.size(); i++) {
+            PendingWrite write = batch.get(i);
+            BulkResponseItem item = i < items.size() ? items.get(i) : null;
+            if (item == null) {
+                String reason = "No bulk response item returned";
+                listener.onItemFailure(write.document, reason);
+                write.result.completeExceptionally(new IOException(reason));
+            } else if (item.error() != null) {
+                String reason = item.error().type() + ": " + item.error().reason();
+                listener.onItemFailure(write.document, reason);
+                write.result.completeExceptionally(new IOException("Bulk item failed with status " + item.status() + " - " + reason));
+            } else {
+                write.result.complete(item.id());
+            }
+        }
+    }
+
+    private static void failAll(List<PendingWrite> batch, Exception cause) {
+        for (PendingWrite write : batch) {
+            write.result.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Stops accepting writes, flushes everything already queued and waits for outstanding batches.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            dispatcher.join();
+            senders.shutdown();
+            senders.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public interface Listener {
+        void onItemFailure(ProductStatusHistory.StatusHistoryEntryWithString document, String reason);
+
+        default void onBatchFailure(int batchSize, Exception cause) {
+        }
+    }
+
+    private static final class PendingWrite {
+        final String index;
+        final String id;
+        final String routing;
+        final ProductStatusHistory.StatusHistoryEntryWithString document;
+        final long estimatedBytes;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+
+        PendingWrite(String index, String id, String routing, ProductStatusHistory.StatusHistoryEntryWithString document,
+                     long estimatedBytes) {
+            this.index = index;
+            this.id = id;
+            this.routing = routing;
+            this.document = document;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+
+    public static class Builder {
+        private final ElasticsearchClient client;
+        private int maxActions = 1000;
+        private long maxBytes = 5L * 1024 * 1024;
+        private Duration flushInterval = Duration.ofSeconds(1);
+        private int queueCapacity = 10_000;
+        private int maxInFlight = 2;
+        private Listener listener = (document, reason) ->
+                System.err.println("Failed to index status change for product " + document.productId() + ": " + reason);
+
+        private Builder(ElasticsearchClient client) {
+            this.client = client;
+        }
+
+        public Builder maxActions(int maxActions) {
+            this.maxActions = maxActions;
+            return this;
+        }
+
+        public Builder maxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder flushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public Builder maxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        public Builder listener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public BulkStatusIngester build() {
+            if (maxActions <= 0 || maxBytes <= 0 || queueCapacity <= 0 || maxInFlight <= 0
+                    || flushInterval.isNegative() || flushInterval.isZero()) {
+                throw new IllegalArgumentException("Bulk ingester limits must be positive");
+            }
+            return new BulkStatusIngester(this);
+        }
+    }
+}
@@ -0,0 +1,609 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Full catalog reload into the {@code products} alias from a CSV or NDJSON file.
+ * <p>
+ * Each load builds a fresh index ({@code products-yyyyMMdd-HHmmss}) with refresh and replicas off.
+ * The file is split into one byte range per worker; each worker parses the lines starting in its range
+ * and hands sized batches to a pool of bulk senders, with a bounded number of batches in flight, so
+ * memory does not grow with the file. When every document is in, refresh and replicas are switched
+ * back on and the alias moves from the old index to the new one in a single alias update; if documents
+ * failed, the alias stays where it was. Progress is printed while the load runs.
+ * <p>
+ * A concrete index named like the alias (such as a {@code products} index from before aliases were
+ * used) can only be replaced by deleting it, so the first load over one needs
+ * {@link Builder#deleteOldIndices(boolean)}; without it the load is refused before anything is written.
+ * <p>
+ * CSV files need a header naming the columns ({@code id} is required; {@code name}, {@code description},
+ * {@code price}, {@code category}, {@code status} and {@code timestamp} are optional). Quoted fields may
+ * contain commas and doubled quotes but not line breaks. NDJSON files hold one product document per line.
+ */
+public class CatalogLoader implements Closeable {
+    private static final DateTimeFormatter INDEX_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+    private static final int READ_BUFFER_BYTES = 256 * 1024;
+
+    private final ElasticsearchClient client;
+    private final ObjectMapper mapper;
+    private final String alias;
+    private final int parallelism;
+    private final int batchSize;
+    private final long batchBytes;
+    private final int replicas;
+    private final boolean deleteOldIndices;
+    private final Duration reportInterval;
+    private final ExecutorService readers;
+    private final ExecutorService senders;
+
+    private CatalogLoader(Builder builder) {
+        this.client = builder.client;
+        this.mapper = client._jsonpMapper() instanceof JacksonJsonpMapper jackson ? jackson.objectMapper() : new ObjectMapper();
+        this.alias = builder.alias;
+        this.parallelism = builder.parallelism;
+        this.batchSize = builder.batchSize;
+        this.batchBytes = builder.batchBytes;
+        this.replicas = builder.replicas;
+        this.deleteOldIndices = builder.deleteOldIndices;
+        this.reportInterval = builder.reportInterval;
+        this.readers = pool("catalog-loader-reader-");
+        this.senders = pool("catalog-loader-sender-");
+    }
+
+    public static Builder builder(ElasticsearchClient client) {
+        return new Builder(client);
+    }
+
+    private ExecutorService pool(String prefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, prefix + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Loads the file into a new index and points the alias at it. Files ending in {@code .csv} are read
+     * as CSV, anything else as NDJSON.
+     */
+    public Result load(Path file) throws IOException {
+        requireReplaceable();
+        boolean csv = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv");
+        String index = alias + "-" + INDEX_SUFFIX.format(Instant.now());
+        ProductIndex.create(client, index, true);
+        System.out.println("Loading " + file + " into " + index);
+
+        long started = System.nanoTime();
+        Counters counters = new Counters();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "catalog-loader-progress");
+            t.setDaemon(true);
+            return t;
+        });
+        long reportMillis = reportInterval.toMillis();
+        reporter.scheduleAtFixedRate(new Progress(counters, started), reportMillis, reportMillis, TimeUnit.MILLISECONDS);
+        try {
+            loadPartitions(file, csv, index, counters);
+        } catch (IOException | RuntimeException e) {
+            client.indices().delete(d -> d.index(index));
+            throw e;
+        } finally {
+            reporter.shutdownNow();
+        }
+
+        Result result = counters.result(index, System.nanoTime() - started);
+        if (result.failed() > 0) {
+            throw new IOException(result.failed() + " of " + (result.documents() + result.failed())
+                + " products failed to index; " + alias + " still points at the previous catalog, the partial load is in " + index);
+        }
+        client.indices().putSettings(p -> p.index(index).settings(s -> s.numberOfReplicas(Integer.toString(replicas))));
+        IndexTransfer.restoreRefresh(client, Collections.singletonMap(index, null));
+        swapAlias(index);
+        return result;
+    }
+
+    private void loadPartitions(Path file, boolean csv, String index, Counters counters) throws IOException {
+        long size;
+        long dataStart = 0;
+        Map<String, Integer> columns = null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+        }
+        if (csv) {
+            try (LineReader header = new LineReader(file, 0, size)) {
+                int length = header.nextLine();
+                if (length < 0) {
+                    throw new IOException("Missing CSV header in " + file);
+                }
+                columns = columns(parseCsv(header.line(), length));
+                dataStart = header.position();
+            }
+        }
+
+        // Equal byte ranges; a line belongs to the range it starts in
+        long rangeBytes = Math.max(1, (size - dataStart + parallelism - 1) / parallelism);
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        List<CompletableFuture<Void>> partitions = new ArrayList<>();
+        Map<String, Integer> csvColumns = columns;
+        for (long start = dataStart; start < size; start += rangeBytes) {
+            long from = start;
+            long to = Math.min(size, start + rangeBytes);
+            partitions.add(CompletableFuture.runAsync(() -> {
+                try {
+                    loadRange(file, from, to, csvColumns, index, inFlight, counters);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, readers));
+        }
+        join(CompletableFuture.allOf(partitions.toArray(new CompletableFuture<?>[0])));
+    }
+
+    private void loadRange(Path file, long from, long to, Map<String, Integer> columns, String index,
+                           Semaphore inFlight, Counters counters) throws IOException {
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        List<BulkOperation> batch = new ArrayList<>(batchSize);
+        long bytes = 0;
+        try (LineReader reader = new LineReader(file, from, to)) {
+            if (from > 0) {
+                reader.skipPartialLine();
+            }
+            int length;
+            while ((length = reader.nextLine()) >= 0) {
+                if (isBlank(reader.line(), length)) {
+                    continue;
+                }
+                Product product;
+                try {
+                    product = columns != null
+                        ? fromCsv(parseCsv(reader.line(), length), columns)
+                        : mapper.readValue(reader.line(), 0, length, Product.class);
+                } catch (IOException | RuntimeException e) {
+                    counters.failed.increment();
+                    System.err.println("Skipping unreadable line at byte " + reader.lineStart() + ": " + e.getMessage());
+                    continue;
+                }
+                batch.add(BulkOperation.of(b -> b.index(i -> i.index(index).id(product.getId()).document(product))));
+                bytes += length + 1;
+                if (batch.size() >= batchSize || bytes >= batchBytes) {
+                    pending.add(send(batch, bytes, inFlight, counters));
+                    // Failed batches stay, so the final join reports them
+                    pending.removeIf(f -> f.isDone() && !f.isCompletedExceptionally());
+                    batch = new ArrayList<>(batchSize);
+                    bytes = 0;
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            pending.add(send(batch, bytes, inFlight, counters));
+        }
+        join(CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])));
+    }
+
+    private CompletableFuture<Void> send(List<BulkOperation> batch, long bytes, Semaphore inFlight, Counters counters) {
+        inFlight.acquireUninterruptibly();
+        return CompletableFuture.runAsync(() -> {
+            try {
+                IndexTransfer.bulkWithRetry(client, batch, counters.documents, counters.failed);
+                counters.bytes.add(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                inFlight.release();
+            }
+        }, senders);
+    }
+
+    // A concrete index of the alias's name is deleted by the swap, which only deleteOldIndices allows
+    private void requireReplaceable() throws IOException {
+        boolean concreteIndex = !client.indices().existsAlias(e -> e.name(alias)).value()
+            && client.indices().exists(e -> e.index(alias)).value();
+        if (concreteIndex && !deleteOldIndices) {
+            throw new IOException(notReplaceable());
+        }
+    }
+
+    private String notReplaceable() {
+        return alias + " is an index, not an alias; replacing it deletes it and its documents, "
+            + "so enable deleteOldIndices (--delete-old) to load over it";
+    }
+
+    // Moves the alias to the new index in one update, replacing a concrete index of the alias's name
+    private void swapAlias(String index) throws IOException {
+        boolean aliasExists = client.indices().existsAlias(e -> e.name(alias)).value();
+        List<String> previous = aliasExists
+            ? new ArrayList<>(client.indices().getAlias(g -> g.name(alias)).result().keySet())
+            : List.of();
+        boolean concreteIndex = !aliasExists && client.indices().exists(e -> e.index(alias)).value();
+        if (concreteIndex && !deleteOldIndices) {
+            // Created while the load ran
+            throw new IOException(notReplaceable() + "; the new catalog is in " + index);
+        }
+        client.indices().updateAliases(u -> {
+            for (String old : previous) {
+                u.actions(a -> a.remove(r -> r.index(old).alias(alias)));
+            }
+            if (concreteIndex) {
+                // An index and an alias cannot share a name, so the pre-alias index goes in the same update
+                u.actions(a -> a.removeIndex(r -> r.index(alias)));
+            }
+            return u.actions(a -> a.add(ad -> ad.index(index).alias(alias)));
+        });
+        System.out.println(alias + " now points at " + index + (previous.isEmpty() ? "" : " (was " + previous + ")"));
+        if (deleteOldIndices) {
+            for (String old : previous) {
+                if (!old.equals(index)) {
+                    client.indices().delete(d -> d.index(old));
+                }
+            }
+        }
+    }
+
+    private static Map<String, Integer> columns(List<String> header) throws IOException {
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            columns.put(header.get(i).trim().toLowerCase(Locale.ROOT), i);
+        }
+        if (!columns.containsKey("id")) {
+            throw new IOException("CSV header has no id column: " + header);
+        }
+        return columns;
+    }
+
+    private static Product fromCsv(List<String> fields, Map<String, Integer> columns) {
+        String id = field(fields, columns, "id");
+        if (id == null) {
+            throw new IllegalArgumentException("missing id");
+        }
+        String price = field(fields, columns, "price");
+        Product product = new Product(id, field(fields, columns, "name"), field(fields, columns, "description"),
+            price == null ? 0.0 : Double.parseDouble(price), field(fields, columns, "category"));
+        String status = field(fields, columns, "status");
+        if (status != null) {
+            product.setStatus(status);
+        }
+        String timestamp = field(fields, columns, "timestamp");
+        if (timestamp != null) {
+            char[] chars = timestamp.toCharArray();
+            Instant parsed = StatusJsonModule.parseInstant(chars, 0, chars.length);
+            product.setTimestamp(parsed != null ? parsed : Instant.parse(timestamp));
+        }
+        return product;
+    }
+
+    // Null for missing or empty columns
+    private static String field(List<String> fields, Map<String, Integer> columns, String name) {
+        Integer column = columns.get(name);
+        if (column == null || column >= fields.size()) {
+            return null;
+        }
+        String value = fields.get(column);
+        return value.isEmpty() ? null : value;
+    }
+
+    // RFC 4180 fields of a single line: comma separated, optionally quoted with "" for a quote
+    static List<String> parseCsv(byte[] line, int length) {
+        String text = new String(line, 0, length, StandardCharsets.UTF_8);
+        if (text.endsWith("\r")) {
+            text = text.substring(0, text.length() - 1);
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static boolean isBlank(byte[] line, int length) {
+        for (int i = 0; i < length; i++) {
+            if (line[i] != ' ' && line[i] != '\t' && line[i] != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void join(CompletableFuture<?> future) throws IOException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        readers.shutdown();
+        senders.shutdown();
+    }
+
+    /**
+     * Lines of a file that start within [from, to), read through a file channel. The last line may
+     * extend past {@code to}; a range that begins mid-line skips to the next line start first.
+     */
+    static final class LineReader implements Closeable {
+        private final FileChannel channel;
+        private final long to;
+        private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        // File offset of the byte at buffer position 0
+        private long bufferStart;
+        private long lineStart;
+        private byte[] line = new byte[8192];
+
+        LineReader(Path file, long from, long to) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.to = to;
+            this.bufferStart = from;
+            channel.position(from);
+            buffer.flip();
+        }
+
+        // Moves past the end of the line the range begins in, which belongs to the previous range
+        void skipPartialLine() throws IOException {
+            // Reading from one byte earlier tells whether the range already starts a line
+            channel.position(bufferStart - 1);
+            bufferStart--;
+            buffer.clear().flip();
+            int b;
+            while ((b = read()) >= 0 && b != '\n') {
+                // Rest of the previous range's line
+            }
+        }
+
+        // Length of the next line starting before the end of the range, without its newline; -1 when done
+        int nextLine() throws IOException {
+            lineStart = position();
+            if (lineStart >= to) {
+                return -1;
+            }
+            int length = 0;
+            int b;
+            while ((b = read()) >= 0 && b != '\n') {
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[length++] = (byte) b;
+            }
+            return b < 0 && length == 0 ? -1 : length;
+        }
+
+        byte[] line() {
+            return line;
+        }
+
+        long lineStart() {
+            return lineStart;
+        }
+
+        // File offset of the next unread byte
+        long position() {
+            return bufferStart + buffer.position();
+        }
+
+        private int read() throws IOException {
+            if (!buffer.hasRemaining()) {
+                bufferStart += buffer.limit();
+                buffer.clear();
+                if (channel.read(buffer) <= 0) {
+                    buffer.flip();
+                    return -1;
+                }
+                buffer.flip();
+            }
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class Counters {
+        final LongAdder documents = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+
+        Result result(String index, long elapsedNanos) {
+            return new Result(index, documents.sum(), failed.sum(), bytes.sum(), Duration.ofNanos(elapsedNanos));
+        }
+    }
+
+    // Prints overall and recent throughput
+    private static final class Progress implements Runnable {
+        private final Counters counters;
+        private final long started;
+        private long lastDocuments;
+        private long lastNanos;
+
+        Progress(Counters counters, long started) {
+            this.counters = counters;
+            this.started = started;
+            this.lastNanos = started;
+        }
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            long documents = counters.documents.sum();
+            double overall = documents * 1e9 / Math.max(1, now - started);
+            double recent = (documents - lastDocuments) * 1e9 / Math.max(1, now - lastNanos);
+            lastDocuments = documents;
+            lastNanos = now;
+            System.out.printf("Catalog load: %d products (%d failed), %.1f MB, %.0f docs/s (last interval %.0f docs/s)%n",
+                documents, counters.failed.sum(), counters.bytes.sum() / 1e6, overall, recent);
+        }
+    }
+
+    // Failed counts unreadable lines as well as rejected documents; bytes are source file bytes
+    public record Result(String index, long documents, long failed, long bytes, Duration elapsed) {
+        public double documentsPerSecond() {
+            return elapsed.isZero() ? 0.0 : documents * 1e9 / elapsed.toNanos();
+        }
+    }
+
+    public static class Builder {
+        private final ElasticsearchClient client;
+        private String alias = ProductIndex.NAME;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private int batchSize = 1000;
+        private long batchBytes = 5L * 1024 * 1024;
+        private int replicas = 1;
+        private boolean deleteOldIndices;
+        private Duration reportInterval = Duration.ofSeconds(5);
+
+        private Builder(ElasticsearchClient client) {
+            this.client = client;
+        }
+
+        // Alias searches go through; each load creates <alias>-<timestamp>
+        public Builder alias(String alias) {
+            this.alias = alias;
+            return this;
+        }
+
+        // File partitions parsed in parallel, and concurrent bulk requests
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        // Batches are sent at this many documents or source bytes, whichever comes first
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder batchBytes(long batchBytes) {
+            this.batchBytes = batchBytes;
+            return this;
+        }
+
+        // Replicas of the new index once loaded
+        public Builder replicas(int replicas) {
+            this.replicas = replicas;
+            return this;
+        }
+
+        // Deletes the indices the alias pointed at before the swap; required to replace a concrete index
+        // named like the alias
+        public Builder deleteOldIndices(boolean deleteOldIndices) {
+            this.deleteOldIndices = deleteOldIndices;
+            return this;
+        }
+
+        public Builder reportInterval(Duration reportInterval) {
+            this.reportInterval = reportInterval;
+            return this;
+        }
+
+        public CatalogLoader build() {
+            if (parallelism <= 0 || batchSize <= 0 || batchBytes <= 0 || replicas < 0 || reportInterval.toMillis() <= 0) {
+                throw new IllegalArgumentException("parallelism, batchSize, batchBytes and reportInterval must be positive");
+            }
+            return new CatalogLoader(this);
+        }
+    }
+
+    /**
+     * {@code [--host=<host:port>] [--parallelism=<n>] [--replicas=<n>] [--delete-old] <file>}
+     * <p>
+     * {@code --delete-old} deletes the indices the alias pointed at, and is required when {@code products}
+     * is still a concrete index.
+     */
+    public static void main(String[] args) throws Exception {
+        String host = "localhost:9200";
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int replicas = 1;
+        boolean deleteOld = false;
+        String file = null;
+        for (String arg : args) {
+            if (arg.startsWith("--host=")) {
+                host = arg.substring("--host=".length());
+            } else if (arg.startsWith("--parallelism=")) {
+                parallelism = Integer.parseInt(arg.substring("--parallelism=".length()));
+            } else if (arg.startsWith("--replicas=")) {
+                replicas = Integer.parseInt(arg.substring("--replicas=".length()));
+            } else if (arg.equals("--delete-old")) {
+                deleteOld = true;
+            } else {
+                file = arg;
+            }
+        }
+        if (file == null) {
+            System.err.println("Usage: [--host=<host:port>] [--parallelism=<n>] [--replicas=<n>] [--delete-old] <products.csv|products.ndjson>");
+            System.err.println("  --delete-old  delete the indices the alias pointed at; required to replace a concrete products index");
+            System.exit(2);
+        }
+
+        String[] hostAndPort = host.split(":");
+        try (ElasticsearchClientFactory factory = ElasticsearchClientFactory.builder()
+                .host(hostAndPort[0], hostAndPort.length > 1 ? Integer.parseInt(hostAndPort[1]) : 9200)
+                .build();
+             CatalogLoader loader = builder(factory.client())
+                .parallelism(parallelism)
+                .replicas(replicas)
+                .deleteOldIndices(deleteOld)
+                .build()) {
+            Result result = loader.load(Path.of(file));
+            System.out.printf("Loaded %d products into %s in %.1fs, %.0f docs/s%n",
+                result.documents(), result.index(), result.elapsed().toNanos() / 1e9, result.documentsPerSecond());
+        }
+    }
+}
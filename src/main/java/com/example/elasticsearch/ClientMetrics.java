@@ -0,0 +1,268 @@
+package com.example.elasticsearch;
+
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpConnectionMetrics;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpCoreContext;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-operation call counts, errors, in-flight requests and latency histograms, plus bytes on the
+ * wire. Recording on the synchronous paths uses only {@link LongAdder}s and fixed histogram buckets,
+ * so it does not allocate.
+ * <p>
+ * Client latency is measured around the whole call (request building, serialization, network and
+ * response parsing); server time comes from the {@code took} field where the response has one.
+ */
+public class ClientMetrics implements Closeable {
+    public static final String JMX_DOMAIN = "com.example.elasticsearch";
+
+    public enum Operation {
+        INDEX_PRODUCT("indexProduct"),
+        SEARCH_PRODUCTS("searchProducts"),
+        RECORD_STATUS_CHANGE("recordStatusChange"),
+        GET_STATUS_AT_TIME("getStatusAtTime"),
+        GET_STATUS_HISTORY("getStatusHistory");
+
+        private final String displayName;
+
+        Operation(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String displayName() {
+            return displayName;
+        }
+    }
+
+    // Transport-level totals; the HTTP layer cannot attribute bytes to a single operation
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+    private final List<ObjectName> registeredNames = new ArrayList<>();
+    private ScheduledExecutorService reporter;
+
+    public ClientMetrics() {
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new OperationStats(operation));
+        }
+    }
+
+    // Marks the start of a call; pass the returned timestamp to success or failure
+    public long start(Operation operation) {
+        stats.get(operation).inFlight.increment();
+        return System.nanoTime();
+    }
+
+    public void success(Operation operation, long startNanos) {
+        success(operation, startNanos, -1);
+    }
+
+    public void success(Operation operation, long startNanos, long serverTookMillis) {
+        OperationStats operationStats = stats.get(operation);
+        operationStats.latencyNanos.record(System.nanoTime() - startNanos);
+        if (serverTookMillis >= 0) {
+            operationStats.serverTookMillis.record(serverTookMillis);
+        }
+        operationStats.inFlight.decrement();
+    }
+
+    // Server-side time of one request made on behalf of the operation
+    public void serverTook(Operation operation, long tookMillis) {
+        stats.get(operation).serverTookMillis.record(tookMillis);
+    }
+
+    public void failure(Operation operation, long startNanos) {
+        OperationStats operationStats = stats.get(operation);
+        operationStats.latencyNanos.record(System.nanoTime() - startNanos);
+        operationStats.errors.increment();
+        operationStats.inFlight.decrement();
+    }
+
+    public OperationStats stats(Operation operation) {
+        return stats.get(operation);
+    }
+
+    public long bytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long bytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    /**
+     * Adds the connection's wire byte counters (headers and bodies, after compression) to the totals
+     * when a response arrives. Request bodies are streamed without a known length, so counting at the
+     * connection is the only accurate option.
+     */
+    HttpResponseInterceptor connectionBytesInterceptor() {
+        return (response, context) -> {
+            Object connection = context.getAttribute(HttpCoreContext.HTTP_CONNECTION);
+            if (connection instanceof HttpConnection httpConnection) {
+                HttpConnectionMetrics connectionMetrics = httpConnection.getMetrics();
+                if (connectionMetrics != null) {
+                    bytesSent.add(connectionMetrics.getSentBytesCount());
+                    bytesReceived.add(connectionMetrics.getReceivedBytesCount());
+                    connectionMetrics.reset();
+                }
+            }
+        };
+    }
+
+    // Registers one MXBean per operation under com.example.elasticsearch:type=ClientMetrics
+    public synchronized void registerMBeans(String clientName) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (OperationStats operationStats : stats.values()) {
+            try {
+                ObjectName name = new ObjectName(JMX_DOMAIN + ":type=ClientMetrics,client=" + ObjectName.quote(clientName)
+                        + ",operation=" + operationStats.operation.displayName());
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(operationStats, name);
+                    registeredNames.add(name);
+                }
+            } catch (JMException e) {
+                System.err.println("Failed to register client metrics MBean: " + e.getMessage());
+            }
+        }
+    }
+
+    // Prints snapshotText() to the stream at a fixed interval until closed
+    public synchronized void startReporter(Duration interval, PrintStream out) {
+        if (reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "client-metrics-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> out.print(snapshotText()),
+                interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public String snapshotText() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-20s %10s %8s %8s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "errors", "inflight", "mean(us)", "p50(us)", "p99(us)", "p999(us)", "took99(ms)"));
+        for (OperationStats operationStats : stats.values()) {
+            LatencyHistogram.Snapshot latency = operationStats.latencyNanos.snapshot();
+            LatencyHistogram.Snapshot took = operationStats.serverTookMillis.snapshot();
+            text.append(String.format("%-20s %10d %8d %8d %10.1f %10d %10d %10d %10d%n",
+                    operationStats.operation.displayName(),
+                    latency.count(),
+                    operationStats.errors.sum(),
+                    operationStats.inFlight.sum(),
+                    latency.mean() / 1000.0,
+                    latency.percentile(0.50) / 1000,
+                    latency.percentile(0.99) / 1000,
+                    latency.percentile(0.999) / 1000,
+                    took.percentile(0.99)));
+        }
+        text.append(String.format("bytes sent: %d, bytes received: %d%n", bytesSent.sum(), bytesReceived.sum()));
+        return text.toString();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registeredNames) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                // Already gone
+            }
+        }
+        registeredNames.clear();
+    }
+
+    public final class OperationStats implements OperationStatsMXBean {
+        private final Operation operation;
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder inFlight = new LongAdder();
+        private final LatencyHistogram latencyNanos = new LatencyHistogram();
+        private final LatencyHistogram serverTookMillis = new LatencyHistogram();
+
+        private OperationStats(Operation operation) {
+            this.operation = operation;
+        }
+
+        public LatencyHistogram latency() {
+            return latencyNanos;
+        }
+
+        @Override
+        public long getCount() {
+            return latencyNanos.count();
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        @Override
+        public long getInFlight() {
+            return inFlight.sum();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return latencyNanos.snapshot().mean() / 1000.0;
+        }
+
+        @Override
+        public long getP50Micros() {
+            return latencyNanos.snapshot().percentile(0.50) / 1000;
+        }
+
+        @Override
+        public long getP99Micros() {
+            return latencyNanos.snapshot().percentile(0.99) / 1000;
+        }
+
+        @Override
+        public long getP999Micros() {
+            return latencyNanos.snapshot().percentile(0.999) / 1000;
+        }
+
+        @Override
+        public long getServerTookP50Millis() {
+            return serverTookMillis.snapshot().percentile(0.50);
+        }
+
+        @Override
+        public long getServerTookP99Millis() {
+            return serverTookMillis.snapshot().percentile(0.99);
+        }
+
+        @Override
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+
+        @Override
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Immutable, compact snapshot of the full status history for in-process analytics.
+ * <p>
+ * Events are stored grouped by product and ordered by time, in columns:
+ * <ul>
+ *   <li>product ids are interned to int ordinals, with an open-addressing table for id lookups;</li>
+ *   <li>timestamps are written off-heap as variable-length deltas from the product's previous
+ *   change, so regular updates take one to four bytes each;</li>
+ *   <li>statuses are dictionary-encoded to one byte per event, also off-heap.</li>
+ * </ul>
+ * Scans decode the columns sequentially and report events through a primitive callback, so a full
+ * pass allocates nothing per event.
+ */
+public class ColumnarStatusStore {
+    private final String[] productIds;
+    private final int[] ordinalTable;
+    private final long[] eventStart;
+    private final long[] timeOffset;
+    private final OffHeapBytes times;
+    private final OffHeapBytes codes;
+    private final StatusDictionary dictionary;
+
+    private ColumnarStatusStore(Builder builder) {
+        this.productIds = Arrays.copyOf(builder.productIds, builder.productCount);
+        this.eventStart = Arrays.copyOf(builder.eventStart, builder.productCount + 1);
+        this.eventStart[builder.productCount] = builder.eventCount;
+        this.timeOffset = Arrays.copyOf(builder.timeOffset, builder.productCount);
+        this.times = builder.times;
+        this.codes = builder.codes;
+        this.dictionary = builder.dictionary;
+        this.ordinalTable = buildOrdinalTable(productIds);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Reads the whole status history index into a new store, one point-in-time page at a time in
+     * product order, so only the store itself and the current page are held in memory.
+     */
+    public static ColumnarStatusStore load(ElasticsearchClient client, int pageSize) throws IOException {
+        Builder builder = builder();
+        Query all = Query.of(q -> q.matchAll(m -> m));
+        try (StatusHistoryScroller scroller = new StatusHistoryScroller(client, all, pageSize,
+                StatusHistoryScroller.PRODUCT_ORDER)) {
+            while (scroller.hasNext()) {
+                Hit<ProductStatusHistory.StatusHistoryEntryWithString> hit = scroller.next();
+                ProductStatusHistory.StatusHistoryEntryWithString entry = hit.source();
+                builder.add(entry.productId(), entry.status(), ProductStatusHistory.parseTimestamp(entry.timestamp()));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return builder.build();
+    }
+
+    public int productCount() {
+        return productIds.length;
+    }
+
+    public long eventCount() {
+        return eventStart[productIds.length];
+    }
+
+    // Bytes held off-heap by the time and status columns
+    public long offHeapBytes() {
+        return times.capacity() + codes.capacity();
+    }
+
+    public String productId(int ordinal) {
+        return productIds[ordinal];
+    }
+
+    // Ordinal of the product, or -1 if it has no history in the store
+    public int ordinalOf(String productId) {
+        int mask = ordinalTable.length - 1;
+        for (int slot = mix(productId.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int entry = ordinalTable[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (productIds[entry - 1].equals(productId)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    public String status(int code) {
+        return dictionary.decode(code);
+    }
+
+    // Code of the status, or -1 if no event has it
+    public int statusCode(String status) {
+        return dictionary.codeOf(status);
+    }
+
+    public int statusCount() {
+        return dictionary.size();
+    }
+
+    // Status of the product at the given time, or null if it had none yet
+    public String statusAt(String productId, long epochMillis) {
+        int ordinal = ordinalOf(productId);
+        if (ordinal < 0) {
+            return null;
+        }
+        int code = statusCodeAt(ordinal, epochMillis);
+        return code < 0 ? null : dictionary.decode(code);
+    }
+
+    public int statusCodeAt(int ordinal, long epochMillis) {
+        long position = timeOffset[ordinal];
+        long time = 0;
+        int code = -1;
+        for (long event = eventStart[ordinal]; event < eventStart[ordinal + 1]; event++) {
+            long delta = times.readVarLong(position);
+            position += OffHeapBytes.varLongSize(delta);
+            time += delta;
+            if (time > epochMillis) {
+                break;
+            }
+            code = codes.get(event) & 0xFF;
+        }
+        return code;
+    }
+
+    /**
+     * Number of products in each status at the given time, indexed by status code. Products with no
+     * status yet are not counted.
+     */
+    public long[] countByStatusAt(long epochMillis) {
+        long[] counts = new long[dictionary.size()];
+        for (int ordinal = 0; ordinal < productIds.length; ordinal++) {
+            int code = statusCodeAt(ordinal, epochMillis);
+            if (code >= 0) {
+                counts[code]++;
+            }
+        }
+        return counts;
+    }
+
+    // Visits every event, grouped by product and in time order within a product
+    public void forEachEvent(EventVisitor visitor) {
+        for (int ordinal = 0; ordinal < productIds.length; ordinal++) {
+            forEachEvent(ordinal, visitor);
+        }
+    }
+
+    public void forEachEvent(int ordinal, EventVisitor visitor) {
+        long position = timeOffset[ordinal];
+        long time = 0;
+        for (long event = eventStart[ordinal]; event < eventStart[ordinal + 1]; event++) {
+            long delta = times.readVarLong(position);
+            position += OffHeapBytes.varLongSize(delta);
+            time += delta;
+            visitor.visit(ordinal, time, codes.get(event) & 0xFF);
+        }
+    }
+
+    @FunctionalInterface
+    public interface EventVisitor {
+        void visit(int productOrdinal, long epochMillis, int statusCode);
+    }
+
+    private static int[] buildOrdinalTable(String[] productIds) {
+        int size = Integer.highestOneBit(Math.max(2, productIds.length * 2 - 1)) << 1;
+        int[] table = new int[size];
+        int mask = size - 1;
+        for (int ordinal = 0; ordinal < productIds.length; ordinal++) {
+            int slot = mix(productIds[ordinal].hashCode()) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            // Stored off by one so 0 marks an empty slot
+            table[slot] = ordinal + 1;
+        }
+        return table;
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Accumulates events grouped by product: all of a product's events must be added together, in
+     * non-decreasing time order.
+     */
+    public static class Builder {
+        private final StatusDictionary dictionary = new StatusDictionary();
+        private final OffHeapBytes times = new OffHeapBytes();
+        private final OffHeapBytes codes = new OffHeapBytes();
+        private final HashSet<String> seen = new HashSet<>();
+        private String[] productIds = new String[1024];
+        private long[] eventStart = new long[1025];
+        private long[] timeOffset = new long[1024];
+        private int productCount;
+        private long eventCount;
+        private long lastTime;
+        private boolean built;
+
+        private Builder() {
+        }
+
+        public Builder add(String productId, String status, long epochMillis) {
+            if (built) {
+                throw new IllegalStateException("Store already built");
+            }
+            String current = productCount == 0 ? null : productIds[productCount - 1];
+            if (!productId.equals(current)) {
+                if (!seen.add(productId)) {
+                    throw new IllegalArgumentException("Events of product " + productId + " are not contiguous");
+                }
+                startProduct(productId);
+                lastTime = 0;
+            } else if (epochMillis < lastTime) {
+                throw new IllegalArgumentException("Events of product " + productId + " are not in time order");
+            }
+
+            short code = dictionary.encode(status);
+            if (code > 0xFF) {
+                throw new IllegalStateException("Columnar store supports at most 256 distinct statuses");
+            }
+            times.writeVarLong(epochMillis - lastTime);
+            codes.write((byte) code);
+            lastTime = epochMillis;
+            eventCount++;
+            return this;
+        }
+
+        private void startProduct(String productId) {
+            if (productCount == productIds.length) {
+                int capacity = productIds.length * 2;
+                productIds = Arrays.copyOf(productIds, capacity);
+                eventStart = Arrays.copyOf(eventStart, capacity + 1);
+                timeOffset = Arrays.copyOf(timeOffset, capacity);
+            }
+            productIds[productCount] = productId;
+            eventStart[productCount] = eventCount;
+            timeOffset[productCount] = times.size();
+            productCount++;
+        }
+
+        public ColumnarStatusStore build() {
+            built = true;
+            seen.clear();
+            return new ColumnarStatusStore(this);
+        }
+    }
+
+    /**
+     * Append-only byte storage in 16MB direct buffers, addressed by a long position so the columns are
+     * not limited to 2GB.
+     */
+    static final class OffHeapBytes {
+        private static final int CHUNK_BITS = 24;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+        // Buffers start small and grow to full chunks, so small stores stay small
+        private static final int INITIAL_CAPACITY = 4096;
+
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private long size;
+
+        OffHeapBytes() {
+            chunks.add(ByteBuffer.allocateDirect(INITIAL_CAPACITY));
+        }
+
+        long size() {
+            return size;
+        }
+
+        long capacity() {
+            long capacity = 0;
+            for (ByteBuffer chunk : chunks) {
+                capacity += chunk.capacity();
+            }
+            return capacity;
+        }
+
+        byte get(long position) {
+            return chunks.get((int) (position >>> CHUNK_BITS)).get((int) (position & CHUNK_MASK));
+        }
+
+        void write(byte value) {
+            int chunkIndex = (int) (size >>> CHUNK_BITS);
+            int offset = (int) (size & CHUNK_MASK);
+            if (chunkIndex == chunks.size()) {
+                chunks.add(ByteBuffer.allocateDirect(CHUNK_SIZE));
+            }
+            ByteBuffer chunk = chunks.get(chunkIndex);
+            if (offset == chunk.capacity()) {
+                ByteBuffer grown = ByteBuffer.allocateDirect(Math.min(chunk.capacity() * 2, CHUNK_SIZE));
+                grown.put(0, chunk, 0, chunk.capacity());
+                chunks.set(chunkIndex, grown);
+                chunk = grown;
+            }
+            chunk.put(offset, value);
+            size++;
+        }
+
+        // Unsigned LEB128; deltas are never negative
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((byte) value);
+        }
+
+        long readVarLong(long position) {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                byte b = get(position++);
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+        }
+
+        static int varLongSize(long value) {
+            int bits = 64 - Long.numberOfLeadingZeros(value | 1);
+            return (bits + 6) / 7;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.apache.http.HttpHost;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.elasticsearch.client.RestClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Owns one pooled {@link RestClient}, its transport and the {@link ElasticsearchClient} built on
+ * top of it, so every component talking to the cluster shares a single connection pool.
+ */
+public class ElasticsearchClientFactory implements Closeable {
+
+    private static ElasticsearchClientFactory defaultFactory;
+    private static boolean shutdownHookRegistered;
+
+    private final RestClient restClient;
+    private final ObjectMapper objectMapper;
+    private final ElasticsearchTransport transport;
+    private final ElasticsearchClient client;
+    private final ElasticsearchAsyncClient asyncClient;
+    private final ClientMetrics metrics = new ClientMetrics();
+    private final boolean virtualThreads;
+    private final int maxConnectionsTotal;
+    private ExecutorService blockingExecutor;
+    private volatile boolean closed;
+
+    private ElasticsearchClientFactory(Builder builder) {
+        // Create the low-level client with a tuned connection pool
+        this.restClient = RestClient
+                .builder(builder.hosts.toArray(new HttpHost[0]))
+                .setCompressionEnabled(builder.compression)
+                .setRequestConfigCallback(requestConfig -> requestConfig
+                        .setConnectTimeout((int) builder.connectTimeout.toMillis())
+                        .setSocketTimeout((int) builder.socketTimeout.toMillis())
+                        .setConnectionRequestTimeout((int) builder.connectionRequestTimeout.toMillis()))
+                .setHttpClientConfigCallback(httpClient -> {
+                    httpClient
+                            .setMaxConnPerRoute(builder.maxConnectionsPerRoute)
+                            .setMaxConnTotal(builder.maxConnectionsTotal)
+                            .setKeepAliveStrategy((response, context) -> builder.keepAlive.toMillis())
+                            .addInterceptorLast(metrics.connectionBytesInterceptor())
+                            .setDefaultIOReactorConfig(IOReactorConfig.custom()
+                                    .setIoThreadCount(builder.ioThreads)
+                                    .setSoKeepAlive(true)
+                                    .build());
+                    return httpClient;
+                })
+                .build();
+
+        // Create a custom ObjectMapper with JavaTimeModule, and direct codecs for our document types
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.registerModule(new JavaTimeModule());
+        this.objectMapper.registerModule(new StatusJsonModule());
+
+        // Create the transport with a custom Jackson mapper
+        this.transport = new RestClientTransport(restClient, new JacksonJsonpMapper(objectMapper));
+
+        // Create the API clients; both share the transport and its connection pool
+        this.client = new ElasticsearchClient(transport);
+        this.asyncClient = new ElasticsearchAsyncClient(transport);
+
+        if (builder.jmx) {
+            metrics.registerMBeans(builder.name);
+        }
+
+        this.virtualThreads = builder.virtualThreads;
+        this.maxConnectionsTotal = builder.maxConnectionsTotal;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the process-wide factory pointing at localhost:9200, creating it on first use. It is
+     * closed by a shutdown hook.
+     */
+    public static synchronized ElasticsearchClientFactory getDefault() {
+        if (defaultFactory == null || defaultFactory.closed) {
+            defaultFactory = builder().build();
+            if (!shutdownHookRegistered) {
+                // One hook for the process, closing whichever default is current at exit
+                Runtime.getRuntime().addShutdownHook(new Thread(ElasticsearchClientFactory::shutdownDefault,
+                        "elasticsearch-client-shutdown"));
+                shutdownHookRegistered = true;
+            }
+        }
+        return defaultFactory;
+    }
+
+    // Closes the process-wide factory if it was ever created
+    public static synchronized void shutdownDefault() {
+        if (defaultFactory != null) {
+            defaultFactory.close();
+            defaultFactory = null;
+        }
+    }
+
+    public ElasticsearchClient client() {
+        return client;
+    }
+
+    // Latency, error and byte counters shared by every component using this factory
+    public ClientMetrics metrics() {
+        return metrics;
+    }
+
+    public ElasticsearchAsyncClient asyncClient() {
+        return asyncClient;
+    }
+
+    /**
+     * Executor for running blocking client calls off the caller's thread. Uses virtual threads when
+     * enabled and supported by the runtime, otherwise a pool sized to the connection limit.
+     */
+    public synchronized ExecutorService blockingExecutor() {
+        if (blockingExecutor == null) {
+            blockingExecutor = virtualThreads
+                    ? BlockingExecutors.newPerTaskExecutor("elasticsearch-blocking", maxConnectionsTotal)
+                    : Executors.newFixedThreadPool(maxConnectionsTotal, r -> {
+                        Thread t = new Thread(r, "elasticsearch-blocking");
+                        t.setDaemon(true);
+                        return t;
+                    });
+        }
+        return blockingExecutor;
+    }
+
+    public ElasticsearchTransport transport() {
+        return transport;
+    }
+
+    public ObjectMapper objectMapper() {
+        return objectMapper;
+    }
+
+    public RestClient restClient() {
+        return restClient;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        metrics.close();
+        if (blockingExecutor != null) {
+            blockingExecutor.shutdown();
+        }
+        try {
+            // Closing the transport closes the underlying RestClient and its IO reactor threads
+            transport.close();
+        } catch (IOException e) {
+            System.err.println("Error closing Elasticsearch client: " + e.getMessage());
+        }
+    }
+
+    public static class Builder {
+        private final List<HttpHost> hosts = new ArrayList<>();
+        private int maxConnectionsPerRoute = 50;
+        private int maxConnectionsTotal = 200;
+        private Duration keepAlive = Duration.ofMinutes(1);
+        private int ioThreads = Runtime.getRuntime().availableProcessors();
+        private Duration connectTimeout = Duration.ofSeconds(1);
+        private Duration socketTimeout = Duration.ofSeconds(30);
+        private Duration connectionRequestTimeout = Duration.ofSeconds(1);
+        private boolean compression;
+        private boolean virtualThreads = true;
+        private String name = "default";
+        private boolean jmx = true;
+
+        private Builder() {
+        }
+
+        public Builder host(String hostname, int port) {
+            return host(new HttpHost(hostname, port));
+        }
+
+        public Builder host(HttpHost host) {
+            hosts.add(host);
+            return this;
+        }
+
+        public Builder maxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        public Builder maxConnectionsTotal(int maxConnectionsTotal) {
+            this.maxConnectionsTotal = maxConnectionsTotal;
+            return this;
+        }
+
+        public Builder keepAlive(Duration keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public Builder ioThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        public Builder connectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public Builder socketTimeout(Duration socketTimeout) {
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        public Builder connectionRequestTimeout(Duration connectionRequestTimeout) {
+            this.connectionRequestTimeout = connectionRequestTimeout;
+            return this;
+        }
+
+        // Gzip request bodies and advertise gzip for responses
+        public Builder compression(boolean compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        // Whether blockingExecutor() may use virtual threads (Java 21+)
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        // Name under which the client metrics are published in JMX
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public Builder jmx(boolean jmx) {
+            this.jmx = jmx;
+            return this;
+        }
+
+        public ElasticsearchClientFactory build() {
+            if (hosts.isEmpty()) {
+                hosts.add(new HttpHost("localhost", 9200));
+            }
+            if (maxConnectionsPerRoute <= 0 || maxConnectionsTotal <= 0 || ioThreads <= 0) {
+                throw new IllegalArgumentException("Connection pool limits must be positive");
+            }
+            return new ElasticsearchClientFactory(this);
+        }
+    }
+}
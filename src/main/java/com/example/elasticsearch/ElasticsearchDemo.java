@@ -1,48 +1,52 @@
 package com.example.elasticsearch;
 
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch.core.*;
 import co.elastic.clients.elasticsearch.core.search.Hit;
-import co.elastic.clients.json.jackson.JacksonJsonpMapper;
-import co.elastic.clients.transport.ElasticsearchTransport;
-import co.elastic.clients.transport.rest_client.RestClientTransport;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import org.apache.http.HttpHost;
-import org.elasticsearch.client.RestClient;
+import co.elastic.clients.elasticsearch.core.search.TotalHits;
+import co.elastic.clients.elasticsearch.core.search.TotalHitsRelation;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class ElasticsearchDemo {
-    private static final String INDEX_NAME = "products";
+    private static final String INDEX_NAME = ProductIndex.NAME;
     private final ElasticsearchClient client;
+    private final ElasticsearchAsyncClient asyncClient;
+    private final ClientMetrics metrics;
+    private volatile ProductSearchCache searchCache;
 
     public ElasticsearchDemo() {
-        // Create the low-level client
-        RestClient restClient = RestClient
-                .builder(new HttpHost("localhost", 9200))
-                .build();
+        this(ElasticsearchClientFactory.getDefault());
+    }
 
-        // Create a custom ObjectMapper with JavaTimeModule
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.registerModule(new JavaTimeModule());
+    public ElasticsearchDemo(ElasticsearchClientFactory clientFactory) {
+        this.client = clientFactory.client();
+        this.asyncClient = clientFactory.asyncClient();
+        this.metrics = clientFactory.metrics();
+    }
 
-        // Create the transport with a custom Jackson mapper
-        ElasticsearchTransport transport = new RestClientTransport(
-                restClient, new JacksonJsonpMapper(objectMapper));
+    // Serves repeated searches from the given cache; indexProduct invalidates the entries it affects
+    public void enableSearchCache(ProductSearchCache cache) {
+        this.searchCache = cache;
+    }
 
-        // Create the API client
-        this.client = new ElasticsearchClient(transport);
+    public ProductSearchCache searchCache() {
+        return searchCache;
     }
 
     public void createIndex() throws IOException {
         // Check if index exists
-        boolean indexExists = client.indices().exists(e -> e.index(INDEX_NAME)).value();
+        boolean indexExists = ProductIndex.exists(client);
         
         if (!indexExists) {
-            // Create the index
-            client.indices().create(c -> c.index(INDEX_NAME));
+            // Create the index with the product mapping and search analyzers
+            ProductIndex.create(client);
             System.out.println("Index created successfully");
         } else {
             System.out.println("Index already exists");
@@ -51,49 +55,154 @@ public class ElasticsearchDemo {
 
     public void indexProduct(Product product) throws IOException {
         // Index the product
-        IndexResponse response = client.index(i -> i
+        long start = metrics.start(ClientMetrics.Operation.INDEX_PRODUCT);
+        IndexResponse response;
+        try {
+            response = client.index(i -> i
+                    .index(INDEX_NAME)
+                    .id(product.getId())
+                    .document(product));
+        } catch (IOException | RuntimeException e) {
+            metrics.failure(ClientMetrics.Operation.INDEX_PRODUCT, start);
+            throw e;
+        }
+        metrics.success(ClientMetrics.Operation.INDEX_PRODUCT, start);
+        invalidateCached(product);
+        System.out.println("Product indexed successfully: " + response.id());
+    }
+
+    // Non-blocking variant of indexProduct
+    public CompletableFuture<IndexResponse> indexProductAsync(Product product) {
+        long start = metrics.start(ClientMetrics.Operation.INDEX_PRODUCT);
+        return asyncClient.index(i -> i
                 .index(INDEX_NAME)
                 .id(product.getId())
-                .document(product));
-        System.out.println("Product indexed successfully: " + response.id());
+                .document(product))
+                .whenComplete((response, error) -> {
+                    record(ClientMetrics.Operation.INDEX_PRODUCT, start, -1, error);
+                    if (error == null) {
+                        invalidateCached(product);
+                    }
+                });
+    }
+
+    /**
+     * Reloads the whole catalog from a CSV or NDJSON file into a fresh index and swaps the products
+     * alias over to it, instead of one indexProduct request per product.
+     */
+    public CatalogLoader.Result loadCatalog(Path file) throws IOException {
+        CatalogLoader.Result result;
+        try (CatalogLoader loader = CatalogLoader.builder(client).build()) {
+            result = loader.load(file);
+        }
+        ProductSearchCache cache = searchCache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+        System.out.printf("Catalog loaded: %d products in %.1fs (%.0f docs/s)%n",
+            result.documents(), result.elapsed().toNanos() / 1e9, result.documentsPerSecond());
+        return result;
+    }
+
+    private void invalidateCached(Product product) {
+        ProductSearchCache cache = searchCache;
+        if (cache != null) {
+            cache.invalidate(product);
+        }
+    }
+
+    private void record(ClientMetrics.Operation operation, long start, long tookMillis, Throwable error) {
+        if (error == null) {
+            metrics.success(operation, start, tookMillis);
+        } else {
+            metrics.failure(operation, start);
+        }
     }
 
     public void searchProducts(String searchText) throws IOException {
-        // Search for products using a more flexible query
-        SearchResponse<Product> response = client.search(s -> s
-                .index(INDEX_NAME)
-                .query(q -> q
-                        .queryString(qs -> qs
-                                .query("*" + searchText + "*")
-                                .fields("name", "description")
-                        )
-                ),
-                Product.class
-        );
+        ProductPage page = search(ProductQuery.of(searchText));
 
         // Print search results
-        List<Hit<Product>> hits = response.hits().hits();
-        System.out.println("Found " + hits.size() + " products:");
-        for (Hit<Product> hit : hits) {
-            System.out.println(hit.source());
+        System.out.println("Found " + page.products().size() + " products:");
+        for (Product product : page.products()) {
+            System.out.println(product);
         }
         
         // Print total hits for debugging
-        System.out.println("Total hits: " + response.hits().total().value());
+        System.out.println("Total hits: " + page.total() + (page.totalIsLowerBound() ? "+" : ""));
+    }
+
+    // One page of products matching the query, looked up through the n-gram subfields
+    public ProductPage search(ProductQuery query) throws IOException {
+        ProductSearchCache cache = searchCache;
+        return cache != null ? cache.get(query, this::searchUncached) : searchUncached(query);
+    }
+
+    public CompletableFuture<ProductPage> searchAsync(ProductQuery query) {
+        ProductSearchCache cache = searchCache;
+        return cache != null ? cache.getAsync(query, this::searchUncachedAsync) : searchUncachedAsync(query);
+    }
+
+    private ProductPage searchUncached(ProductQuery query) throws IOException {
+        long start = metrics.start(ClientMetrics.Operation.SEARCH_PRODUCTS);
+        SearchResponse<Product> response;
+        try {
+            response = client.search(query.toSearchRequest(INDEX_NAME), Product.class);
+        } catch (IOException | RuntimeException e) {
+            metrics.failure(ClientMetrics.Operation.SEARCH_PRODUCTS, start);
+            throw e;
+        }
+        metrics.success(ClientMetrics.Operation.SEARCH_PRODUCTS, start, response.took());
+        return page(query, response);
+    }
+
+    private CompletableFuture<ProductPage> searchUncachedAsync(ProductQuery query) {
+        long start = metrics.start(ClientMetrics.Operation.SEARCH_PRODUCTS);
+        return asyncClient.search(query.toSearchRequest(INDEX_NAME), Product.class)
+                .whenComplete((response, error) -> record(ClientMetrics.Operation.SEARCH_PRODUCTS, start,
+                        response == null ? -1 : response.took(), error))
+                .thenApply(response -> page(query, response));
     }
     
+    // Non-blocking variant of searchProducts that returns the matching products instead of printing them
+    public CompletableFuture<List<Product>> searchProductsAsync(String searchText) {
+        return searchAsync(ProductQuery.of(searchText)).thenApply(ProductPage::products);
+    }
+
+    static SearchRequest searchRequest(String searchText) {
+        return ProductQuery.of(searchText).toSearchRequest(INDEX_NAME);
+    }
+
+    private static ProductPage page(ProductQuery query, SearchResponse<Product> response) {
+        List<Product> products = new ArrayList<>(response.hits().hits().size());
+        for (Hit<Product> hit : response.hits().hits()) {
+            products.add(hit.source());
+        }
+        TotalHits total = response.hits().total();
+        return new ProductPage(Collections.unmodifiableList(products),
+                total == null ? products.size() : total.value(),
+                total != null && total.relation() == TotalHitsRelation.Gte,
+                query.from(), query.size());
+    }
+
+    /**
+     * A page of search results. {@code total} is exact unless {@code totalIsLowerBound}, which is set
+     * once more products match than are counted.
+     */
+    public record ProductPage(List<Product> products, long total, boolean totalIsLowerBound, int from, int size) {
+        public boolean hasNext() {
+            return totalIsLowerBound || from + products.size() < total;
+        }
+    }
+
     // Add a method to get all products for debugging
     public void getAllProducts() throws IOException {
-        SearchResponse<Product> response = client.search(s -> s
-                .index(INDEX_NAME)
-                .query(q -> q.matchAll(ma -> ma)),
-                Product.class
-        );
+        ProductPage page = search(ProductQuery.builder().size(ProductQuery.MAX_SIZE).build());
         
-        List<Hit<Product>> hits = response.hits().hits();
-        System.out.println("All products in index (" + hits.size() + "):");
-        for (Hit<Product> hit : hits) {
-            System.out.println(hit.source());
+        List<Product> products = page.products();
+        System.out.println("All products in index (" + products.size() + "):");
+        for (Product product : products) {
+            System.out.println(product);
         }
     }
 
@@ -126,6 +235,8 @@ public class ElasticsearchDemo {
 
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            ElasticsearchClientFactory.shutdownDefault();
         }
     }
 } 
\ No newline at end of file
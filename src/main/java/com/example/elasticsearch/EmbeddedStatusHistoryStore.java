@@ -0,0 +1,862 @@
+package com.example.elasticsearch;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * {@link StatusHistoryStore} kept in local files, for edge and batch deployments where a network round
+ * trip per lookup is the dominant cost.
+ * <p>
+ * Changes are appended to a write-ahead log and held in a sorted in-memory table. When the table is
+ * full it is written out as an immutable segment file sorted by product and time, and a new log is
+ * started. Segments are memory-mapped and end in a sparse index of every {@code indexInterval}th key,
+ * so a point-in-time lookup is a binary search over the index and a short scan per segment. A background
+ * thread merges segments once there are more than {@code maxSegments}. On open, segments superseded by
+ * an interrupted merge are deleted and logs that were not yet flushed are replayed.
+ * <p>
+ * Tables are flushed in order. A failed flush is retried with backoff, and later tables wait behind
+ * it, so segments always cover an unbroken run of log generations and a log is only deleted once every
+ * change up to it is in a segment.
+ * <p>
+ * Answers match the Elasticsearch store: a product and timestamp identify a change, so recording them
+ * again replaces it; lookups compare timestamps at millisecond precision, like the {@code date} field;
+ * histories are in ascending time order.
+ */
+public class EmbeddedStatusHistoryStore implements StatusHistoryStore {
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ISO_INSTANT;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("seg-(\\d{20})-(\\d{20})\\.seg");
+    private static final Pattern LOG_NAME = Pattern.compile("wal-(\\d{20})\\.log");
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Log record header: payload length and CRC32C of the payload
+    private static final int LOG_HEADER_BYTES = 8;
+    // Footer: index offset, index entries, changes, highest sequence number, version, magic
+    private static final int FOOTER_BYTES = 8 + 4 + 8 + 8 + 4 + 4;
+    private static final int SEGMENT_VERSION = 1;
+    private static final int SEGMENT_MAGIC = 0x53485354;
+    // Merged segments stay well below the 2GB limit of a single mapping
+    private static final long MAX_MERGED_BYTES = 1L << 30;
+    private static final long MAX_FLUSH_BACKOFF_MILLIS = 30_000;
+
+    private final Path directory;
+    private final int memtableEntries;
+    private final int indexInterval;
+    private final int maxSegments;
+    private final boolean syncWrites;
+    private final ExecutorService background;
+    // Guards the log, the sequence counter and every state change
+    private final Object lock = new Object();
+    private volatile State state;
+    private FileChannel log;
+    private long logGeneration;
+    private long nextSequence;
+    private volatile boolean closed;
+    // Set when a flush gave up at close; later tables are then left to log replay as well
+    private volatile boolean flushAbandoned;
+
+    private EmbeddedStatusHistoryStore(Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.memtableEntries = builder.memtableEntries;
+        this.indexInterval = builder.indexInterval;
+        this.maxSegments = builder.maxSegments;
+        this.syncWrites = builder.syncWrites;
+
+        Files.createDirectories(directory);
+        List<Segment> segments = openSegments();
+        long flushedThrough = flushedThrough(segments);
+        long maxSequence = 0;
+        long lastLog = 0;
+        for (Segment segment : segments) {
+            lastLog = Math.max(lastLog, segment.lastGeneration);
+            maxSequence = Math.max(maxSequence, segment.maxSequence);
+        }
+
+        Memtable recovered = null;
+        for (long generation : listGenerations(LOG_NAME)) {
+            if (generation <= flushedThrough) {
+                Files.deleteIfExists(logPath(generation));
+                continue;
+            }
+            if (recovered == null) {
+                recovered = new Memtable(generation);
+            }
+            maxSequence = Math.max(maxSequence, replay(generation, recovered));
+            lastLog = generation;
+        }
+        this.nextSequence = maxSequence + 1;
+        this.logGeneration = lastLog + 1;
+        this.log = openLog(logGeneration);
+        this.state = new State(recovered != null ? recovered : new Memtable(logGeneration), List.of(), segments);
+
+        this.background = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "embedded-status-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+        synchronized (lock) {
+            if (state.active.size >= memtableEntries) {
+                rotate();
+            }
+        }
+        background.execute(this::mergeQuietly);
+    }
+
+    public static Builder builder(Path directory) {
+        return new Builder(directory);
+    }
+
+    @Override
+    public void recordStatusChange(String productId, String status) throws IOException {
+        write(new ProductStatusHistory.StatusHistoryEntry(productId, status, Instant.now()));
+    }
+
+    @Override
+    public void recordStatusChangeWithTimestamp(ProductStatusHistory.StatusHistoryEntry entry) throws IOException {
+        write(entry);
+    }
+
+    // Completes with the same id the Elasticsearch store gives changes recorded with a timestamp
+    @Override
+    public CompletableFuture<String> recordStatusChangeAsync(String productId, String status) {
+        try {
+            return CompletableFuture.completedFuture(
+                write(new ProductStatusHistory.StatusHistoryEntry(productId, status, Instant.now())));
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public Optional<String> findStatusAtTime(String productId, Instant time) {
+        ensureOpen();
+        long millis = time.toEpochMilli();
+        State current = state;
+        Change latest = current.active.latest(productId, millis);
+        for (Memtable memtable : current.flushing) {
+            latest = newer(latest, memtable.latest(productId, millis));
+        }
+        for (Segment segment : current.segments) {
+            latest = newer(latest, segment.latest(productId, millis));
+        }
+        return latest == null ? Optional.empty() : Optional.ofNullable(latest.status());
+    }
+
+    @Override
+    public List<ProductStatusHistory.StatusHistoryEntryWithString> findStatusHistory(String productId) {
+        ensureOpen();
+        State current = state;
+        TreeMap<Change, Change> merged = new TreeMap<>(Change.KEY_ORDER);
+        Consumer<Change> collector = change -> merged.merge(change, change, EmbeddedStatusHistoryStore::newer);
+        for (Segment segment : current.segments) {
+            segment.forEach(productId, collector);
+        }
+        for (Memtable memtable : current.flushing) {
+            memtable.forEach(productId, collector);
+        }
+        current.active.forEach(productId, collector);
+
+        List<ProductStatusHistory.StatusHistoryEntryWithString> history = new ArrayList<>(merged.size());
+        for (Change change : merged.values()) {
+            history.add(new ProductStatusHistory.StatusHistoryEntryWithString(
+                change.productId(), change.status(), change.timestamp()));
+        }
+        return history;
+    }
+
+    public Stats stats() {
+        State current = state;
+        long segmentBytes = 0;
+        long segmentChanges = 0;
+        for (Segment segment : current.segments) {
+            segmentBytes += segment.sizeBytes();
+            segmentChanges += segment.changeCount;
+        }
+        long buffered = current.active.size;
+        for (Memtable memtable : current.flushing) {
+            buffered += memtable.size;
+        }
+        return new Stats(current.segments.size(), segmentBytes, segmentChanges, buffered);
+    }
+
+    /**
+     * Stops background work after the flushes and merges already started. Buffered changes stay in the
+     * log and are replayed on the next open.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            log.force(true);
+            log.close();
+        }
+    }
+
+    private String write(ProductStatusHistory.StatusHistoryEntry entry) throws IOException {
+        String timestamp = DATE_FORMATTER.format(entry.timestamp());
+        synchronized (lock) {
+            ensureOpen();
+            Change change = new Change(entry.productId(), entry.timestamp().toEpochMilli(), timestamp,
+                entry.status(), nextSequence);
+            appendToLog(encode(change));
+            nextSequence++;
+            State current = state;
+            current.active.put(change);
+            if (current.active.size >= memtableEntries) {
+                rotate();
+            }
+        }
+        return entry.productId() + "_" + timestamp;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Status history store is closed");
+        }
+    }
+
+    private void appendToLog(byte[] payload) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(LOG_HEADER_BYTES + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        long position = log.position();
+        try {
+            while (record.hasRemaining()) {
+                log.write(record);
+            }
+            if (syncWrites) {
+                log.force(false);
+            }
+        } catch (IOException e) {
+            // Drop the partial record so later appends are not hidden behind it on replay
+            try {
+                log.truncate(position);
+                log.position(position);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    // Called with the lock held: freezes the active table, starts a new log and schedules the flush
+    private void rotate() throws IOException {
+        Memtable frozen = state.active;
+        frozen.lastGeneration = logGeneration;
+        log.force(true);
+        log.close();
+        logGeneration++;
+        log = openLog(logGeneration);
+
+        List<Memtable> flushing = new ArrayList<>(state.flushing);
+        flushing.add(frozen);
+        state = new State(new Memtable(logGeneration), flushing, state.segments);
+        background.execute(() -> flush(frozen));
+    }
+
+    // Highest generation up to which every log is covered by a segment; logs after it are replayed
+    private static long flushedThrough(List<Segment> segments) {
+        List<Segment> byGeneration = new ArrayList<>(segments);
+        byGeneration.sort(Comparator.comparingLong(segment -> segment.firstGeneration));
+        long through = 0;
+        for (Segment segment : byGeneration) {
+            if (segment.firstGeneration > through + 1) {
+                break;
+            }
+            through = Math.max(through, segment.lastGeneration);
+        }
+        return through;
+    }
+
+    // Runs on the single background thread, so it holds back every later flush until it succeeds
+    private void flush(Memtable memtable) {
+        Segment segment;
+        long backoffMillis = 100;
+        while (true) {
+            if (flushAbandoned) {
+                return;
+            }
+            try {
+                segment = writeSegment(memtable.firstGeneration, memtable.lastGeneration,
+                    memtable.changes.values().iterator());
+                break;
+            } catch (IOException | RuntimeException e) {
+                // The table stays readable meanwhile and its logs stay on disk
+                System.err.println("Failed to flush status history segment, retrying: " + e.getMessage());
+            }
+            if (closed) {
+                flushAbandoned = true;
+                return;
+            }
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                flushAbandoned = true;
+                return;
+            }
+            backoffMillis = Math.min(backoffMillis * 2, MAX_FLUSH_BACKOFF_MILLIS);
+        }
+        synchronized (lock) {
+            List<Memtable> flushing = new ArrayList<>(state.flushing);
+            flushing.remove(memtable);
+            List<Segment> segments = new ArrayList<>(state.segments);
+            segments.add(segment);
+            state = new State(state.active, flushing, segments);
+        }
+        for (long generation = memtable.firstGeneration; generation <= memtable.lastGeneration; generation++) {
+            try {
+                Files.deleteIfExists(logPath(generation));
+            } catch (IOException e) {
+                System.err.println("Failed to delete status history log " + generation + ": " + e.getMessage());
+            }
+        }
+        mergeQuietly();
+    }
+
+    private void mergeQuietly() {
+        try {
+            while (merge()) {
+                // Keep merging until the segment count is within bounds
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to merge status history segments: " + e.getMessage());
+        }
+    }
+
+    // Merges the oldest run of adjacent segments that fits in one mapping; false when nothing was merged
+    private boolean merge() throws IOException {
+        List<Segment> segments = state.segments;
+        if (segments.size() <= maxSegments) {
+            return false;
+        }
+        List<Segment> inputs = new ArrayList<>();
+        long bytes = 0;
+        for (Segment segment : segments) {
+            if (!inputs.isEmpty() && bytes + segment.sizeBytes() > MAX_MERGED_BYTES) {
+                if (inputs.size() >= 2) {
+                    break;
+                }
+                inputs.clear();
+                bytes = 0;
+            }
+            inputs.add(segment);
+            bytes += segment.sizeBytes();
+        }
+        if (inputs.size() < 2 || bytes > MAX_MERGED_BYTES) {
+            return false;
+        }
+
+        Segment merged = writeSegment(inputs.get(0).firstGeneration, inputs.get(inputs.size() - 1).lastGeneration,
+            new MergeIterator(inputs));
+        synchronized (lock) {
+            List<Segment> current = new ArrayList<>(state.segments);
+            int position = current.indexOf(inputs.get(0));
+            current.removeAll(inputs);
+            current.add(position, merged);
+            state = new State(state.active, state.flushing, current);
+        }
+        // Readers holding the previous state keep their mappings after the files are deleted
+        for (Segment input : inputs) {
+            Files.deleteIfExists(input.path);
+        }
+        return true;
+    }
+
+    private Segment writeSegment(long firstGeneration, long lastGeneration, Iterator<Change> changes) throws IOException {
+        Path target = segmentPath(firstGeneration, lastGeneration);
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            long offset = 0;
+            long count = 0;
+            long maxSequence = 0;
+            List<Change> indexKeys = new ArrayList<>();
+            List<Long> indexOffsets = new ArrayList<>();
+            while (changes.hasNext()) {
+                Change change = changes.next();
+                if (count % indexInterval == 0) {
+                    indexKeys.add(change);
+                    indexOffsets.add(offset);
+                }
+                byte[] record = encode(change);
+                out.write(record);
+                offset += record.length;
+                count++;
+                maxSequence = Math.max(maxSequence, change.sequence());
+            }
+            long indexOffset = offset;
+            for (int i = 0; i < indexKeys.size(); i++) {
+                byte[] productId = bytes(indexKeys.get(i).productId());
+                out.writeShort(productId.length);
+                out.write(productId);
+                out.writeLong(indexKeys.get(i).millis());
+                out.writeLong(indexOffsets.get(i));
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(indexKeys.size());
+            out.writeLong(count);
+            out.writeLong(maxSequence);
+            out.writeInt(SEGMENT_VERSION);
+            out.writeInt(SEGMENT_MAGIC);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Segment.open(target, firstGeneration, lastGeneration);
+    }
+
+    private List<Segment> openSegments() throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                Matcher matcher = SEGMENT_NAME.matcher(name);
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    // Left behind by a flush or merge that did not finish
+                    Files.deleteIfExists(file);
+                } else if (matcher.matches()) {
+                    ranges.add(new long[]{Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2))});
+                }
+            }
+        }
+        ranges.sort(Comparator.comparingLong((long[] range) -> range[0]).thenComparingLong(range -> -range[1]));
+
+        List<Segment> segments = new ArrayList<>();
+        long coveredThrough = 0;
+        for (long[] range : ranges) {
+            if (range[1] <= coveredThrough) {
+                // Input of a merge whose output was written before the inputs could be deleted
+                Files.deleteIfExists(segmentPath(range[0], range[1]));
+                continue;
+            }
+            segments.add(Segment.open(segmentPath(range[0], range[1]), range[0], range[1]));
+            coveredThrough = range[1];
+        }
+        return segments;
+    }
+
+    // Replays a log into the table; returns the highest sequence number seen
+    private long replay(long generation, Memtable memtable) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(logPath(generation)));
+        long maxSequence = 0;
+        while (buffer.remaining() >= LOG_HEADER_BYTES) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                System.err.println("Ignoring torn record at the end of status history log " + generation);
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            CRC32C crc = new CRC32C();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                System.err.println("Ignoring torn record at the end of status history log " + generation);
+                break;
+            }
+            Change change = decode(ByteBuffer.wrap(payload));
+            memtable.put(change);
+            maxSequence = Math.max(maxSequence, change.sequence());
+        }
+        return maxSequence;
+    }
+
+    private FileChannel openLog(long generation) throws IOException {
+        return FileChannel.open(logPath(generation), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private List<Long> listGenerations(Pattern pattern) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .map(path -> pattern.matcher(path.getFileName().toString()))
+                .filter(Matcher::matches)
+                .map(matcher -> Long.parseLong(matcher.group(1)))
+                .sorted()
+                .toList();
+        }
+    }
+
+    private Path logPath(long generation) {
+        return directory.resolve(String.format("wal-%020d.log", generation));
+    }
+
+    private Path segmentPath(long firstGeneration, long lastGeneration) {
+        return directory.resolve(String.format("seg-%020d-%020d.seg", firstGeneration, lastGeneration));
+    }
+
+    // Of two versions, the later change; for the same product and timestamp, the later write
+    private static Change newer(Change a, Change b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        int cmp = Change.KEY_ORDER.compare(a, b);
+        if (cmp == 0) {
+            cmp = Long.compare(a.sequence(), b.sequence());
+        }
+        return cmp >= 0 ? a : b;
+    }
+
+    // Shared by log records and segment records
+    private static byte[] encode(Change change) {
+        byte[] productId = bytes(change.productId());
+        byte[] timestamp = bytes(change.timestamp());
+        byte[] status = change.status() == null ? null : bytes(change.status());
+        ByteBuffer buffer = ByteBuffer.allocate(2 + productId.length + 8 + 2 + timestamp.length
+            + 2 + (status == null ? 0 : status.length) + 8);
+        buffer.putShort((short) productId.length).put(productId);
+        buffer.putLong(change.millis());
+        buffer.putShort((short) timestamp.length).put(timestamp);
+        if (status == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) status.length).put(status);
+        }
+        buffer.putLong(change.sequence());
+        return buffer.array();
+    }
+
+    private static Change decode(ByteBuffer buffer) {
+        String productId = string(buffer);
+        long millis = buffer.getLong();
+        String timestamp = string(buffer);
+        String status = string(buffer);
+        return new Change(productId, millis, timestamp, status, buffer.getLong());
+    }
+
+    private static byte[] bytes(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Status history field too long: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    private static String string(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One recorded change. Changes are ordered by product, then time, then timestamp text; the
+     * sequence number orders writes of the same key.
+     */
+    private record Change(String productId, long millis, String timestamp, String status, long sequence) {
+        static final Comparator<Change> KEY_ORDER = Comparator
+            .comparing(Change::productId)
+            .thenComparingLong(Change::millis)
+            // A null timestamp sorts last so lookups can ask for everything at or before a millisecond
+            .thenComparing(Change::timestamp, Comparator.nullsLast(Comparator.naturalOrder()));
+
+        static Change bound(String productId, long millis, boolean upper) {
+            return new Change(productId, millis, upper ? null : "", null, 0);
+        }
+    }
+
+    private record State(Memtable active, List<Memtable> flushing, List<Segment> segments) {
+    }
+
+    // Sorted in-memory changes covering the logs from firstGeneration to lastGeneration
+    private static final class Memtable {
+        final ConcurrentSkipListMap<Change, Change> changes = new ConcurrentSkipListMap<>(Change.KEY_ORDER);
+        final long firstGeneration;
+        long lastGeneration;
+        // Written under the store lock
+        volatile int size;
+
+        Memtable(long firstGeneration) {
+            this.firstGeneration = firstGeneration;
+        }
+
+        void put(Change change) {
+            if (changes.put(change, change) == null) {
+                size++;
+            }
+        }
+
+        Change latest(String productId, long millis) {
+            Change floor = changes.floorKey(Change.bound(productId, millis, true));
+            return floor != null && floor.productId().equals(productId) ? changes.get(floor) : null;
+        }
+
+        void forEach(String productId, Consumer<Change> consumer) {
+            changes.subMap(Change.bound(productId, Long.MIN_VALUE, false), true,
+                Change.bound(productId, Long.MAX_VALUE, true), true).values().forEach(consumer);
+        }
+    }
+
+    /**
+     * Immutable, memory-mapped run of changes in key order, followed by the sparse index and the footer.
+     */
+    private static final class Segment {
+        final Path path;
+        final long firstGeneration;
+        final long lastGeneration;
+        final long changeCount;
+        final long maxSequence;
+        private final MappedByteBuffer buffer;
+        private final int dataEnd;
+        private final String[] indexProducts;
+        private final long[] indexMillis;
+        private final int[] indexOffsets;
+
+        private Segment(Path path, long firstGeneration, long lastGeneration, MappedByteBuffer buffer) throws IOException {
+            this.path = path;
+            this.firstGeneration = firstGeneration;
+            this.lastGeneration = lastGeneration;
+            this.buffer = buffer;
+            int footer = buffer.capacity() - FOOTER_BYTES;
+            if (footer < 0 || buffer.getInt(footer + 32) != SEGMENT_MAGIC || buffer.getInt(footer + 28) != SEGMENT_VERSION) {
+                throw new IOException("Not a status history segment: " + path);
+            }
+            this.dataEnd = (int) buffer.getLong(footer);
+            int indexCount = buffer.getInt(footer + 8);
+            this.changeCount = buffer.getLong(footer + 12);
+            this.maxSequence = buffer.getLong(footer + 20);
+
+            this.indexProducts = new String[indexCount];
+            this.indexMillis = new long[indexCount];
+            this.indexOffsets = new int[indexCount];
+            ByteBuffer index = buffer.duplicate().position(dataEnd);
+            for (int i = 0; i < indexCount; i++) {
+                indexProducts[i] = string(index);
+                indexMillis[i] = index.getLong();
+                indexOffsets[i] = (int) index.getLong();
+            }
+        }
+
+        static Segment open(Path path, long firstGeneration, long lastGeneration) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Status history segment too large to map: " + path);
+                }
+                return new Segment(path, firstGeneration, lastGeneration,
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        long sizeBytes() {
+            return buffer.capacity();
+        }
+
+        // Last change of the product at or before the millisecond, or null
+        Change latest(String productId, long millis) {
+            Change latest = null;
+            ByteBuffer cursor = cursorAt(floorIndex(productId, millis));
+            while (cursor.position() < dataEnd) {
+                Change change = decode(cursor);
+                int cmp = change.productId().compareTo(productId);
+                if (cmp > 0 || (cmp == 0 && change.millis() > millis)) {
+                    break;
+                }
+                if (cmp == 0) {
+                    latest = change;
+                }
+            }
+            return latest;
+        }
+
+        void forEach(String productId, Consumer<Change> consumer) {
+            ByteBuffer cursor = cursorAt(floorIndex(productId, Long.MIN_VALUE));
+            while (cursor.position() < dataEnd) {
+                Change change = decode(cursor);
+                int cmp = change.productId().compareTo(productId);
+                if (cmp > 0) {
+                    break;
+                }
+                if (cmp == 0) {
+                    consumer.accept(change);
+                }
+            }
+        }
+
+        Iterator<Change> iterator() {
+            ByteBuffer cursor = cursorAt(-1);
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return cursor.position() < dataEnd;
+                }
+
+                @Override
+                public Change next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return decode(cursor);
+                }
+            };
+        }
+
+        // Last index entry strictly before the product and millisecond, or -1
+        private int floorIndex(String productId, long millis) {
+            int low = 0;
+            int high = indexProducts.length - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = indexProducts[mid].compareTo(productId);
+                if (cmp == 0) {
+                    cmp = Long.compare(indexMillis[mid], millis);
+                }
+                if (cmp < 0) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        // Independent position over the shared mapping, so concurrent readers do not interfere
+        private ByteBuffer cursorAt(int indexEntry) {
+            return buffer.duplicate().position(indexEntry < 0 ? 0 : indexOffsets[indexEntry]);
+        }
+    }
+
+    // Key-ordered union of segments; of changes with the same key only the latest write is returned
+    private static final class MergeIterator implements Iterator<Change> {
+        private final PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> {
+            int cmp = Change.KEY_ORDER.compare(a.change, b.change);
+            return cmp != 0 ? cmp : Long.compare(b.change.sequence(), a.change.sequence());
+        });
+
+        MergeIterator(List<Segment> segments) {
+            for (Segment segment : segments) {
+                advance(new Head(segment.iterator()));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Change next() {
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            Change change = head.change;
+            advance(head);
+            // Older versions of the same key sort directly behind it
+            while (!heads.isEmpty() && Change.KEY_ORDER.compare(heads.peek().change, change) == 0) {
+                advance(heads.poll());
+            }
+            return change;
+        }
+
+        private void advance(Head head) {
+            if (head.changes.hasNext()) {
+                head.change = head.changes.next();
+                heads.add(head);
+            }
+        }
+
+        private static final class Head {
+            final Iterator<Change> changes;
+            Change change;
+
+            Head(Iterator<Change> changes) {
+                this.changes = changes;
+            }
+        }
+    }
+
+    public record Stats(int segments, long segmentBytes, long segmentChanges, long bufferedChanges) {
+    }
+
+    public static class Builder {
+        private final Path directory;
+        private int memtableEntries = 100_000;
+        private int indexInterval = 64;
+        private int maxSegments = 8;
+        private boolean syncWrites;
+
+        private Builder(Path directory) {
+            this.directory = directory;
+        }
+
+        // Changes buffered in memory (and in the log) before they are written out as a segment
+        public Builder memtableEntries(int memtableEntries) {
+            this.memtableEntries = memtableEntries;
+            return this;
+        }
+
+        // Every n-th change of a segment goes into its sparse index; lookups scan at most n changes
+        public Builder indexInterval(int indexInterval) {
+            this.indexInterval = indexInterval;
+            return this;
+        }
+
+        // Segments are merged in the background above this count
+        public Builder maxSegments(int maxSegments) {
+            this.maxSegments = maxSegments;
+            return this;
+        }
+
+        // Forces the log to disk on every write; otherwise a machine crash can lose recent changes
+        public Builder syncWrites(boolean syncWrites) {
+            this.syncWrites = syncWrites;
+            return this;
+        }
+
+        public EmbeddedStatusHistoryStore build() throws IOException {
+            if (memtableEntries <= 0 || indexInterval <= 0 || maxSegments <= 0) {
+                throw new IllegalArgumentException("memtableEntries, indexInterval and maxSegments must be positive");
+            }
+            return new EmbeddedStatusHistoryStore(this);
+        }
+    }
+}
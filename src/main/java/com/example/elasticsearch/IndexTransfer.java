@@ -0,0 +1,702 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.Time;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.indices.IndexSettings;
+import co.elastic.clients.elasticsearch.indices.IndexState;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Streams whole indices to and from gzip-compressed NDJSON files, e.g. for backups and migrations of
+ * {@code product_status_history} and {@code products}.
+ * <p>
+ * Export reads the index through one point in time split into as many slices as there are workers;
+ * each slice pages with {@code search_after} and writes its own file, so memory use is one page per
+ * worker whatever the size of the index. Every line holds a document's index, id, routing and source.
+ * Files are compressed through file channels with direct buffers, without stream wrappers.
+ * <p>
+ * Import reads the files in parallel and sends {@code _bulk} requests from a separate pool of workers,
+ * with a bounded number of batches in flight. Refresh is switched off on the target indices during the
+ * load and restored afterwards. Documents keep their ids and routing, so importing twice is idempotent.
+ */
+public class IndexTransfer implements Closeable {
+    private static final String FILE_SUFFIX = ".ndjson.gz";
+    private static final String MANIFEST_SUFFIX = ".manifest.json";
+    private static final String KEEP_ALIVE = "5m";
+    private static final int IO_BUFFER_BYTES = 256 * 1024;
+    private static final int MAX_RETRIES = 5;
+
+    private final ElasticsearchClient client;
+    private final ObjectMapper mapper;
+    private final int parallelism;
+    private final int pageSize;
+    private final int batchSize;
+    private final long batchBytes;
+    private final ExecutorService readers;
+    private final ExecutorService senders;
+
+    private IndexTransfer(Builder builder) {
+        this.client = builder.client;
+        this.mapper = client._jsonpMapper() instanceof JacksonJsonpMapper jackson ? jackson.objectMapper() : new ObjectMapper();
+        this.parallelism = builder.parallelism;
+        this.pageSize = builder.pageSize;
+        this.batchSize = builder.batchSize;
+        this.batchBytes = builder.batchBytes;
+        this.readers = pool("index-transfer-reader-");
+        this.senders = pool("index-transfer-sender-");
+    }
+
+    public static Builder builder(ElasticsearchClient client) {
+        return new Builder(client);
+    }
+
+    private ExecutorService pool(String prefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, prefix + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Writes every document of the index (or alias) to {@code <index>-<slice>.ndjson.gz} files in the
+     * directory, plus a manifest listing the files and the concrete indices they came from.
+     */
+    public Result exportIndex(String index, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        long started = System.nanoTime();
+        String pitId = client.openPointInTime(p -> p.index(index).keepAlive(k -> k.time(KEEP_ALIVE))).id();
+        Counters counters = new Counters();
+        Set<String> sourceIndices = ConcurrentHashMap.newKeySet();
+        List<String> files = new ArrayList<>();
+        try {
+            List<CompletableFuture<Void>> slices = new ArrayList<>(parallelism);
+            for (int slice = 0; slice < parallelism; slice++) {
+                int id = slice;
+                Path file = directory.resolve(String.format("%s-%03d%s", index, slice, FILE_SUFFIX));
+                files.add(file.getFileName().toString());
+                slices.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        exportSlice(pitId, id, file, counters, sourceIndices);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, readers));
+            }
+            join(CompletableFuture.allOf(slices.toArray(new CompletableFuture<?>[0])));
+        } finally {
+            client.closePointInTime(c -> c.id(pitId));
+        }
+        Manifest manifest = new Manifest(index, counters.documents.sum(), new ArrayList<>(sourceIndices), files);
+        mapper.writerWithDefaultPrettyPrinter().writeValue(directory.resolve(index + MANIFEST_SUFFIX).toFile(), manifest);
+        return counters.result(System.nanoTime() - started);
+    }
+
+    private void exportSlice(String pitId, int slice, Path file, Counters counters, Set<String> sourceIndices)
+            throws IOException {
+        String currentPit = pitId;
+        List<FieldValue> searchAfter = null;
+        try (GzipLineWriter writer = new GzipLineWriter(file)) {
+            while (true) {
+                String pit = currentPit;
+                List<FieldValue> after = searchAfter;
+                SearchResponse<ObjectNode> response = client.search(s -> {
+                    s.pit(p -> p.id(pit).keepAlive(k -> k.time(KEEP_ALIVE)))
+                        .size(pageSize)
+                        .trackTotalHits(t -> t.enabled(false))
+                        .sort(sort -> sort.field(f -> f.field("_shard_doc").order(SortOrder.Asc)));
+                    if (parallelism > 1) {
+                        s.slice(sl -> sl.id(Integer.toString(slice)).max(parallelism));
+                    }
+                    if (after != null) {
+                        s.searchAfter(after);
+                    }
+                    return s;
+                }, ObjectNode.class);
+                if (response.pitId() != null) {
+                    currentPit = response.pitId();
+                }
+
+                List<Hit<ObjectNode>> hits = response.hits().hits();
+                for (Hit<ObjectNode> hit : hits) {
+                    ObjectNode line = mapper.createObjectNode();
+                    line.put("_index", hit.index());
+                    line.put("_id", hit.id());
+                    if (hit.routing() != null) {
+                        line.put("_routing", hit.routing());
+                    }
+                    line.set("_source", hit.source());
+                    byte[] bytes = mapper.writeValueAsBytes(line);
+                    writer.writeLine(bytes);
+                    counters.bytes.add(bytes.length + 1);
+                    sourceIndices.add(hit.index());
+                }
+                counters.documents.add(hits.size());
+                if (hits.size() < pageSize) {
+                    return;
+                }
+                searchAfter = hits.get(hits.size() - 1).sort();
+            }
+        }
+    }
+
+    // Loads an export back into the indices its documents came from
+    public Result importIndex(Path directory, String index) throws IOException {
+        return importIndex(directory, index, null);
+    }
+
+    /**
+     * Loads the export of {@code index} from the directory, into {@code targetIndex} if given or else
+     * into each document's original index. Indices that do not exist yet are created (index templates
+     * apply); create indices that need an explicit mapping, such as {@code products}, beforehand.
+     */
+    public Result importIndex(Path directory, String index, String targetIndex) throws IOException {
+        Manifest manifest = mapper.readValue(directory.resolve(index + MANIFEST_SUFFIX).toFile(), Manifest.class);
+        List<String> targets = targetIndex != null ? List.of(targetIndex) : manifest.indices();
+        long started = System.nanoTime();
+        Counters counters = new Counters();
+        Map<String, Time> refreshIntervals = disableRefresh(client, targets);
+        try {
+            // Bounds the batches in memory: queued or in flight across all readers
+            Semaphore inFlight = new Semaphore(parallelism * 2);
+            List<CompletableFuture<Void>> files = new ArrayList<>();
+            for (String file : manifest.files()) {
+                files.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        importFile(directory.resolve(file), targetIndex, inFlight, counters);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, readers));
+            }
+            join(CompletableFuture.allOf(files.toArray(new CompletableFuture<?>[0])));
+        } finally {
+            restoreRefresh(client, refreshIntervals);
+        }
+        return counters.result(System.nanoTime() - started);
+    }
+
+    private void importFile(Path file, String targetIndex, Semaphore inFlight, Counters counters) throws IOException {
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        List<BulkOperation> batch = new ArrayList<>(batchSize);
+        long bytes = 0;
+        try (GzipLineReader reader = new GzipLineReader(file)) {
+            int length;
+            while ((length = reader.nextLine()) >= 0) {
+                if (length == 0) {
+                    continue;
+                }
+                JsonNode line = mapper.readTree(reader.line(), 0, length);
+                String index = targetIndex != null ? targetIndex : line.get("_index").asText();
+                JsonNode routing = line.get("_routing");
+                batch.add(BulkOperation.of(b -> b.index(i -> i
+                    .index(index)
+                    .id(line.get("_id").asText())
+                    .routing(routing == null ? null : routing.asText())
+                    .document(line.get("_source"))
+                )));
+                bytes += length + 1;
+                if (batch.size() >= batchSize || bytes >= batchBytes) {
+                    pending.add(send(batch, bytes, inFlight, counters));
+                    // Failed batches stay, so the final join reports them
+                    pending.removeIf(f -> f.isDone() && !f.isCompletedExceptionally());
+                    batch = new ArrayList<>(batchSize);
+                    bytes = 0;
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            pending.add(send(batch, bytes, inFlight, counters));
+        }
+        join(CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])));
+    }
+
+    private CompletableFuture<Void> send(List<BulkOperation> batch, long bytes, Semaphore inFlight, Counters counters) {
+        inFlight.acquireUninterruptibly();
+        return CompletableFuture.runAsync(() -> {
+            try {
+                bulkWithRetry(client, batch, counters.documents, counters.failed);
+                counters.bytes.add(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                inFlight.release();
+            }
+        }, senders);
+    }
+
+    // Retries rejected (429) and failed (5xx) items with exponential backoff; other failures are counted
+    static void bulkWithRetry(ElasticsearchClient client, List<BulkOperation> batch, LongAdder documents,
+                              LongAdder failed) throws IOException {
+        List<BulkOperation> operations = batch;
+        long backoffMillis = 100;
+        for (int attempt = 0; ; attempt++) {
+            List<BulkOperation> toSend = operations;
+            BulkResponse response = client.bulk(b -> b.operations(toSend));
+            List<BulkOperation> retry = new ArrayList<>();
+            List<BulkResponseItem> items = response.items();
+            for (int i = 0; i < items.size(); i++) {
+                BulkResponseItem item = items.get(i);
+                if (item.error() == null) {
+                    documents.increment();
+                } else if ((item.status() == 429 || item.status() >= 500) && attempt < MAX_RETRIES) {
+                    retry.add(toSend.get(i));
+                } else {
+                    failed.increment();
+                    System.err.println("Failed to index document " + item.id() + ": " + item.error().reason());
+                }
+            }
+            if (retry.isEmpty()) {
+                return;
+            }
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while retrying bulk request", e);
+            }
+            backoffMillis *= 2;
+            operations = retry;
+        }
+    }
+
+    /**
+     * Switches refresh off on the indices for a bulk load, creating missing ones, and returns their
+     * previous refresh intervals (null when unset) for {@link #restoreRefresh}.
+     */
+    static Map<String, Time> disableRefresh(ElasticsearchClient client, List<String> indices) throws IOException {
+        Map<String, Time> previous = new LinkedHashMap<>();
+        for (String index : new LinkedHashSet<>(indices)) {
+            if (client.indices().exists(e -> e.index(index)).value()) {
+                IndexState state = client.indices().getSettings(g -> g.index(index)).get(index);
+                IndexSettings settings = state == null ? null : state.settings();
+                Time interval = settings == null ? null
+                    : settings.index() != null ? settings.index().refreshInterval() : settings.refreshInterval();
+                previous.put(index, interval);
+                client.indices().putSettings(p -> p.index(index).settings(s -> s.refreshInterval(t -> t.time("-1"))));
+            } else {
+                previous.put(index, null);
+                client.indices().create(c -> c.index(index).settings(s -> s.refreshInterval(t -> t.time("-1"))));
+            }
+        }
+        return previous;
+    }
+
+    // Puts the refresh intervals back (the 1s default where none was set) and makes the load visible
+    static void restoreRefresh(ElasticsearchClient client, Map<String, Time> previous) throws IOException {
+        for (Map.Entry<String, Time> entry : previous.entrySet()) {
+            Time interval = entry.getValue() != null ? entry.getValue() : Time.of(t -> t.time("1s"));
+            client.indices().putSettings(p -> p.index(entry.getKey()).settings(s -> s.refreshInterval(interval)));
+        }
+        if (!previous.isEmpty()) {
+            client.indices().refresh(r -> r.index(new ArrayList<>(previous.keySet())));
+        }
+    }
+
+    private static void join(CompletableFuture<?> future) throws IOException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        readers.shutdown();
+        senders.shutdown();
+    }
+
+    private static final class Counters {
+        final LongAdder documents = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+
+        Result result(long elapsedNanos) {
+            return new Result(documents.sum(), failed.sum(), bytes.sum(), Duration.ofNanos(elapsedNanos));
+        }
+    }
+
+    public record Manifest(String index, long documents, List<String> indices, List<String> files) {}
+
+    // Bytes are uncompressed NDJSON
+    public record Result(long documents, long failed, long bytes, Duration elapsed) {
+        public double documentsPerSecond() {
+            return elapsed.isZero() ? 0.0 : documents * 1e9 / elapsed.toNanos();
+        }
+    }
+
+    /**
+     * Gzip writer on a file channel: lines are staged in a direct buffer, deflated into another direct
+     * buffer and written straight to the channel.
+     */
+    static final class GzipLineWriter implements Closeable {
+        private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+        private final FileChannel channel;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 crc = new CRC32();
+        private final ByteBuffer input = ByteBuffer.allocateDirect(IO_BUFFER_BYTES);
+        private final ByteBuffer output = ByteBuffer.allocateDirect(IO_BUFFER_BYTES);
+        private long uncompressedBytes;
+
+        GzipLineWriter(Path file) throws IOException {
+            this.channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            writeFully(ByteBuffer.wrap(HEADER));
+        }
+
+        void writeLine(byte[] line) throws IOException {
+            int offset = 0;
+            while (offset < line.length) {
+                if (!input.hasRemaining()) {
+                    deflateInput();
+                }
+                int chunk = Math.min(input.remaining(), line.length - offset);
+                input.put(line, offset, chunk);
+                offset += chunk;
+            }
+            if (!input.hasRemaining()) {
+                deflateInput();
+            }
+            input.put((byte) '\n');
+        }
+
+        private void deflateInput() throws IOException {
+            deflateInput(false);
+        }
+
+        // The deflater keeps reading the staging buffer, so it is only cleared once fully consumed
+        private void deflateInput(boolean finish) throws IOException {
+            input.flip();
+            crc.update(input.duplicate());
+            uncompressedBytes += input.remaining();
+            deflater.setInput(input);
+            if (finish) {
+                deflater.finish();
+            }
+            while (finish ? !deflater.finished() : !deflater.needsInput()) {
+                deflater.deflate(output);
+                drain();
+            }
+            input.clear();
+        }
+
+        private void drain() throws IOException {
+            output.flip();
+            writeFully(output);
+            output.clear();
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                deflateInput(true);
+                ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                trailer.putInt((int) crc.getValue()).putInt((int) uncompressedBytes).flip();
+                writeFully(trailer);
+            } finally {
+                deflater.end();
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Gzip line reader on a file channel, inflating from one direct buffer into another. Accepts any
+     * gzip file, including concatenated members; lines are copied into a reusable heap array.
+     */
+    static final class GzipLineReader implements Closeable {
+        private static final int FHCRC = 2;
+        private static final int FEXTRA = 4;
+        private static final int FNAME = 8;
+        private static final int FCOMMENT = 16;
+
+        private final Path file;
+        private final FileChannel channel;
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final ByteBuffer input = ByteBuffer.allocateDirect(IO_BUFFER_BYTES);
+        private final ByteBuffer output = ByteBuffer.allocateDirect(IO_BUFFER_BYTES);
+        private long memberBytes;
+        private byte[] line = new byte[8192];
+        private boolean finished;
+
+        GzipLineReader(Path file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            input.flip();
+            output.flip();
+            if (!readHeader()) {
+                finished = true;
+            }
+        }
+
+        // Length of the next line without its newline, or -1 at the end of the file
+        int nextLine() throws IOException {
+            int length = 0;
+            while (true) {
+                while (output.hasRemaining()) {
+                    byte b = output.get();
+                    if (b == '\n') {
+                        return length;
+                    }
+                    if (length == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[length++] = b;
+                }
+                if (!fill()) {
+                    return length > 0 ? length : -1;
+                }
+            }
+        }
+
+        // Bytes of the line returned by the last nextLine call; overwritten by the next one
+        byte[] line() {
+            return line;
+        }
+
+        private boolean fill() throws IOException {
+            output.clear();
+            while (output.position() == 0 && !finished) {
+                if (inflater.finished()) {
+                    readTrailer();
+                    if (!readHeader()) {
+                        finished = true;
+                    }
+                    continue;
+                }
+                if (inflater.needsInput()) {
+                    if (!readInput()) {
+                        throw new EOFException("Truncated gzip file " + file);
+                    }
+                    inflater.setInput(input);
+                }
+                try {
+                    inflater.inflate(output);
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt gzip file " + file, e);
+                }
+            }
+            output.flip();
+            crc.update(output.duplicate());
+            memberBytes += output.remaining();
+            return output.hasRemaining();
+        }
+
+        // Reads more compressed bytes behind those not yet consumed; false when there are none left
+        private boolean readInput() throws IOException {
+            input.compact();
+            channel.read(input);
+            input.flip();
+            return input.hasRemaining();
+        }
+
+        private int readByte() throws IOException {
+            if (!input.hasRemaining() && !readInput()) {
+                return -1;
+            }
+            return input.get() & 0xff;
+        }
+
+        private int readRequiredByte() throws IOException {
+            int b = readByte();
+            if (b < 0) {
+                throw new EOFException("Truncated gzip file " + file);
+            }
+            return b;
+        }
+
+        // Starts the next member; false at a clean end of file
+        private boolean readHeader() throws IOException {
+            int first = readByte();
+            if (first < 0) {
+                return false;
+            }
+            if (first != 0x1f || readRequiredByte() != 0x8b || readRequiredByte() != Deflater.DEFLATED) {
+                throw new IOException("Not a gzip file: " + file);
+            }
+            int flags = readRequiredByte();
+            for (int i = 0; i < 6; i++) {
+                // Modification time, extra flags, operating system
+                readRequiredByte();
+            }
+            if ((flags & FEXTRA) != 0) {
+                int length = readRequiredByte() | readRequiredByte() << 8;
+                for (int i = 0; i < length; i++) {
+                    readRequiredByte();
+                }
+            }
+            if ((flags & FNAME) != 0) {
+                while (readRequiredByte() != 0) {
+                    // Original file name
+                }
+            }
+            if ((flags & FCOMMENT) != 0) {
+                while (readRequiredByte() != 0) {
+                    // Comment
+                }
+            }
+            if ((flags & FHCRC) != 0) {
+                readRequiredByte();
+                readRequiredByte();
+            }
+            inflater.reset();
+            crc.reset();
+            memberBytes = 0;
+            return true;
+        }
+
+        private void readTrailer() throws IOException {
+            long expectedCrc = 0;
+            long expectedSize = 0;
+            for (int i = 0; i < 4; i++) {
+                expectedCrc |= (long) readRequiredByte() << (8 * i);
+            }
+            for (int i = 0; i < 4; i++) {
+                expectedSize |= (long) readRequiredByte() << (8 * i);
+            }
+            if (expectedCrc != crc.getValue() || expectedSize != (memberBytes & 0xffffffffL)) {
+                throw new IOException("Corrupt gzip file " + file + ": checksum mismatch");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            channel.close();
+        }
+    }
+
+    public static class Builder {
+        private final ElasticsearchClient client;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private int pageSize = 1000;
+        private int batchSize = 1000;
+        private long batchBytes = 5L * 1024 * 1024;
+
+        private Builder(ElasticsearchClient client) {
+            this.client = client;
+        }
+
+        // Export slices (and so files), file readers and concurrent bulk requests
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        // Documents per export search page
+        public Builder pageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        // Import batches are sent at this many documents or bytes, whichever comes first
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder batchBytes(long batchBytes) {
+            this.batchBytes = batchBytes;
+            return this;
+        }
+
+        public IndexTransfer build() {
+            if (parallelism <= 0 || pageSize <= 0 || batchSize <= 0 || batchBytes <= 0) {
+                throw new IllegalArgumentException("parallelism, pageSize, batchSize and batchBytes must be positive");
+            }
+            return new IndexTransfer(this);
+        }
+    }
+
+    /**
+     * {@code export <index> <dir>} or {@code import <dir> <index> [target index]}, with optional
+     * {@code --host=<host:port>} and {@code --parallelism=<n>} before the command.
+     */
+    public static void main(String[] args) throws Exception {
+        String host = "localhost:9200";
+        List<String> command = new ArrayList<>();
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        for (String arg : args) {
+            if (arg.startsWith("--host=")) {
+                host = arg.substring("--host=".length());
+            } else if (arg.startsWith("--parallelism=")) {
+                parallelism = Integer.parseInt(arg.substring("--parallelism=".length()));
+            } else {
+                command.add(arg);
+            }
+        }
+        if (command.size() < 3 || !(command.get(0).equals("export") || command.get(0).equals("import"))) {
+            System.err.println("Usage: [--host=<host:port>] [--parallelism=<n>] export <index> <dir> | import <dir> <index> [target index]");
+            System.exit(2);
+        }
+
+        String[] hostAndPort = host.split(":");
+        try (ElasticsearchClientFactory factory = ElasticsearchClientFactory.builder()
+                .host(hostAndPort[0], hostAndPort.length > 1 ? Integer.parseInt(hostAndPort[1]) : 9200)
+                .build()) {
+            try (IndexTransfer transfer = builder(factory.client()).parallelism(parallelism).build()) {
+                Result result = command.get(0).equals("export")
+                    ? transfer.exportIndex(command.get(1), Path.of(command.get(2)))
+                    : transfer.importIndex(Path.of(command.get(1)), command.get(2), command.size() > 3 ? command.get(3) : null);
+                System.out.printf("%s: %d documents (%d failed), %.1f MB in %.1fs, %.0f docs/s%n",
+                    command.get(0), result.documents(), result.failed(), result.bytes() / 1e6,
+                    result.elapsed().toNanos() / 1e9, result.documentsPerSecond());
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Last recorded status per product, used to drop status changes that would not change anything
+ * before they are sent. A product's entry is loaded from the index the first time it is written, and
+ * kept current by every accepted write after that.
+ */
+public class LastKnownStatusTable {
+    // Marks products that have no status in the index yet, so they are not looked up again
+    private static final LastStatus NONE = new LastStatus(null, Long.MIN_VALUE);
+
+    private final ElasticsearchClient client;
+    private final UnaryOperator<String> routing;
+    private final ConcurrentHashMap<String, LastStatus> table = new ConcurrentHashMap<>();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+    private final LongAdder bootstrapLoads = new LongAdder();
+
+    public LastKnownStatusTable(ElasticsearchClient client) {
+        this(client, productId -> null);
+    }
+
+    // routing: the routing key of a product's history documents, or null when they are not routed
+    public LastKnownStatusTable(ElasticsearchClient client, UnaryOperator<String> routing) {
+        this.client = client;
+        this.routing = routing;
+    }
+
+    /**
+     * Decides whether a status change at the given time needs to be written, and if so records it as
+     * the product's last known status. A change to the status the product is already in is
+     * suppressed. Changes older than the last known one are written but leave the table alone, since
+     * they do not affect the current status.
+     */
+    public boolean shouldWrite(String productId, String status, long epochMillis) throws IOException {
+        while (true) {
+            LastStatus current = known(productId);
+            if (epochMillis < current.epochMillis()) {
+                written.increment();
+                return true;
+            }
+            if (status.equals(current.status())) {
+                suppressed.increment();
+                return false;
+            }
+            if (table.replace(productId, current, new LastStatus(status, epochMillis))) {
+                written.increment();
+                return true;
+            }
+            // Another writer changed the entry concurrently; decide again against its value
+        }
+    }
+
+    // Whether the product's entry is already loaded, i.e. shouldWrite will not query the index
+    public boolean isLoaded(String productId) {
+        return table.containsKey(productId);
+    }
+
+    // Forgets a product, e.g. after a write that was let through failed, so it is reloaded on next use
+    public void invalidate(String productId) {
+        table.remove(productId);
+    }
+
+    public void clear() {
+        table.clear();
+    }
+
+    public int size() {
+        return table.size();
+    }
+
+    public Stats stats() {
+        return new Stats(written.sum(), suppressed.sum(), bootstrapLoads.sum(), table.size());
+    }
+
+    private LastStatus known(String productId) throws IOException {
+        LastStatus current = table.get(productId);
+        if (current != null) {
+            return current;
+        }
+        // Loaded outside of any map lock; if two writers race, the first loaded value wins
+        LastStatus loaded = load(productId);
+        bootstrapLoads.increment();
+        LastStatus previous = table.putIfAbsent(productId, loaded);
+        return previous != null ? previous : loaded;
+    }
+
+    private LastStatus load(String productId) throws IOException {
+        SearchResponse<ProductStatusHistory.StatusHistoryEntryWithString> response = client.search(
+            ProductStatusHistory.latestEntryRequest(StatusHistoryIndices.ALIAS, productId, null, null, routing.apply(productId)),
+            ProductStatusHistory.StatusHistoryEntryWithString.class);
+        List<Hit<ProductStatusHistory.StatusHistoryEntryWithString>> hits = response.hits().hits();
+        if (hits.isEmpty() || hits.get(0).source() == null) {
+            return NONE;
+        }
+        ProductStatusHistory.StatusHistoryEntryWithString latest = hits.get(0).source();
+        return new LastStatus(latest.status(), ProductStatusHistory.parseTimestamp(latest.timestamp()));
+    }
+
+    private record LastStatus(String status, long epochMillis) {}
+
+    public record Stats(long written, long suppressed, long bootstrapLoads, int products) {
+        public double suppressionRatio() {
+            long total = written + suppressed;
+            return total == 0 ? 0.0 : (double) suppressed / total;
+        }
+    }
+}
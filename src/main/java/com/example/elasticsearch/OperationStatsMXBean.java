@@ -0,0 +1,29 @@
+package com.example.elasticsearch;
+
+/**
+ * JMX view of one client operation's counters and latency percentiles.
+ */
+public interface OperationStatsMXBean {
+    long getCount();
+
+    long getErrors();
+
+    long getInFlight();
+
+    double getMeanMicros();
+
+    long getP50Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+
+    // Server-side time as reported in the response "took" field
+    long getServerTookP50Millis();
+
+    long getServerTookP99Millis();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+}
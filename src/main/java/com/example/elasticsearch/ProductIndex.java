@@ -0,0 +1,87 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+
+import java.io.IOException;
+
+/**
+ * Layout of the {@code products} index. Names are indexed for search-as-you-type, descriptions get an
+ * edge n-gram subfield for prefix matches, and both get an n-gram subfield for matches inside words
+ * (what the old {@code *term*} wildcard found), so partial-word searches are plain term lookups instead
+ * of wildcard scans over the term dictionary.
+ */
+public final class ProductIndex {
+    public static final String NAME = "products";
+
+    // Subfields queried by ProductQuery
+    static final String NAME_SUGGEST = "name.suggest";
+    static final String NAME_INFIX = "name.infix";
+    static final String DESCRIPTION_PREFIX = "description.prefix";
+    static final String DESCRIPTION_INFIX = "description.infix";
+
+    private static final int INFIX_MIN_GRAM = 3;
+    private static final int INFIX_MAX_GRAM = 12;
+
+    private ProductIndex() {
+    }
+
+    public static boolean exists(ElasticsearchClient client) throws IOException {
+        return client.indices().exists(e -> e.index(NAME)).value();
+    }
+
+    public static void create(ElasticsearchClient client) throws IOException {
+        create(client, NAME, false);
+    }
+
+    /**
+     * Creates an index with the products layout under the given name. For a bulk load, refresh and
+     * replicas start switched off; the loader turns them on once the documents are in.
+     */
+    public static void create(ElasticsearchClient client, String index, boolean bulkLoad) throws IOException {
+        client.indices().create(c -> c
+            .index(index)
+            .settings(s -> {
+                if (bulkLoad) {
+                    s.refreshInterval(t -> t.time("-1")).numberOfReplicas("0");
+                }
+                return s
+                    .maxNgramDiff(INFIX_MAX_GRAM - INFIX_MIN_GRAM)
+                    .analysis(a -> a
+                        .filter("prefix_grams", f -> f
+                            .definition(d -> d.edgeNgram(e -> e.minGram(1).maxGram(20)))
+                        )
+                        .filter("infix_grams", f -> f
+                            .definition(d -> d.ngram(n -> n.minGram(INFIX_MIN_GRAM).maxGram(INFIX_MAX_GRAM)))
+                        )
+                        .analyzer("prefix", an -> an
+                            .custom(cu -> cu.tokenizer("standard").filter("lowercase", "prefix_grams"))
+                        )
+                        .analyzer("infix", an -> an
+                            .custom(cu -> cu.tokenizer("standard").filter("lowercase", "infix_grams"))
+                        )
+                    );
+            })
+            .mappings(m -> m
+                .properties("id", p -> p.keyword(k -> k))
+                .properties("name", p -> p
+                    .text(t -> t
+                        .fields("suggest", f -> f.searchAsYouType(sayt -> sayt))
+                        .fields("infix", f -> f.text(tt -> tt.analyzer("infix").searchAnalyzer("standard")))
+                        .fields("raw", f -> f.keyword(k -> k))
+                    )
+                )
+                .properties("description", p -> p
+                    .text(t -> t
+                        .fields("prefix", f -> f.text(tt -> tt.analyzer("prefix").searchAnalyzer("standard")))
+                        .fields("infix", f -> f.text(tt -> tt.analyzer("infix").searchAnalyzer("standard")))
+                    )
+                )
+                .properties("price", p -> p.double_(d -> d))
+                .properties("category", p -> p.keyword(k -> k))
+                .properties("status", p -> p.keyword(k -> k))
+                // StatusJsonModule writes decimal epoch seconds, as the default Instant serializer did
+                .properties("timestamp", p -> p.date(d -> d.format("strict_date_optional_time||epoch_second")))
+            )
+        );
+    }
+}
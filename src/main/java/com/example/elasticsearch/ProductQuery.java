@@ -0,0 +1,264 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.query_dsl.Operator;
+import co.elastic.clients.elasticsearch._types.query_dsl.TextQueryType;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.json.JsonData;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * A product search: optional free text matched as words, word prefixes or parts of words against name and
+ * description, exact filters on category and status, a price range, and a page of at most
+ * {@link #MAX_SIZE} results. Without text, results are ordered by name.
+ */
+public final class ProductQuery {
+    public static final int DEFAULT_SIZE = 10;
+    public static final int MAX_SIZE = 100;
+    // Hit counts are exact up to this value and reported as a lower bound beyond it
+    static final int TRACK_TOTAL_HITS_UP_TO = 1000;
+
+    private final String text;
+    // Words of the text, split once for couldMatch
+    private final String[] terms;
+    private final String category;
+    private final String status;
+    private final Double minPrice;
+    private final Double maxPrice;
+    private final int from;
+    private final int size;
+
+    private ProductQuery(Builder builder) {
+        this.text = builder.text;
+        this.terms = text == null ? new String[0] : text.split("(?U)\\W+");
+        this.category = builder.category;
+        this.status = builder.status;
+        this.minPrice = builder.minPrice;
+        this.maxPrice = builder.maxPrice;
+        this.from = builder.from;
+        this.size = builder.size;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // First page of a free-text search
+    public static ProductQuery of(String text) {
+        return builder().text(text).build();
+    }
+
+    public String text() {
+        return text;
+    }
+
+    public int from() {
+        return from;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Whether the product could be among the results: the filters accept it and every word of the
+     * text occurs in its name or description (which covers word prefixes and matches inside words).
+     * May be true for products Elasticsearch would not return, never false for ones it would.
+     */
+    boolean couldMatch(Product product) {
+        return couldMatch(product, matchText(product));
+    }
+
+    // Like couldMatch(Product), with the product's text already prepared by matchText
+    boolean couldMatch(Product product, String matchText) {
+        if (category != null && !category.equals(product.getCategory())) {
+            return false;
+        }
+        if (status != null && !status.equals(product.getStatus())) {
+            return false;
+        }
+        if ((minPrice != null && product.getPrice() < minPrice) || (maxPrice != null && product.getPrice() > maxPrice)) {
+            return false;
+        }
+        for (String term : terms) {
+            if (!term.isEmpty() && !matchText.contains(term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Lowercased name and description, separated by a character no term contains
+    static String matchText(Product product) {
+        return lower(product.getName()) + '\n' + lower(product.getDescription());
+    }
+
+    private static String lower(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+
+    SearchRequest toSearchRequest(String index) {
+        return SearchRequest.of(s -> {
+            s.index(index)
+                .from(from)
+                .size(size)
+                .trackTotalHits(t -> t.count(TRACK_TOTAL_HITS_UP_TO))
+                .query(q -> q
+                    .bool(b -> {
+                        if (text != null) {
+                            // Prefix of the last word as you type, whole words before it
+                            b.should(sh -> sh
+                                .multiMatch(mm -> mm
+                                    .query(text)
+                                    .type(TextQueryType.BoolPrefix)
+                                    .operator(Operator.And)
+                                    .fields(ProductIndex.NAME_SUGGEST,
+                                        ProductIndex.NAME_SUGGEST + "._2gram",
+                                        ProductIndex.NAME_SUGGEST + "._3gram")
+                                    .boost(3.0f)
+                                )
+                            );
+                            b.should(sh -> sh
+                                .match(m -> m.field(ProductIndex.NAME_INFIX).query(text).operator(Operator.And))
+                            );
+                            b.should(sh -> sh
+                                .match(m -> m.field(ProductIndex.DESCRIPTION_PREFIX).query(text).operator(Operator.And))
+                            );
+                            b.should(sh -> sh
+                                .match(m -> m.field(ProductIndex.DESCRIPTION_INFIX).query(text).operator(Operator.And))
+                            );
+                            b.minimumShouldMatch("1");
+                        }
+                        if (category != null) {
+                            b.filter(f -> f.term(t -> t.field("category").value(category)));
+                        }
+                        if (status != null) {
+                            b.filter(f -> f.term(t -> t.field("status").value(status)));
+                        }
+                        if (minPrice != null || maxPrice != null) {
+                            b.filter(f -> f
+                                .range(r -> {
+                                    r.field("price");
+                                    if (minPrice != null) {
+                                        r.gte(JsonData.of(minPrice));
+                                    }
+                                    if (maxPrice != null) {
+                                        r.lte(JsonData.of(maxPrice));
+                                    }
+                                    return r;
+                                })
+                            );
+                        }
+                        return b;
+                    })
+                );
+            if (text == null) {
+                s.sort(sort -> sort.field(f -> f.field("name.raw").order(SortOrder.Asc)));
+            }
+            return s;
+        });
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ProductQuery other)) {
+            return false;
+        }
+        return from == other.from && size == other.size
+            && Objects.equals(text, other.text)
+            && Objects.equals(category, other.category)
+            && Objects.equals(status, other.status)
+            && Objects.equals(minPrice, other.minPrice)
+            && Objects.equals(maxPrice, other.maxPrice);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(text, category, status, minPrice, maxPrice, from, size);
+    }
+
+    @Override
+    public String toString() {
+        return "ProductQuery{text='" + text + "', category=" + category + ", status=" + status
+            + ", price=[" + minPrice + ", " + maxPrice + "], from=" + from + ", size=" + size + "}";
+    }
+
+    public static class Builder {
+        private String text;
+        private String category;
+        private String status;
+        private Double minPrice;
+        private Double maxPrice;
+        private int from;
+        // Set by page(); from is then computed in build() with the final size
+        private Integer page;
+        private int size = DEFAULT_SIZE;
+
+        private Builder() {
+        }
+
+        // Normalized (trimmed, lowercased, single spaces) so equivalent searches compare equal
+        public Builder text(String text) {
+            this.text = text == null || text.isBlank()
+                ? null
+                : text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+            return this;
+        }
+
+        public Builder category(String category) {
+            this.category = category;
+            return this;
+        }
+
+        public Builder status(String status) {
+            this.status = status;
+            return this;
+        }
+
+        public Builder priceBetween(Double minPrice, Double maxPrice) {
+            this.minPrice = minPrice;
+            this.maxPrice = maxPrice;
+            return this;
+        }
+
+        public Builder from(int from) {
+            this.from = from;
+            this.page = null;
+            return this;
+        }
+
+        // Capped at MAX_SIZE so a single search never pulls a large result set
+        public Builder size(int size) {
+            this.size = size;
+            return this;
+        }
+
+        // Zero-based page number of pages of the final (capped) size, whenever size is set
+        public Builder page(int page) {
+            this.page = page;
+            return this;
+        }
+
+        public ProductQuery build() {
+            if (size <= 0 || (page != null && page < 0)) {
+                throw new IllegalArgumentException("size must be positive and page must not be negative");
+            }
+            size = Math.min(size, MAX_SIZE);
+            if (page != null) {
+                from = (int) Math.min((long) page * size, Integer.MAX_VALUE);
+            }
+            if (from < 0) {
+                throw new IllegalArgumentException("from must not be negative");
+            }
+            if ((long) from + size > 10_000) {
+                throw new IllegalArgumentException("Cannot page beyond the first 10000 results");
+            }
+            return new ProductQuery(this);
+        }
+    }
+}
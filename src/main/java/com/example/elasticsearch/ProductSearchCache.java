@@ -0,0 +1,376 @@
+package com.example.elasticsearch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Client-side cache of product search pages keyed by the normalized {@link ProductQuery}.
+ * <p>
+ * Entries expire after a fixed time to live. Size is bounded with a TinyLFU-style policy: a small
+ * count-min sketch estimates how often each query is asked, eviction removes the least frequently
+ * and least recently used entries, and once the cache is full a new result is only admitted if its
+ * query is asked more often than the entries last evicted. One-off searches therefore cannot
+ * flush popular ones. Concurrent misses for the same query share a single request, and indexing a
+ * product invalidates only the entries it could affect.
+ * <p>
+ * An indexed product only becomes searchable after the next refresh, so a search started just after
+ * the invalidation can still return the old data. For {@code visibilityDelay} after indexing a product,
+ * results it could affect are therefore returned but not cached.
+ */
+public class ProductSearchCache {
+    private static final double EVICTION_LOW_WATERMARK = 0.9;
+    // Default refresh interval of an index plus a margin
+    private static final Duration DEFAULT_VISIBILITY_DELAY = Duration.ofSeconds(2);
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long visibilityDelayNanos;
+    private final FrequencySketch sketch;
+    private final ConcurrentHashMap<ProductQuery, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ProductQuery, CompletableFuture<ElasticsearchDemo.ProductPage>> loading =
+        new ConcurrentHashMap<>();
+    private final AtomicLong accessClock = new AtomicLong();
+    // Bumped by invalidateAll; loads that started before it are not cached
+    private final AtomicLong clearEpoch = new AtomicLong();
+    // Products indexed within the visibility delay, oldest first
+    private final ConcurrentLinkedDeque<RecentWrite> recentWrites = new ConcurrentLinkedDeque<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private volatile int admissionFloor;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public ProductSearchCache(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, DEFAULT_VISIBILITY_DELAY);
+    }
+
+    // visibilityDelay: how long an indexed product may take to show up in searches (the refresh interval)
+    public ProductSearchCache(int maxEntries, Duration ttl, Duration visibilityDelay) {
+        if (maxEntries <= 0 || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("maxEntries and ttl must be positive");
+        }
+        if (visibilityDelay.isNegative()) {
+            throw new IllegalArgumentException("visibilityDelay must not be negative");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.visibilityDelayNanos = visibilityDelay.toNanos();
+        this.sketch = new FrequencySketch(maxEntries);
+    }
+
+    /**
+     * Cached page for the query, or the loader's result. Callers missing on the same query at the
+     * same time wait for one load instead of each searching.
+     */
+    public ElasticsearchDemo.ProductPage get(ProductQuery query, Loader loader) throws IOException {
+        ElasticsearchDemo.ProductPage cached = lookup(query);
+        if (cached != null) {
+            return cached;
+        }
+        CompletableFuture<ElasticsearchDemo.ProductPage> pending = new CompletableFuture<>();
+        CompletableFuture<ElasticsearchDemo.ProductPage> existing = loading.putIfAbsent(query, pending);
+        if (existing != null) {
+            coalesced.increment();
+            return join(existing);
+        }
+        long epoch = clearEpoch.get();
+        try {
+            ElasticsearchDemo.ProductPage page = loader.load(query);
+            store(query, page, epoch);
+            pending.complete(page);
+            return page;
+        } catch (IOException | RuntimeException e) {
+            pending.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(query, pending);
+        }
+    }
+
+    public CompletableFuture<ElasticsearchDemo.ProductPage> getAsync(
+            ProductQuery query, Function<ProductQuery, CompletableFuture<ElasticsearchDemo.ProductPage>> loader) {
+        ElasticsearchDemo.ProductPage cached = lookup(query);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<ElasticsearchDemo.ProductPage> pending = new CompletableFuture<>();
+        CompletableFuture<ElasticsearchDemo.ProductPage> existing = loading.putIfAbsent(query, pending);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+        long epoch = clearEpoch.get();
+        CompletableFuture<ElasticsearchDemo.ProductPage> load;
+        try {
+            load = loader.apply(query);
+        } catch (RuntimeException e) {
+            loading.remove(query, pending);
+            pending.completeExceptionally(e);
+            return pending;
+        }
+        load.whenComplete((page, error) -> {
+            loading.remove(query, pending);
+            if (error != null) {
+                pending.completeExceptionally(error);
+            } else {
+                store(query, page, epoch);
+                pending.complete(page);
+            }
+        });
+        return pending;
+    }
+
+    /**
+     * Drops every entry the product could affect: pages that contain it, whose content may now be
+     * stale, and pages whose query it now matches.
+     */
+    public void invalidate(Product product) {
+        String matchText = ProductQuery.matchText(product);
+        long now = System.nanoTime();
+        pruneRecentWrites(now);
+        // Recorded before the scan, so a store that the scan misses sees the write when it re-checks
+        recentWrites.addLast(new RecentWrite(product, matchText, now));
+        for (Map.Entry<ProductQuery, Entry> cached : entries.entrySet()) {
+            if (cached.getKey().couldMatch(product, matchText) || cached.getValue().contains(product.getId())) {
+                if (entries.remove(cached.getKey(), cached.getValue())) {
+                    invalidations.increment();
+                }
+            }
+        }
+    }
+
+    // For a reload that is fully refreshed before it becomes visible, such as an alias swap
+    public void invalidateAll() {
+        clearEpoch.incrementAndGet();
+        invalidations.add(entries.size());
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), coalesced.sum(), evictions.sum(), expirations.sum(),
+            invalidations.sum(), rejected.sum(), entries.size());
+    }
+
+    private ElasticsearchDemo.ProductPage lookup(ProductQuery query) {
+        sketch.increment(query.hashCode());
+        Entry entry = entries.get(query);
+        if (entry != null && System.nanoTime() - entry.loadedAt >= ttlNanos) {
+            if (entries.remove(query, entry)) {
+                expirations.increment();
+            }
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        // Racy, approximate recency stamp; exactness is not needed for eviction
+        entry.lastAccess = accessClock.getAndIncrement();
+        return entry.page;
+    }
+
+    private void store(ProductQuery query, ElasticsearchDemo.ProductPage page, long epoch) {
+        if (isStale(query, page, epoch)) {
+            return;
+        }
+        int frequency = sketch.frequency(query.hashCode());
+        if (entries.size() >= maxEntries && frequency <= admissionFloor) {
+            rejected.increment();
+            return;
+        }
+        Entry entry = new Entry(page, frequency, accessClock.getAndIncrement());
+        entries.put(query, entry);
+        // An invalidation that finished its scan between the check and the put did not see the entry
+        if (isStale(query, page, epoch)) {
+            entries.remove(query, entry);
+            return;
+        }
+        evictIfNeeded();
+    }
+
+    // Whether the cache was cleared since the load started, or the search may have run before a
+    // recent write it could be affected by became visible
+    private boolean isStale(ProductQuery query, ElasticsearchDemo.ProductPage page, long epoch) {
+        return clearEpoch.get() != epoch || affectedByRecentWrite(query, page);
+    }
+
+    private boolean affectedByRecentWrite(ProductQuery query, ElasticsearchDemo.ProductPage page) {
+        pruneRecentWrites(System.nanoTime());
+        if (recentWrites.isEmpty()) {
+            return false;
+        }
+        Entry candidate = new Entry(page, 0, 0);
+        for (RecentWrite write : recentWrites) {
+            if (query.couldMatch(write.product(), write.matchText()) || candidate.contains(write.product().getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void pruneRecentWrites(long now) {
+        RecentWrite oldest;
+        while ((oldest = recentWrites.peekFirst()) != null && now - oldest.indexedAt() >= visibilityDelayNanos) {
+            recentWrites.remove(oldest);
+        }
+    }
+
+    private void evictIfNeeded() {
+        if (entries.size() <= maxEntries || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            List<Map.Entry<ProductQuery, Entry>> candidates = new ArrayList<>(entries.entrySet());
+            for (Map.Entry<ProductQuery, Entry> candidate : candidates) {
+                candidate.getValue().frequency = sketch.frequency(candidate.getKey().hashCode());
+            }
+            candidates.sort(Comparator
+                .comparingInt((Map.Entry<ProductQuery, Entry> e) -> e.getValue().frequency)
+                .thenComparingLong(e -> e.getValue().lastAccess));
+            int target = (int) (maxEntries * EVICTION_LOW_WATERMARK);
+            int toEvict = entries.size() - target;
+            int floor = 0;
+            for (int i = 0; i < toEvict && i < candidates.size(); i++) {
+                Map.Entry<ProductQuery, Entry> victim = candidates.get(i);
+                if (entries.remove(victim.getKey(), victim.getValue())) {
+                    evictions.increment();
+                    floor = victim.getValue().frequency;
+                }
+            }
+            admissionFloor = floor;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static ElasticsearchDemo.ProductPage join(CompletableFuture<ElasticsearchDemo.ProductPage> future)
+            throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Loader {
+        ElasticsearchDemo.ProductPage load(ProductQuery query) throws IOException;
+    }
+
+    private static final class Entry {
+        final ElasticsearchDemo.ProductPage page;
+        final long loadedAt = System.nanoTime();
+        volatile long lastAccess;
+        int frequency;
+
+        Entry(ElasticsearchDemo.ProductPage page, int frequency, long lastAccess) {
+            this.page = page;
+            this.frequency = frequency;
+            this.lastAccess = lastAccess;
+        }
+
+        boolean contains(String productId) {
+            for (Product product : page.products()) {
+                if (product != null && productId.equals(product.getId())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private record RecentWrite(Product product, String matchText, long indexedAt) {}
+
+    /**
+     * Count-min sketch of query frequencies with four rows of saturating counters. All counters are
+     * halved after a sample of ten times the cache size, so the estimates follow recent popularity.
+     * Updates race benignly; the estimates only need to be approximately right.
+     */
+    static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x97CB3127, 0x7A9C6B2D, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final int[][] counters;
+        private final int mask;
+        private final int sampleSize;
+        private final AtomicLong additions = new AtomicLong();
+
+        FrequencySketch(int maxEntries) {
+            int width = Integer.highestOneBit(Math.max(16, maxEntries * 4 - 1)) << 1;
+            this.counters = new int[DEPTH][width];
+            this.mask = width - 1;
+            this.sampleSize = Math.max(160, maxEntries * 10);
+        }
+
+        void increment(int hash) {
+            for (int row = 0; row < DEPTH; row++) {
+                int index = index(hash, row);
+                if (counters[row][index] < MAX_COUNT) {
+                    counters[row][index]++;
+                }
+            }
+            if (additions.incrementAndGet() % sampleSize == 0) {
+                age();
+            }
+        }
+
+        int frequency(int hash) {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                frequency = Math.min(frequency, counters[row][index(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private synchronized void age() {
+            for (int[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>>= 1;
+                }
+            }
+        }
+
+        private int index(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+
+    public record Stats(long hits, long misses, long coalesced, long evictions, long expirations,
+                        long invalidations, long rejected, int size) {
+        public double hitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+    }
+}
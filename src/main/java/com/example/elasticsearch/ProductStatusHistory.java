@@ -1,179 +1,940 @@
 package com.example.elasticsearch;
 
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import co.elastic.clients.elasticsearch.core.*;
+import co.elastic.clients.elasticsearch.core.msearch.MultisearchBody;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.json.JsonData;
-import co.elastic.clients.json.jackson.JacksonJsonpMapper;
-import co.elastic.clients.transport.ElasticsearchTransport;
-import co.elastic.clients.transport.rest_client.RestClientTransport;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import org.apache.http.HttpHost;
-import org.elasticsearch.client.RestClient;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-public class ProductStatusHistory {
-    private static final String INDEX_NAME = "product_status_history";
+public class ProductStatusHistory implements StatusHistoryStore {
+    private static final String INDEX_NAME = StatusHistoryIndices.ALIAS;
     private final ElasticsearchClient client;
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ISO_DATE_TIME;
+    private final ElasticsearchAsyncClient asyncClient;
+    private final Executor blockingExecutor;
+    private final ClientMetrics metrics;
+    // Timestamps are stored as UTC ISO-8601 instants in a date field
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ISO_INSTANT;
+    private static final int HISTORY_PAGE_SIZE = 1000;
+    // Concurrent single-product searches when many products are looked up through snapshots
+    private static final int SNAPSHOT_LOOKUP_CONCURRENCY = 64;
+    private volatile BulkStatusIngester bulkIngester;
+    private volatile StatusJournal journal;
+    private volatile StatusAtTimeCache statusCache;
+    private volatile LastKnownStatusTable lastKnownStatus;
+    private volatile StatusSnapshotRollup snapshots;
+    private volatile boolean productRouting;
+    private volatile StatusChangeFeed changeFeed;
+    private volatile StatusLookupCoalescer lookupCoalescer;
+    private BatchStatusLookup batchLookup;
 
     public ProductStatusHistory() throws IOException {
+        this(ElasticsearchClientFactory.getDefault());
+    }
+
+    public ProductStatusHistory(ElasticsearchClientFactory clientFactory) {
         System.out.println("Initializing Elasticsearch client...");
-        // Create the low-level client
-        RestClient restClient = RestClient
-                .builder(new HttpHost("localhost", 9200))
-                .build();
-
-        // Create the transport with a custom mapper
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.registerModule(new JavaTimeModule());
-        ElasticsearchTransport transport = new RestClientTransport(
-                restClient, new JacksonJsonpMapper(mapper));
-
-        // Create the API client
-        client = new ElasticsearchClient(transport);
+        client = clientFactory.client();
+        asyncClient = clientFactory.asyncClient();
+        blockingExecutor = clientFactory.blockingExecutor();
+        metrics = clientFactory.metrics();
         System.out.println("Elasticsearch client initialized successfully");
     }
 
+    public BulkStatusIngester.Builder bulkIngesterBuilder() {
+        return BulkStatusIngester.builder(client);
+    }
+
+    // Routes recordStatusChange* through the given bulk ingester instead of one index request per event
+    public void enableBulkIngestion(BulkStatusIngester ingester) {
+        this.bulkIngester = ingester;
+    }
+
+    // Stops routing writes through the bulk ingester, flushing and closing it
+    public void disableBulkIngestion() {
+        BulkStatusIngester ingester = this.bulkIngester;
+        this.bulkIngester = null;
+        if (ingester != null) {
+            ingester.close();
+        }
+    }
+
+    /**
+     * Appends recordStatusChange* to the given local journal instead of writing to the cluster, so
+     * writes keep succeeding while Elasticsearch is slow or down. Takes precedence over bulk ingestion.
+     */
+    public void enableJournal(StatusJournal journal) {
+        this.journal = journal;
+    }
+
+    // Stops journaling new writes; the journal keeps shipping what it holds until it is closed
+    public void disableJournal() {
+        this.journal = null;
+    }
+
+    /**
+     * Answers point-in-time lookups from the given local cache, loading each product's history on first
+     * use. Timelines are built from raw events, so the cache cannot be combined with snapshot lookups on
+     * a rollup whose retention drops them.
+     */
+    public synchronized void enableStatusCache(StatusAtTimeCache cache) {
+        StatusSnapshotRollup rollup = snapshots;
+        if (cache != null && rollup != null && rollup.dropsRawEvents()) {
+            throw new IllegalStateException("The status cache reads raw events only; "
+                + "disable snapshot lookups on a rollup with retention first");
+        }
+        this.statusCache = cache;
+    }
+
+    public StatusAtTimeCache statusCache() {
+        return statusCache;
+    }
+
+    // Drops status changes to the status a product is already in before they are written
+    public LastKnownStatusTable enableDeduplication() {
+        LastKnownStatusTable table = new LastKnownStatusTable(client, this::routing);
+        this.lastKnownStatus = table;
+        return table;
+    }
+
+    public void disableDeduplication() {
+        this.lastKnownStatus = null;
+    }
+
+    public LastKnownStatusTable lastKnownStatus() {
+        return lastKnownStatus;
+    }
+
+    // Collapses runs of repeated statuses that were written before deduplication was enabled
+    public StatusHistoryCompactor compactor(int parallelism) {
+        return new StatusHistoryCompactor(client, parallelism);
+    }
+
+    /**
+     * Routes every status change to the shard of its product and gives it the id
+     * {@code productId_epochMillis}, so per-product lookups search a single shard and retried writes
+     * overwrite instead of duplicating. Enable before {@link #createIndex()}, whose template then
+     * requires routing, and only on a history without unrouted documents: routed lookups do not see them.
+     */
+    public void enableProductRouting() {
+        this.productRouting = true;
+    }
+
+    public boolean productRouting() {
+        return productRouting;
+    }
+
+    // Publishes every accepted recordStatusChange* to the feed; publishing never blocks the write
+    public void enableChangeFeed(StatusChangeFeed feed) {
+        this.changeFeed = feed;
+    }
+
+    public void disableChangeFeed() {
+        this.changeFeed = null;
+    }
+
+    private void publish(StatusHistoryEntry entry) {
+        StatusChangeFeed feed = changeFeed;
+        if (feed != null) {
+            feed.publish(entry.productId(), entry.status(), entry.timestamp());
+        }
+    }
+
+    // Compact deterministic id of a change; two changes of a product in the same millisecond share it
+    static String documentId(String productId, Instant timestamp) {
+        return productId + "_" + timestamp.toEpochMilli();
+    }
+
+    private String routing(String productId) {
+        return productRouting ? productId : null;
+    }
+
+    // Id for writes that would otherwise let Elasticsearch generate one
+    private String generatedId(StatusHistoryEntry entry) {
+        return productRouting ? documentId(entry.productId(), entry.timestamp()) : null;
+    }
+
+    // Id for writes that are always deterministic
+    private String timestampedId(StatusHistoryEntry entry) {
+        return productRouting
+            ? documentId(entry.productId(), entry.timestamp())
+            : entry.productId() + "_" + DATE_FORMATTER.format(entry.timestamp());
+    }
+
+    public StatusSnapshotRollup.Builder snapshotRollupBuilder() {
+        return StatusSnapshotRollup.builder(client);
+    }
+
+    /**
+     * Answers point-in-time lookups the rollup covers from its snapshots plus the raw events since the
+     * start of the instant's period. Required once the rollup's retention has dropped raw partitions.
+     * With such a rollup, many-product lookups search per product instead of using the batch lookup,
+     * and the status cache, which reads raw events only, cannot be enabled.
+     */
+    public synchronized void enableSnapshotLookups(StatusSnapshotRollup rollup) {
+        if (rollup != null && rollup.dropsRawEvents() && statusCache != null) {
+            throw new IllegalStateException("The status cache reads raw events only; "
+                + "disable it before enabling snapshot lookups on a rollup with retention");
+        }
+        this.snapshots = rollup;
+    }
+
+    public synchronized void disableSnapshotLookups() {
+        this.snapshots = null;
+    }
+
+    // Raw partitions may be gone, so only the snapshot-aware single-product lookups are complete
+    private boolean rawEventsMayBeDropped() {
+        StatusSnapshotRollup rollup = snapshots;
+        return rollup != null && rollup.dropsRawEvents();
+    }
+
+    // Replaces the default batch lookup (chunks of 1000 ids, 4 in parallel) and takes ownership of it:
+    // it is closed when replaced or when this history is closed
+    public synchronized void setBatchLookup(BatchStatusLookup batchLookup) {
+        BatchStatusLookup previous = this.batchLookup;
+        this.batchLookup = batchLookup;
+        if (previous != null && previous != batchLookup) {
+            previous.close();
+        }
+    }
+
+    private synchronized BatchStatusLookup batchLookup() {
+        if (batchLookup == null) {
+            batchLookup = new BatchStatusLookup(client, 1000, 4);
+        }
+        return batchLookup;
+    }
+
+    // Coalescer reporting server-side search time to this history's metrics
+    public StatusLookupCoalescer.Builder lookupCoalescerBuilder() {
+        return StatusLookupCoalescer.builder(asyncClient, metrics);
+    }
+
+    /**
+     * Sends point-in-time lookup searches through the coalescer: identical concurrent lookups share
+     * one search and distinct ones arriving together go out as one {@code _msearch}.
+     */
+    public void enableLookupCoalescing(StatusLookupCoalescer coalescer) {
+        this.lookupCoalescer = coalescer;
+    }
+
+    // Stops coalescing new lookups, sending any that are queued
+    public void disableLookupCoalescing() {
+        StatusLookupCoalescer coalescer = this.lookupCoalescer;
+        this.lookupCoalescer = null;
+        if (coalescer != null) {
+            coalescer.close();
+        }
+    }
+
+    // Stops the batch lookup's worker pool; the client belongs to the factory and stays open
+    @Override
+    public synchronized void close() {
+        if (batchLookup != null) {
+            batchLookup.close();
+            batchLookup = null;
+        }
+    }
+
     public void createIndex() throws IOException {
         System.out.println("Checking if index exists...");
-        boolean indexExists = client.indices().exists(e -> e.index(INDEX_NAME)).value();
+        List<String> existing = StatusHistoryIndices.existingIndices(client);
         
-        if (indexExists) {
+        if (!existing.isEmpty()) {
             System.out.println("Index already exists. Deleting it...");
-            client.indices().delete(d -> d.index(INDEX_NAME));
+            client.indices().delete(d -> d.index(existing));
             System.out.println("Index deleted successfully");
         }
         
         System.out.println("Creating status history index...");
-        // Create the index with proper mapping for timestamp
-        client.indices().create(c -> c
-            .index(INDEX_NAME)
-            .mappings(m -> m
-                .properties("productId", p -> p.keyword(k -> k))
-                .properties("status", p -> p.keyword(k -> k))
-                .properties("timestamp", p -> p.keyword(k -> k))
-            )
-        );
+        // Monthly partitions are created on first write from the template, which maps timestamp as a date
+        StatusHistoryIndices.putTemplate(client, productRouting);
+        // Create the current partition up front so the read alias always resolves
+        String currentPartition = StatusHistoryIndices.partitionFor(Instant.now());
+        client.indices().create(c -> c.index(currentPartition));
         System.out.println("Status history index created successfully");
     }
 
+    @Override
     public void recordStatusChange(String productId, String status) throws IOException {
         System.out.println("Recording status change for product " + productId + " to " + status);
         // Create a status history document
         StatusHistoryEntry entry = new StatusHistoryEntry(productId, status, Instant.now());
+        if (isUnchanged(entry)) {
+            System.out.println("Product " + productId + " is already " + status + ", skipping");
+            return;
+        }
+
+        long start = metrics.start(ClientMetrics.Operation.RECORD_STATUS_CHANGE);
+        StatusJournal statusJournal = journal;
+        if (statusJournal != null) {
+            try {
+                journal(statusJournal, entry, timestampedId(entry), routing(productId));
+            } catch (IOException | RuntimeException e) {
+                metrics.failure(ClientMetrics.Operation.RECORD_STATUS_CHANGE, start);
+                forgetOnFailure(productId, e);
+                throw e;
+            }
+            metrics.success(ClientMetrics.Operation.RECORD_STATUS_CHANGE, start);
+            cacheWrite(entry);
+            publish(entry);
+            System.out.println("Status change journaled");
+            return;
+        }
+        BulkStatusIngester ingester = bulkIngester;
+        if (ingester != null) {
+            try {
+                enqueue(ingester, StatusHistoryIndices.partitionFor(entry.timestamp()), generatedId(entry),
+                        routing(productId), toDocument(entry))
+                    .whenComplete((id, error) -> {
+                        forgetOnFailure(productId, error);
+                        // Subscribers only hear about changes that made it into the index
+                        if (error == null) {
+                            cacheWrite(entry);
+                            publish(entry);
+                        }
+                    });
+            } catch (IOException | RuntimeException e) {
+                metrics.failure(ClientMetrics.Operation.RECORD_STATUS_CHANGE, start);
+                forgetOnFailure(productId, e);
+                throw e;
+            }
+            metrics.success(ClientMetrics.Operation.RECORD_STATUS_CHANGE, start);
+            System.out.println("Status change queued for bulk indexing");
+            return;
+        }
         
         // Index the status change
-        IndexResponse response = client.index(i -> i
-                .index(INDEX_NAME)
-                .document(entry));
+        IndexResponse response;
+        try {
+            response = client.index(i -> i
+                    .index(StatusHistoryIndices.partitionFor(entry.timestamp()))
+                    .id(generatedId(entry))
+                    .routing(routing(productId))
+                    .document(entry));
+        } catch (IOException | RuntimeException e) {
+            metrics.failure(ClientMetrics.Operation.RECORD_STATUS_CHANGE, start);
+            forgetOnFailure(productId, e);
+            throw e;
+        }
+        metrics.success(ClientMetrics.Operation.RECORD_STATUS_CHANGE, start);
+        cacheWrite(entry);
+        publish(entry);
         System.out.println("Status change recorded: " + response.id());
     }
     
+    @Override
     public void recordStatusChangeWithTimestamp(StatusHistoryEntry entry) throws IOException {
         System.out.println("Recording status change for product " + entry.productId() + 
                          " to " + entry.status() + " at " + entry.timestamp());
         
-        // Convert Instant to LocalDateTime and format it
-        LocalDateTime dateTime = LocalDateTime.ofInstant(entry.timestamp(), ZoneId.systemDefault());
-        String formattedTimestamp = dateTime.format(DATE_FORMATTER);
-        
-        // Create the document with formatted timestamp string
-        client.index(i -> i
-            .index(INDEX_NAME)
-            .id(entry.productId() + "_" + formattedTimestamp)
-            .document(new StatusHistoryEntryWithString(
-                entry.productId(),
-                entry.status(),
-                formattedTimestamp
-            ))
-        );
+        String documentId = timestampedId(entry);
+        String routing = routing(entry.productId());
+        if (isUnchanged(entry)) {
+            System.out.println("Product " + entry.productId() + " is already " + entry.status() + ", skipping");
+            return;
+        }
+
+        long start = metrics.start(ClientMetrics.Operation.RECORD_STATUS_CHANGE);
+        StatusJournal statusJournal = journal;
+        BulkStatusIngester ingester = statusJournal == null ? bulkIngester : null;
+        try {
+            if (statusJournal != null) {
+                journal(statusJournal, entry, documentId, routing);
+            } else if (ingester != null) {
+                enqueue(ingester, StatusHistoryIndices.partitionFor(entry.timestamp()), documentId, routing,
+                    toDocument(entry)).whenComplete((written, error) -> {
+                        forgetOnFailure(entry.productId(), error);
+                        if (error == null) {
+                            cacheWrite(entry);
+                            publish(entry);
+                        }
+                    });
+            } else {
+                // StatusJsonModule writes the timestamp as a UTC ISO-8601 string
+                client.index(i -> i
+                    .index(StatusHistoryIndices.partitionFor(entry.timestamp()))
+                    .id(documentId)
+                    .routing(routing)
+                    .document(entry)
+                );
+            }
+        } catch (IOException | RuntimeException e) {
+            metrics.failure(ClientMetrics.Operation.RECORD_STATUS_CHANGE, start);
+            forgetOnFailure(entry.productId(), e);
+            throw e;
+        }
+        metrics.success(ClientMetrics.Operation.RECORD_STATUS_CHANGE, start);
+        // Queued writes are cached and published once their bulk request succeeds
+        if (ingester == null) {
+            cacheWrite(entry);
+            publish(entry);
+        }
+    }
+
+    private void record(ClientMetrics.Operation operation, long start, Throwable error) {
+        if (error == null) {
+            metrics.success(operation, start);
+        } else {
+            metrics.failure(operation, start);
+        }
+    }
+
+    private boolean isUnchanged(StatusHistoryEntry entry) throws IOException {
+        LastKnownStatusTable table = lastKnownStatus;
+        return table != null && !table.shouldWrite(entry.productId(), entry.status(), entry.timestamp().toEpochMilli());
+    }
+
+    // A write that deduplication let through did not land, so the table may be ahead of the index
+    private void forgetOnFailure(String productId, Throwable error) {
+        LastKnownStatusTable table = lastKnownStatus;
+        if (error != null && table != null) {
+            table.invalidate(productId);
+        }
+    }
+
+    // Only acknowledged changes reach the cache, so a failed write is never served from it
+    private void cacheWrite(StatusHistoryEntry entry) {
+        StatusAtTimeCache cache = statusCache;
+        if (cache != null) {
+            cache.recordChange(entry.productId(), entry.timestamp().toEpochMilli(), entry.status());
+        }
+    }
+
+    static long parseTimestamp(String timestamp) {
+        return Instant.parse(timestamp).toEpochMilli();
+    }
+
+    /**
+     * Non-blocking variant of {@link #recordStatusChange}. Completes with the document id. When bulk
+     * ingestion is enabled the future completes once the bulk item is acknowledged, and fails
+     * immediately instead of blocking if the bulk queue is full. With a journal enabled it completes
+     * as soon as the change is journaled. Completes with null when
+     * deduplication suppressed the change.
+     */
+    @Override
+    public CompletableFuture<String> recordStatusChangeAsync(String productId, String status) {
+        StatusHistoryEntry entry = new StatusHistoryEntry(productId, status, Instant.now());
+        LastKnownStatusTable table = lastKnownStatus;
+        if (table == null) {
+            return writeStatusChangeAsync(entry);
+        }
+        if (table.isLoaded(productId)) {
+            try {
+                return isUnchanged(entry) ? CompletableFuture.completedFuture(null) : writeStatusChangeAsync(entry);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        // Loading the product's last status queries the index, so keep it off the caller's thread
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return isUnchanged(entry);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, blockingExecutor).thenCompose(unchanged -> unchanged
+            ? CompletableFuture.completedFuture(null)
+            : writeStatusChangeAsync(entry));
+    }
+
+    private CompletableFuture<String> writeStatusChangeAsync(StatusHistoryEntry entry) {
+        String partition = StatusHistoryIndices.partitionFor(entry.timestamp());
+
+        long start = metrics.start(ClientMetrics.Operation.RECORD_STATUS_CHANGE);
+        CompletableFuture<String> result;
+        StatusJournal statusJournal = journal;
+        BulkStatusIngester ingester = bulkIngester;
+        if (statusJournal != null) {
+            try {
+                result = CompletableFuture.completedFuture(
+                    journal(statusJournal, entry, timestampedId(entry), routing(entry.productId())));
+            } catch (IOException | RuntimeException e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+        } else if (ingester != null) {
+            try {
+                CompletableFuture<String> queued = ingester.offer(partition, generatedId(entry), routing(entry.productId()),
+                    toDocument(entry), Duration.ZERO);
+                result = queued != null
+                    ? queued
+                    : CompletableFuture.failedFuture(new IOException("Bulk ingestion queue is full"));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result = CompletableFuture.failedFuture(e);
+            }
+        } else {
+            result = asyncClient.index(i -> i
+                    .index(partition)
+                    .id(generatedId(entry))
+                    .routing(routing(entry.productId()))
+                    .document(entry))
+                .thenApply(IndexResponse::id);
+        }
+        return result.whenComplete((id, error) -> {
+            record(ClientMetrics.Operation.RECORD_STATUS_CHANGE, start, error);
+            forgetOnFailure(entry.productId(), error);
+            if (error == null) {
+                cacheWrite(entry);
+                publish(entry);
+            }
+        });
+    }
+
+    // The bulk ingester and journal hold documents with the timestamp already formatted
+    private static StatusHistoryEntryWithString toDocument(StatusHistoryEntry entry) {
+        return new StatusHistoryEntryWithString(entry.productId(), entry.status(), DATE_FORMATTER.format(entry.timestamp()));
+    }
+
+    // Journaled events get deterministic ids so replaying the journal after a restart is idempotent
+    private static String journal(StatusJournal statusJournal, StatusHistoryEntry entry, String id, String routing)
+            throws IOException {
+        statusJournal.append(StatusHistoryIndices.partitionFor(entry.timestamp()), id, routing, toDocument(entry));
+        return id;
+    }
+
+    private static CompletableFuture<String> enqueue(BulkStatusIngester ingester, String index, String id, String routing,
+            StatusHistoryEntryWithString document) throws IOException {
+        try {
+            return ingester.add(index, id, routing, document);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queueing status change", e);
+        }
     }
 
     public void getStatusAtTime(String productId, Instant time) throws IOException {
         System.out.println("Getting status for product " + productId + " at time " + time);
         
-        // Convert Instant to LocalDateTime and format it
-        LocalDateTime dateTime = LocalDateTime.ofInstant(time, ZoneId.systemDefault());
-        String formattedTime = dateTime.format(DATE_FORMATTER);
-        
-        SearchResponse<StatusHistoryEntryWithString> response = client.search(builder -> builder
-            .index(INDEX_NAME)
-            .query(q -> q
-                .bool(b -> b
-                    .must(m -> m
-                        .term(t -> t
-                            .field("productId")
-                            .value(productId)
-                        )
-                    )
-                    .must(m -> m
-                        .range(r -> r
-                            .field("timestamp")
-                            .lte(JsonData.of(formattedTime))
-                        )
-                    )
-                )
-            )
+        Optional<String> status = findStatusAtTime(productId, time);
+        if (status.isPresent()) {
+            System.out.println("Status at " + time + " was: " + status.get());
+        } else {
+            System.out.println("No status found for product " + productId + " at time " + time);
+        }
+    }
+
+    // Status in effect at the given time, served from the local cache when it is enabled
+    @Override
+    public Optional<String> findStatusAtTime(String productId, Instant time) throws IOException {
+        long start = metrics.start(ClientMetrics.Operation.GET_STATUS_AT_TIME);
+        Optional<String> status;
+        try {
+            status = lookupStatusAtTime(productId, time);
+        } catch (IOException | RuntimeException e) {
+            metrics.failure(ClientMetrics.Operation.GET_STATUS_AT_TIME, start);
+            throw e;
+        }
+        metrics.success(ClientMetrics.Operation.GET_STATUS_AT_TIME, start);
+        return status;
+    }
+
+    private Optional<String> lookupStatusAtTime(String productId, Instant time) throws IOException {
+        StatusAtTimeCache cache = statusCache;
+        if (cache != null) {
+            StatusAtTimeCache.Timeline timeline = cache.get(productId);
+            if (timeline == null) {
+                timeline = cache.load(productId, readStatusHistory(productId));
+            }
+            return Optional.ofNullable(timeline.statusAt(time.toEpochMilli()));
+        }
+        StatusHistoryEntryWithString entry = findLatestEntry(productId, time);
+        return entry == null ? Optional.empty() : Optional.of(entry.status());
+    }
+
+    // Non-blocking variant of findStatusAtTime
+    public CompletableFuture<Optional<String>> getStatusAtTimeAsync(String productId, Instant time) {
+        long start = metrics.start(ClientMetrics.Operation.GET_STATUS_AT_TIME);
+        return lookupStatusAtTimeAsync(productId, time)
+            .whenComplete((status, error) -> record(ClientMetrics.Operation.GET_STATUS_AT_TIME, start, error));
+    }
+
+    private CompletableFuture<Optional<String>> lookupStatusAtTimeAsync(String productId, Instant time) {
+        StatusAtTimeCache cache = statusCache;
+        if (cache != null) {
+            StatusAtTimeCache.Timeline timeline = cache.get(productId);
+            if (timeline != null) {
+                return CompletableFuture.completedFuture(Optional.ofNullable(timeline.statusAt(time.toEpochMilli())));
+            }
+            // Loading a full history pages through the index; keep that off the caller's thread
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return Optional.ofNullable(cache.load(productId, readStatusHistory(productId)).statusAt(time.toEpochMilli()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, blockingExecutor);
+        }
+        return findLatestEntryAsync(productId, time)
+            .thenApply(entry -> entry == null ? Optional.empty() : Optional.of(entry.status()));
+    }
+
+    // Non-blocking variant of findLatestEntry
+    private CompletableFuture<StatusHistoryEntryWithString> findLatestEntryAsync(String productId, Instant time) {
+        StatusSnapshotRollup rollup = snapshots;
+        Instant boundary = rollup == null ? null : rollup.lookupBoundary(time);
+        if (boundary != null) {
+            return searchLatestEntryAsync(rawIndex(boundary, time), productId, boundary, time)
+                .thenCompose(entry -> {
+                    if (entry != null) {
+                        return CompletableFuture.completedFuture(entry);
+                    }
+                    return asyncClient.search(rollup.snapshotRequest(productId, boundary), StatusSnapshotRollup.Snapshot.class)
+                        .thenApply(StatusSnapshotRollup::toEntry);
+                });
+        }
+
+        Instant partitionStart = StatusHistoryIndices.partitionStart(time);
+        return searchLatestEntryAsync(StatusHistoryIndices.partitionFor(time), productId, partitionStart, time)
+            .thenCompose(entry -> entry != null
+                ? CompletableFuture.completedFuture(entry)
+                : searchLatestEntryAsync(INDEX_NAME, productId, null, partitionStart.minusMillis(1)));
+    }
+
+    // Statuses of many products at one instant; products with no status by then are absent from the map
+    public Map<String, StatusHistoryEntryWithString> findStatusesAtTime(Collection<String> productIds, Instant time)
+            throws IOException {
+        if (rawEventsMayBeDropped()) {
+            // The batch lookup reads raw partitions only
+            return findLatestEntries(productIds, time);
+        }
+        Map<String, StatusHistoryEntryWithString> results = new HashMap<>();
+        List<String> uncached = resolveFromCache(productIds, time, results);
+        if (!uncached.isEmpty()) {
+            results.putAll(batchLookup().lookup(uncached, time));
+        }
+        return results;
+    }
+
+    public Map<Instant, Map<String, StatusHistoryEntryWithString>> findStatusesAtTimes(Collection<String> productIds,
+                                                                                   Collection<Instant> times)
+            throws IOException {
+        if (statusCache != null || rawEventsMayBeDropped()) {
+            Map<Instant, Map<String, StatusHistoryEntryWithString>> results = new LinkedHashMap<>();
+            for (Instant time : times) {
+                results.put(time, findStatusesAtTime(productIds, time));
+            }
+            return results;
+        }
+        return batchLookup().lookup(productIds, times);
+    }
+
+    // Snapshot-aware lookup of each product, a bounded number at a time
+    private Map<String, StatusHistoryEntryWithString> findLatestEntries(Collection<String> productIds, Instant time)
+            throws IOException {
+        Map<String, StatusHistoryEntryWithString> results = new HashMap<>();
+        List<String> ids = new ArrayList<>(productIds);
+        for (int from = 0; from < ids.size(); from += SNAPSHOT_LOOKUP_CONCURRENCY) {
+            List<String> chunk = ids.subList(from, Math.min(ids.size(), from + SNAPSHOT_LOOKUP_CONCURRENCY));
+            List<CompletableFuture<StatusHistoryEntryWithString>> lookups = new ArrayList<>(chunk.size());
+            for (String productId : chunk) {
+                lookups.add(findLatestEntryAsync(productId, time));
+            }
+            for (int i = 0; i < chunk.size(); i++) {
+                StatusHistoryEntryWithString entry;
+                try {
+                    entry = lookups.get(i).join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof IOException io) {
+                        throw io;
+                    }
+                    throw e;
+                }
+                if (entry != null) {
+                    results.put(chunk.get(i), entry);
+                }
+            }
+        }
+        return results;
+    }
+
+    // Answers what it can from the cache without loading and returns the product ids it could not
+    private List<String> resolveFromCache(Collection<String> productIds, Instant time,
+                                          Map<String, StatusHistoryEntryWithString> results) {
+        StatusAtTimeCache cache = statusCache;
+        if (cache == null) {
+            return new ArrayList<>(productIds);
+        }
+        long epochMillis = time.toEpochMilli();
+        List<String> uncached = new ArrayList<>();
+        for (String productId : productIds) {
+            StatusAtTimeCache.Timeline timeline = cache.get(productId);
+            if (timeline == null) {
+                uncached.add(productId);
+                continue;
+            }
+            String status = timeline.statusAt(epochMillis);
+            if (status != null) {
+                Instant changedAt = Instant.ofEpochMilli(timeline.changedAt(epochMillis));
+                results.put(productId, new StatusHistoryEntryWithString(productId, status, DATE_FORMATTER.format(changedAt)));
+            }
+        }
+        return uncached;
+    }
+
+    // Latest entry at or before the given time, or null if the product had no status yet
+    private StatusHistoryEntryWithString findLatestEntry(String productId, Instant time) throws IOException {
+        StatusSnapshotRollup rollup = snapshots;
+        Instant boundary = rollup == null ? null : rollup.lookupBoundary(time);
+        if (boundary != null) {
+            StatusHistoryEntryWithString entry = searchLatestEntry(rawIndex(boundary, time), productId, boundary, time);
+            return entry != null ? entry : rollup.findSnapshot(productId, boundary);
+        }
+        // Most lookups are answered by the partition containing the instant itself
+        Instant partitionStart = StatusHistoryIndices.partitionStart(time);
+        StatusHistoryEntryWithString entry = searchLatestEntry(
+            StatusHistoryIndices.partitionFor(time), productId, partitionStart, time);
+        if (entry != null) {
+            return entry;
+        }
+        // Otherwise the answer is the last change in an earlier partition; the range lets Elasticsearch
+        // skip the shards of later partitions during its can-match phase
+        return searchLatestEntry(INDEX_NAME, productId, null, partitionStart.minusMillis(1));
+    }
+
+    // The instant's own partition when the raw events since the boundary all lie in it
+    private static String rawIndex(Instant boundary, Instant time) {
+        String partition = StatusHistoryIndices.partitionFor(time);
+        return partition.equals(StatusHistoryIndices.partitionFor(boundary)) ? partition : INDEX_NAME;
+    }
+
+    private StatusHistoryEntryWithString searchLatestEntry(String index, String productId, Instant from, Instant to)
+            throws IOException {
+        StatusLookupCoalescer coalescer = lookupCoalescer;
+        if (coalescer != null) {
+            return coalescer.findLatestEntry(index, productId, from, to, routing(productId));
+        }
+        SearchResponse<StatusHistoryEntryWithString> response = client.search(
+            latestEntryRequest(index, productId, from, to, routing(productId)), StatusHistoryEntryWithString.class);
+        metrics.serverTook(ClientMetrics.Operation.GET_STATUS_AT_TIME, response.took());
+        return firstSource(response);
+    }
+
+    private CompletableFuture<StatusHistoryEntryWithString> searchLatestEntryAsync(String index, String productId,
+                                                                                Instant from, Instant to) {
+        StatusLookupCoalescer coalescer = lookupCoalescer;
+        if (coalescer != null) {
+            return coalescer.latestEntry(index, productId, from, to, routing(productId));
+        }
+        return asyncClient.search(latestEntryRequest(index, productId, from, to, routing(productId)),
+                StatusHistoryEntryWithString.class)
+            .thenApply(response -> {
+                metrics.serverTook(ClientMetrics.Operation.GET_STATUS_AT_TIME, response.took());
+                return firstSource(response);
+            });
+    }
+
+    private static StatusHistoryEntryWithString firstSource(SearchResponse<StatusHistoryEntryWithString> response) {
+        List<Hit<StatusHistoryEntryWithString>> hits = response.hits().hits();
+        return hits.isEmpty() ? null : hits.get(0).source();
+    }
+
+    // Latest entry within [from, to]; either bound may be null
+    static SearchRequest latestEntryRequest(String index, String productId, Instant from, Instant to) {
+        return latestEntryRequest(index, productId, from, to, null);
+    }
+
+    // With a routing key only the shard holding that key's documents is searched
+    static SearchRequest latestEntryRequest(String index, String productId, Instant from, Instant to, String routing) {
+        MultisearchBody body = latestEntryBody(productId, from, to);
+        return SearchRequest.of(builder -> builder
+            .index(index)
+            .routing(routing)
+            .ignoreUnavailable(true)
+            .allowNoIndices(true)
+            .query(body.query())
+            .sort(body.sort())
+            .size(body.size())
+        );
+    }
+
+    // Query, sort and size of a latest-entry search, also sent as an _msearch item by StatusLookupCoalescer
+    static MultisearchBody latestEntryBody(String productId, Instant from, Instant to) {
+        return MultisearchBody.of(builder -> builder
+            .query(historyQuery(productId, from, to))
             .sort(sort -> sort
                 .field(f -> f
                     .field("timestamp")
                     .order(co.elastic.clients.elasticsearch._types.SortOrder.Desc)
                 )
             )
-            .size(1),
-            StatusHistoryEntryWithString.class
+            .size(1)
         );
-
-        List<Hit<StatusHistoryEntryWithString>> hits = response.hits().hits();
-        if (!hits.isEmpty()) {
-            StatusHistoryEntryWithString entry = hits.get(0).source();
-            System.out.println("Status at " + time + " was: " + entry.status());
-        } else {
-            System.out.println("No status found for product " + productId + " at time " + time);
-        }
     }
 
     public void getStatusHistory(String productId) throws IOException {
         System.out.println("Getting complete status history for product " + productId);
-        
-        SearchResponse<StatusHistoryEntryWithString> response = client.search(builder -> builder
-            .index(INDEX_NAME)
-            .query(q -> q
-                .term(t -> t
-                    .field("productId")
-                    .value(productId)
-                )
-            )
-            .sort(sort -> sort
-                .field(f -> f
-                    .field("timestamp")
-                    .order(co.elastic.clients.elasticsearch._types.SortOrder.Asc)
-                )
-            ),
-            StatusHistoryEntryWithString.class
-        );
 
-        List<Hit<StatusHistoryEntryWithString>> hits = response.hits().hits();
-        if (!hits.isEmpty()) {
-            System.out.println("Status history for product " + productId + ":");
+        long start = metrics.start(ClientMetrics.Operation.GET_STATUS_HISTORY);
+        try (Stream<StatusHistoryEntryWithString> history = streamStatusHistory(productId)) {
+            Iterator<StatusHistoryEntryWithString> entries = history.iterator();
+            if (entries.hasNext()) {
+                System.out.println("Status history for product " + productId + ":");
+                while (entries.hasNext()) {
+                    StatusHistoryEntryWithString entry = entries.next();
+                    System.out.println("Time: " + entry.timestamp() + ", Status: " + entry.status());
+                }
+            } else {
+                System.out.println("No status history found for product " + productId);
+            }
+        } catch (UncheckedIOException e) {
+            metrics.failure(ClientMetrics.Operation.GET_STATUS_HISTORY, start);
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            metrics.failure(ClientMetrics.Operation.GET_STATUS_HISTORY, start);
+            throw e;
+        }
+        metrics.success(ClientMetrics.Operation.GET_STATUS_HISTORY, start);
+    }
+
+    // Status changes of the product in ascending time order, fully materialised
+    @Override
+    public List<StatusHistoryEntryWithString> findStatusHistory(String productId) throws IOException {
+        long start = metrics.start(ClientMetrics.Operation.GET_STATUS_HISTORY);
+        List<StatusHistoryEntryWithString> history;
+        try {
+            history = readStatusHistory(productId);
+        } catch (IOException | RuntimeException e) {
+            metrics.failure(ClientMetrics.Operation.GET_STATUS_HISTORY, start);
+            throw e;
+        }
+        metrics.success(ClientMetrics.Operation.GET_STATUS_HISTORY, start);
+        return history;
+    }
+
+    private List<StatusHistoryEntryWithString> readStatusHistory(String productId) throws IOException {
+        try (Stream<StatusHistoryEntryWithString> history = streamStatusHistory(productId)) {
+            return history.collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Non-blocking variant of findStatusHistory, paging through a point in time with the async client
+    public CompletableFuture<List<StatusHistoryEntryWithString>> getStatusHistoryAsync(String productId) {
+        Query query = historyQuery(productId, null, null);
+        long start = metrics.start(ClientMetrics.Operation.GET_STATUS_HISTORY);
+        return asyncClient.openPointInTime(p -> p
+                .index(INDEX_NAME)
+                .ignoreUnavailable(true)
+                .routing(routing(productId))
+                .keepAlive(k -> k.time(StatusHistoryScroller.KEEP_ALIVE)))
+            .thenCompose(pit -> {
+                PitHolder holder = new PitHolder(pit.id());
+                return fetchHistoryPages(query, holder, null, new ArrayList<>())
+                    .whenComplete((history, error) -> asyncClient.closePointInTime(c -> c.id(holder.pitId)));
+            })
+            .whenComplete((history, error) -> record(ClientMetrics.Operation.GET_STATUS_HISTORY, start, error));
+    }
+
+    private CompletableFuture<List<StatusHistoryEntryWithString>> fetchHistoryPages(
+            Query query, PitHolder pit, List<FieldValue> searchAfter, List<StatusHistoryEntryWithString> history) {
+        SearchRequest request = StatusHistoryScroller.pageRequest(pit.pitId, query, HISTORY_PAGE_SIZE, searchAfter);
+        return asyncClient.search(request, StatusHistoryEntryWithString.class).thenCompose(response -> {
+            metrics.serverTook(ClientMetrics.Operation.GET_STATUS_HISTORY, response.took());
+            if (response.pitId() != null) {
+                pit.pitId = response.pitId();
+            }
+            List<Hit<StatusHistoryEntryWithString>> hits = response.hits().hits();
             for (Hit<StatusHistoryEntryWithString> hit : hits) {
-                StatusHistoryEntryWithString entry = hit.source();
-                System.out.println("Time: " + entry.timestamp() + ", Status: " + entry.status());
+                history.add(hit.source());
             }
-        } else {
-            System.out.println("No status history found for product " + productId);
+            if (hits.size() < HISTORY_PAGE_SIZE) {
+                return CompletableFuture.completedFuture(history);
+            }
+            return fetchHistoryPages(query, pit, hits.get(hits.size() - 1).sort(), history);
+        });
+    }
+
+    // Latest point-in-time id, which Elasticsearch may change between pages
+    private static final class PitHolder {
+        volatile String pitId;
+
+        PitHolder(String pitId) {
+            this.pitId = pitId;
         }
     }
 
+    /**
+     * Lazily pages through the product's history in ascending time order. The stream must be closed
+     * (try-with-resources) if it is not consumed to the end; read failures surface as
+     * {@link UncheckedIOException}.
+     */
+    public Stream<StatusHistoryEntryWithString> streamStatusHistory(String productId) {
+        return streamStatusHistory(productId, null, null, HISTORY_PAGE_SIZE);
+    }
+
+    // History restricted to [from, to], either bound may be null
+    public Stream<StatusHistoryEntryWithString> streamStatusHistory(String productId, Instant from, Instant to, int pageSize) {
+        return scrollStatusHistory(productId, from, to, pageSize).stream().map(Hit::source);
+    }
+
+    // Time spent in each status per product and fleet-wide, computed on the given number of threads
+    public StatusDwellAnalytics dwellAnalytics(int parallelism) {
+        return new StatusDwellAnalytics(client, parallelism);
+    }
+
+    // Compact in-memory copy of the entire history for analytics scans
+    public ColumnarStatusStore loadColumnarStore() throws IOException {
+        return ColumnarStatusStore.load(client, HISTORY_PAGE_SIZE);
+    }
+
+    // Raw hits (with index and id) for callers that need to modify the documents they read
+    public StatusHistoryScroller scrollStatusHistory(String productId, Instant from, Instant to, int pageSize) {
+        return new StatusHistoryScroller(client, historyQuery(productId, from, to), pageSize,
+            StatusHistoryScroller.TIME_ORDER, routing(productId));
+    }
+
+    static Query historyQuery(String productId, Instant from, Instant to) {
+        return Query.of(q -> q
+            .bool(b -> {
+                b.filter(f -> f
+                    .term(t -> t
+                        .field("productId")
+                        .value(productId)
+                    )
+                );
+                if (from != null || to != null) {
+                    b.filter(f -> f
+                        .range(r -> {
+                            r.field("timestamp");
+                            if (from != null) {
+                                r.gte(JsonData.of(DATE_FORMATTER.format(from)));
+                            }
+                            if (to != null) {
+                                r.lte(JsonData.of(DATE_FORMATTER.format(to)));
+                            }
+                            return r;
+                        })
+                    );
+                }
+                return b;
+            })
+        );
+    }
+
     public record StatusHistoryEntry(
         String productId,
         String status,
@@ -94,6 +94,8 @@ public class ProductStatusScenarioDemo {
         } catch (Exception e) {
             System.err.println("Unexpected error: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            ElasticsearchClientFactory.shutdownDefault();
         }
     }
 } 
\ No newline at end of file
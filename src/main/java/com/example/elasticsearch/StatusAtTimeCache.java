@@ -0,0 +1,304 @@
+package com.example.elasticsearch;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Local point-in-time status cache. Each product's history is held as a sorted {@code long[]} of
+ * change timestamps (epoch millis) plus a parallel {@code short[]} of dictionary-encoded statuses, so
+ * "status at T" is a binary search with no boxing.
+ * <p>
+ * Memory is bounded by the total number of cached events; when the bound is exceeded the least
+ * recently used products are evicted in one pass down to 90% of the limit.
+ * <p>
+ * A history loaded from the index on a miss may not yet show changes that were acknowledged a moment
+ * ago (still inside the refresh interval, or still waiting in the journal). Every recorded change is
+ * therefore also kept for {@code visibilityLag} in a per-product overlay, which is merged into each
+ * loaded history; the merge happens under the map's per-key lock, so a change recorded while a load is
+ * in progress ends up in the timeline either way.
+ */
+public class StatusAtTimeCache {
+    private static final double EVICTION_LOW_WATERMARK = 0.9;
+
+    private static final Duration DEFAULT_VISIBILITY_LAG = Duration.ofSeconds(30);
+    private static final int OVERLAY_SWEEP_INTERVAL = 1024;
+
+    private final long maxEvents;
+    private final long visibilityLagNanos;
+    private final StatusDictionary dictionary = new StatusDictionary();
+    private final ConcurrentHashMap<String, Timeline> timelines = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, List<RecentChange>> recentChanges = new ConcurrentHashMap<>();
+    private final AtomicLong recordedChanges = new AtomicLong();
+    private final AtomicLong cachedEvents = new AtomicLong();
+    private final AtomicLong accessClock = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public StatusAtTimeCache(long maxEvents) {
+        this(maxEvents, DEFAULT_VISIBILITY_LAG);
+    }
+
+    // visibilityLag: how long an acknowledged change may take to become searchable
+    public StatusAtTimeCache(long maxEvents, Duration visibilityLag) {
+        if (maxEvents <= 0) {
+            throw new IllegalArgumentException("maxEvents must be positive");
+        }
+        if (visibilityLag.isNegative()) {
+            throw new IllegalArgumentException("visibilityLag must not be negative");
+        }
+        this.maxEvents = maxEvents;
+        this.visibilityLagNanos = visibilityLag.toNanos();
+    }
+
+    /**
+     * Returns the cached timeline of the product, or null on a miss. Hits and misses are counted here.
+     */
+    public Timeline get(String productId) {
+        Timeline timeline = timelines.get(productId);
+        if (timeline == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        // Racy, approximate recency stamp; exactness is not needed for eviction
+        timeline.lastAccess = accessClock.getAndIncrement();
+        return timeline;
+    }
+
+    /**
+     * Installs a product's complete history, as loaded from the index on a miss, merged with the
+     * changes recorded recently enough that the read may have missed them.
+     */
+    public Timeline load(String productId, List<ProductStatusHistory.StatusHistoryEntryWithString> history) {
+        int size = history.size();
+        long[] times = new long[size];
+        short[] codes = new short[size];
+        for (int i = 0; i < size; i++) {
+            ProductStatusHistory.StatusHistoryEntryWithString entry = history.get(i);
+            times[i] = ProductStatusHistory.parseTimestamp(entry.timestamp());
+            codes[i] = dictionary.encode(entry.status());
+        }
+        Timeline loaded = Timeline.sorted(this, times, codes);
+        loaded.lastAccess = accessClock.getAndIncrement();
+        loads.increment();
+
+        long[] delta = new long[1];
+        Timeline installed = timelines.compute(productId, (id, previous) -> {
+            // Read the overlay under the key's lock: a concurrent recordChange either added to it
+            // before this point or updates the installed timeline after it
+            Timeline timeline = loaded;
+            for (RecentChange change : recentChanges(id)) {
+                timeline = timeline.with(change.epochMillis(), change.code());
+            }
+            delta[0] = timeline.size() - (previous == null ? 0 : previous.size());
+            return timeline;
+        });
+        cachedEvents.addAndGet(delta[0]);
+        evictIfNeeded();
+        return installed;
+    }
+
+    /**
+     * Write-through for an acknowledged status change. Products already cached are updated in place;
+     * others are loaded in full on their next read, which picks the change up from the overlay.
+     */
+    public void recordChange(String productId, long epochMillis, String status) {
+        short code = dictionary.encode(status);
+        remember(productId, epochMillis, code);
+        boolean[] added = new boolean[1];
+        timelines.computeIfPresent(productId, (id, timeline) -> {
+            Timeline updated = timeline.with(epochMillis, code);
+            added[0] = updated != timeline;
+            return updated;
+        });
+        if (added[0]) {
+            cachedEvents.incrementAndGet();
+            evictIfNeeded();
+        }
+    }
+
+    public void invalidate(String productId) {
+        Timeline removed = timelines.remove(productId);
+        if (removed != null) {
+            cachedEvents.addAndGet(-removed.size());
+        }
+    }
+
+    public void clear() {
+        // The overlay stays: it holds changes a reload could still miss
+        timelines.clear();
+        cachedEvents.set(0);
+    }
+
+    private void remember(String productId, long epochMillis, short code) {
+        long now = System.nanoTime();
+        recentChanges.compute(productId, (id, changes) -> {
+            List<RecentChange> kept = changes == null ? new ArrayList<>(2) : changes;
+            kept.removeIf(change -> now - change.recordedAt() > visibilityLagNanos);
+            kept.add(new RecentChange(now, epochMillis, code));
+            return kept;
+        });
+        if (recordedChanges.incrementAndGet() % OVERLAY_SWEEP_INTERVAL == 0) {
+            sweepRecentChanges(now);
+        }
+    }
+
+    // Changes still inside the visibility lag; caller holds the product's lock in timelines
+    private List<RecentChange> recentChanges(String productId) {
+        long now = System.nanoTime();
+        List<RecentChange> live = new ArrayList<>();
+        recentChanges.computeIfPresent(productId, (id, changes) -> {
+            changes.removeIf(change -> now - change.recordedAt() > visibilityLagNanos);
+            live.addAll(changes);
+            return changes.isEmpty() ? null : changes;
+        });
+        return live;
+    }
+
+    // Drops the overlays of products that have not changed for longer than the visibility lag
+    private void sweepRecentChanges(long now) {
+        for (String productId : recentChanges.keySet()) {
+            recentChanges.computeIfPresent(productId, (id, changes) -> {
+                changes.removeIf(change -> now - change.recordedAt() > visibilityLagNanos);
+                return changes.isEmpty() ? null : changes;
+            });
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), loads.sum(), evictions.sum(), timelines.size(), cachedEvents.get());
+    }
+
+    private void evictIfNeeded() {
+        if (cachedEvents.get() <= maxEvents || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            long target = (long) (maxEvents * EVICTION_LOW_WATERMARK);
+            if (cachedEvents.get() <= maxEvents) {
+                return;
+            }
+            List<Map.Entry<String, Timeline>> candidates = new ArrayList<>(timelines.entrySet());
+            candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+            for (Map.Entry<String, Timeline> candidate : candidates) {
+                if (cachedEvents.get() <= target) {
+                    break;
+                }
+                if (timelines.remove(candidate.getKey(), candidate.getValue())) {
+                    cachedEvents.addAndGet(-candidate.getValue().size());
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Immutable sorted change history of one product. Appends produce a copy.
+     */
+    public static final class Timeline {
+        private final StatusAtTimeCache owner;
+        private final long[] times;
+        private final short[] codes;
+        long lastAccess;
+
+        private Timeline(StatusAtTimeCache owner, long[] times, short[] codes) {
+            this.owner = owner;
+            this.times = times;
+            this.codes = codes;
+        }
+
+        private static Timeline sorted(StatusAtTimeCache owner, long[] times, short[] codes) {
+            // History arrives sorted from the index; fall back to insertion for anything out of order
+            for (int i = 1; i < times.length; i++) {
+                if (times[i] < times[i - 1]) {
+                    Timeline timeline = new Timeline(owner, new long[0], new short[0]);
+                    for (int j = 0; j < times.length; j++) {
+                        timeline = timeline.with(times[j], codes[j]);
+                    }
+                    return timeline;
+                }
+            }
+            return new Timeline(owner, times, codes);
+        }
+
+        // Status in effect at the given instant, or null if the product had no status yet
+        public String statusAt(long epochMillis) {
+            int index = indexAt(epochMillis);
+            return index < 0 ? null : owner.dictionary.decode(codes[index]);
+        }
+
+        // Timestamp of the change in effect at the given instant, or Long.MIN_VALUE
+        public long changedAt(long epochMillis) {
+            int index = indexAt(epochMillis);
+            return index < 0 ? Long.MIN_VALUE : times[index];
+        }
+
+        public int size() {
+            return times.length;
+        }
+
+        // Index of the last change at or before the instant (ties resolve to the latest write)
+        private int indexAt(long epochMillis) {
+            int low = 0;
+            int high = times.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (times[mid] <= epochMillis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low - 1;
+        }
+
+        // Copy with the change inserted, or this timeline if it already holds that exact change
+        private Timeline with(long epochMillis, short code) {
+            int insertAt = indexAt(epochMillis) + 1;
+            for (int i = insertAt - 1; i >= 0 && times[i] == epochMillis; i--) {
+                if (codes[i] == code) {
+                    return this;
+                }
+            }
+            long[] newTimes = new long[times.length + 1];
+            short[] newCodes = new short[codes.length + 1];
+            System.arraycopy(times, 0, newTimes, 0, insertAt);
+            System.arraycopy(codes, 0, newCodes, 0, insertAt);
+            newTimes[insertAt] = epochMillis;
+            newCodes[insertAt] = code;
+            System.arraycopy(times, insertAt, newTimes, insertAt + 1, times.length - insertAt);
+            System.arraycopy(codes, insertAt, newCodes, insertAt + 1, codes.length - insertAt);
+            Timeline timeline = new Timeline(owner, newTimes, newCodes);
+            timeline.lastAccess = lastAccess;
+            return timeline;
+        }
+
+        @Override
+        public String toString() {
+            return "Timeline{times=" + Arrays.toString(times) + ", codes=" + Arrays.toString(codes) + '}';
+        }
+    }
+
+    private record RecentChange(long recordedAt, long epochMillis, short code) {}
+
+    public record Stats(long hits, long misses, long loads, long evictions, int products, long events) {
+        public double hitRatio() {
+            long requests = hits + misses;
+            return requests == 0 ? 0.0 : (double) hits / requests;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.elasticsearch;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * In-process feed of status changes for push subscribers, e.g. {@link StatusFeedServer} sessions.
+ * <p>
+ * {@link #publish} only appends to a queue, so the write path never waits on subscribers. Once per
+ * flush interval a dispatcher drains the queue, fans each change out to the subscriptions whose filter
+ * matches (looked up by product or status, not by scanning all subscriptions), and hands every
+ * subscription its pending changes as one batch on the delivery pool. Pending changes are kept as the
+ * latest per product: while a slow subscriber is still consuming its previous batch, new changes to
+ * the same product replace each other instead of queueing up.
+ */
+public class StatusChangeFeed implements Closeable {
+    private final Duration flushInterval;
+    private final ConcurrentLinkedQueue<Change> published = new ConcurrentLinkedQueue<>();
+    private final Set<Subscription> wildcard = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<Subscription>> byProduct = new ConcurrentHashMap<>();
+    private final Map<String, Set<Subscription>> byStatus = new ConcurrentHashMap<>();
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService dispatcher;
+    private final ExecutorService delivery;
+    private final LongAdder publishedCount = new LongAdder();
+    private final LongAdder deliveredCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder batchCount = new LongAdder();
+
+    private StatusChangeFeed(Builder builder) {
+        this.flushInterval = builder.flushInterval;
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "status-feed-dispatcher");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger threadCount = new AtomicInteger();
+        this.delivery = Executors.newFixedThreadPool(builder.deliveryThreads, r -> {
+            Thread t = new Thread(r, "status-feed-delivery-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        long intervalMillis = flushInterval.toMillis();
+        dispatcher.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // Never blocks; subscribers see the change after the next flush
+    public void publish(String productId, String status, Instant timestamp) {
+        published.add(new Change(productId, status, timestamp));
+        publishedCount.increment();
+    }
+
+    /**
+     * Delivers batches of matching changes to the sink, at most one batch per flush interval and never
+     * two at once. The sink runs on the delivery pool and must not block on I/O: hand the batch to
+     * something that does the writing, as {@link StatusFeedServer} sessions do.
+     */
+    public Subscription subscribe(Filter filter, Consumer<List<Change>> sink) {
+        Subscription subscription = new Subscription(filter, sink);
+        subscriptions.add(subscription);
+        if (!filter.productIds().isEmpty()) {
+            filter.productIds().forEach(id -> byProduct.computeIfAbsent(id, k -> ConcurrentHashMap.newKeySet()).add(subscription));
+        } else if (!filter.statuses().isEmpty()) {
+            filter.statuses().forEach(s -> byStatus.computeIfAbsent(s, k -> ConcurrentHashMap.newKeySet()).add(subscription));
+        } else {
+            wildcard.add(subscription);
+        }
+        return subscription;
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        subscriptions.remove(subscription);
+        wildcard.remove(subscription);
+        subscription.filter.productIds().forEach(id -> byProduct.computeIfPresent(id, (k, set) -> {
+            set.remove(subscription);
+            return set.isEmpty() ? null : set;
+        }));
+        subscription.filter.statuses().forEach(s -> byStatus.computeIfPresent(s, (k, set) -> {
+            set.remove(subscription);
+            return set.isEmpty() ? null : set;
+        }));
+    }
+
+    private void flush() {
+        try {
+            Change change;
+            while ((change = published.poll()) != null) {
+                fanOut(change, wildcard);
+                fanOut(change, byProduct.get(change.productId()));
+                fanOut(change, byStatus.get(change.status()));
+            }
+            for (Subscription subscription : subscriptions) {
+                subscription.deliver();
+            }
+        } catch (RuntimeException e) {
+            // Keep the scheduled dispatcher alive
+            System.err.println("Status feed flush failed: " + e.getMessage());
+        }
+    }
+
+    private void fanOut(Change change, Set<Subscription> candidates) {
+        if (candidates == null) {
+            return;
+        }
+        for (Subscription subscription : candidates) {
+            if (subscription.filter.matches(change)) {
+                subscription.offer(change);
+            }
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(subscriptions.size(), publishedCount.sum(), deliveredCount.sum(), coalescedCount.sum(),
+            batchCount.sum());
+    }
+
+    @Override
+    public void close() {
+        dispatcher.shutdown();
+        try {
+            dispatcher.awaitTermination(flushInterval.toMillis() + 1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        delivery.shutdown();
+    }
+
+    public class Subscription implements Closeable {
+        private final Filter filter;
+        private final Consumer<List<Change>> sink;
+        private final Map<String, Change> pending = new ConcurrentHashMap<>();
+        private final AtomicBoolean delivering = new AtomicBoolean();
+        private volatile boolean closed;
+
+        private Subscription(Filter filter, Consumer<List<Change>> sink) {
+            this.filter = filter;
+            this.sink = sink;
+        }
+
+        public Filter filter() {
+            return filter;
+        }
+
+        // Called on the dispatcher thread only, like deliver
+        private void offer(Change change) {
+            boolean[] replaced = new boolean[1];
+            pending.compute(change.productId(), (id, older) -> {
+                if (older == null) {
+                    return change;
+                }
+                replaced[0] = true;
+                // Out-of-order publishes keep the newest change of the product
+                return change.timestamp().isBefore(older.timestamp()) ? older : change;
+            });
+            if (replaced[0]) {
+                coalescedCount.increment();
+            }
+        }
+
+        private void deliver() {
+            if (closed || pending.isEmpty() || !delivering.compareAndSet(false, true)) {
+                return;
+            }
+            List<Change> batch = new ArrayList<>(pending.size());
+            for (String productId : pending.keySet()) {
+                Change change = pending.remove(productId);
+                if (change != null) {
+                    batch.add(change);
+                }
+            }
+            batch.sort(Comparator.comparing(Change::timestamp));
+            delivery.execute(() -> {
+                try {
+                    sink.accept(batch);
+                    deliveredCount.add(batch.size());
+                    batchCount.increment();
+                } catch (RuntimeException e) {
+                    System.err.println("Status feed subscriber failed, unsubscribing: " + e.getMessage());
+                    close();
+                } finally {
+                    delivering.set(false);
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            unsubscribe(this);
+            pending.clear();
+        }
+    }
+
+    public record Change(String productId, String status, Instant timestamp) {}
+
+    // Empty sets match everything; a change must match both sets
+    public record Filter(Set<String> productIds, Set<String> statuses) {
+        public static Filter all() {
+            return new Filter(Set.of(), Set.of());
+        }
+
+        public static Filter products(Set<String> productIds) {
+            return new Filter(productIds, Set.of());
+        }
+
+        public static Filter statuses(Set<String> statuses) {
+            return new Filter(Set.of(), statuses);
+        }
+
+        boolean matches(Change change) {
+            return (productIds.isEmpty() || productIds.contains(change.productId()))
+                && (statuses.isEmpty() || statuses.contains(change.status()));
+        }
+    }
+
+    // Coalesced: changes replaced by a newer change of the same product before they were delivered
+    public record Stats(int subscriptions, long published, long delivered, long coalesced, long batches) {}
+
+    public static class Builder {
+        private Duration flushInterval = Duration.ofMillis(250);
+        private int deliveryThreads = Runtime.getRuntime().availableProcessors();
+
+        private Builder() {
+        }
+
+        // How often pending changes are batched out to subscribers
+        public Builder flushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        public Builder deliveryThreads(int deliveryThreads) {
+            this.deliveryThreads = deliveryThreads;
+            return this;
+        }
+
+        public StatusChangeFeed build() {
+            if (flushInterval.toMillis() <= 0 || deliveryThreads <= 0) {
+                throw new IllegalArgumentException("flushInterval and deliveryThreads must be positive");
+            }
+            return new StatusChangeFeed(this);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.elasticsearch;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the small set of status strings ("New", "Trending", "ACTIVE", ...) to dense short codes so
+ * in-memory structures can store a code per event instead of a String reference.
+ */
+public class StatusDictionary {
+    private final ConcurrentHashMap<String, Short> codes = new ConcurrentHashMap<>();
+    private volatile String[] statuses = new String[0];
+
+    public short encode(String status) {
+        Short code = codes.get(status);
+        if (code != null) {
+            return code;
+        }
+        return register(status);
+    }
+
+    public String decode(int code) {
+        return statuses[code];
+    }
+
+    // Code for a status that may not have been seen yet, or -1
+    public int codeOf(String status) {
+        Short code = codes.get(status);
+        return code == null ? -1 : code;
+    }
+
+    public int size() {
+        return statuses.length;
+    }
+
+    private synchronized short register(String status) {
+        Short code = codes.get(status);
+        if (code != null) {
+            return code;
+        }
+        if (statuses.length == Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many distinct statuses");
+        }
+        String[] updated = Arrays.copyOf(statuses, statuses.length + 1);
+        short newCode = (short) statuses.length;
+        updated[newCode] = status;
+        // Publish the array before the code so decode never sees a code it cannot resolve
+        statuses = updated;
+        codes.put(status, newCode);
+        return newCode;
+    }
+}
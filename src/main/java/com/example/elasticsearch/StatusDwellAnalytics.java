@@ -0,0 +1,475 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonData;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent in each status over a window, per product and across all products.
+ * <p>
+ * Histories are streamed in (product, time) order through point-in-time scans, so memory does not grow
+ * with the length of the window. Fleet-wide totals are computed one page of product ids at a time: the
+ * page is seeded with each product's status at the window start by a batch lookup, then its events in
+ * the window are scanned. Pages run in parallel. A {@link Tracker} keeps per-product state between
+ * calls and on refresh reads only events newer than its watermark.
+ */
+public class StatusDwellAnalytics implements Closeable {
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ISO_INSTANT;
+    private static final int PRODUCT_PAGE_SIZE = 1000;
+    private static final int HISTORY_PAGE_SIZE = 1000;
+    private static final int MAX_STATUSES = 256;
+
+    private final ElasticsearchClient client;
+    private final BatchStatusLookup batchLookup;
+    private final int parallelism;
+    private final ExecutorService executor;
+    private final StatusDictionary dictionary = new StatusDictionary();
+
+    public StatusDwellAnalytics(ElasticsearchClient client, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.client = client;
+        this.parallelism = parallelism;
+        this.batchLookup = new BatchStatusLookup(client, PRODUCT_PAGE_SIZE, parallelism);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "status-dwell-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Time the product spent in each status within [from, to]
+    public DwellTimes productDwellTime(String productId, Instant from, Instant to) throws IOException {
+        DwellTimes[] result = new DwellTimes[1];
+        computePage(List.of(productId), from, to, (id, dwell) -> result[0] = dwell.toDwellTimes(to.toEpochMilli()));
+        return result[0];
+    }
+
+    // Totals over all products within [from, to]
+    public DwellTimes fleetDwellTime(Instant from, Instant to) throws IOException {
+        return fleetDwellTime(from, to, null);
+    }
+
+    /**
+     * Totals over all products within [from, to], also handing each product's own dwell times to the
+     * consumer as soon as they are known. The consumer is called from several threads.
+     */
+    public DwellTimes fleetDwellTime(Instant from, Instant to, ProductDwellConsumer consumer) throws IOException {
+        long end = to.toEpochMilli();
+        FleetTotals totals = new FleetTotals();
+        forEachPage(from, to, (id, dwell) -> {
+            totals.add(dwell, end);
+            if (consumer != null) {
+                consumer.accept(id, dwell.toDwellTimes(end));
+            }
+        });
+        return totals.toDwellTimes(end);
+    }
+
+    /**
+     * Starts tracking dwell times from the given instant. Nothing is read until the first
+     * {@link Tracker#refresh()}.
+     *
+     * @param settleDelay how far behind the current time refreshes stop, so events still being
+     *                    indexed are not skipped by the watermark
+     */
+    public Tracker tracker(Instant from, Duration settleDelay) {
+        return new Tracker(from, settleDelay);
+    }
+
+    private void forEachPage(Instant from, Instant to, DwellConsumer consumer) throws IOException {
+        // Bounds the pages in flight, and with them memory, while keeping every worker busy
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        try {
+            StatusHistoryIndices.scanProductIds(client, PRODUCT_PAGE_SIZE, productIds -> {
+                inFlight.acquireUninterruptibly();
+                CompletableFuture<Void> page = CompletableFuture.runAsync(() -> {
+                    try {
+                        computePage(productIds, from, to, consumer);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, executor);
+                page.whenComplete((ignored, error) -> inFlight.release());
+                pending.add(page);
+                pending.removeIf(future -> future.isDone() && !future.isCompletedExceptionally());
+            });
+        } finally {
+            join(CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])));
+        }
+    }
+
+    // Dwell times of a page of products: seeded at the window start, then advanced event by event
+    private void computePage(List<String> productIds, Instant from, Instant to, DwellConsumer consumer)
+            throws IOException {
+        long start = from.toEpochMilli();
+        Map<String, ProductDwell> page = seed(productIds, from);
+
+        try (StatusHistoryScroller scroller = new StatusHistoryScroller(client,
+                eventsQuery(productIds, from, to), HISTORY_PAGE_SIZE, StatusHistoryScroller.PRODUCT_ORDER)) {
+            while (scroller.hasNext()) {
+                Hit<ProductStatusHistory.StatusHistoryEntryWithString> hit = scroller.next();
+                ProductStatusHistory.StatusHistoryEntryWithString entry = hit.source();
+                page.computeIfAbsent(entry.productId(), id -> new ProductDwell())
+                    .advance(ProductStatusHistory.parseTimestamp(entry.timestamp()), encode(entry.status()), start);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        for (Map.Entry<String, ProductDwell> product : page.entrySet()) {
+            consumer.accept(product.getKey(), product.getValue());
+        }
+    }
+
+    private Map<String, ProductDwell> seed(List<String> productIds, Instant from) throws IOException {
+        Map<String, ProductStatusHistory.StatusHistoryEntryWithString> initial = batchLookup.lookup(productIds, from);
+        Map<String, ProductDwell> page = new LinkedHashMap<>(productIds.size() * 2);
+        for (String productId : productIds) {
+            ProductDwell dwell = new ProductDwell();
+            ProductStatusHistory.StatusHistoryEntryWithString entry = initial.get(productId);
+            if (entry != null) {
+                dwell.advance(from.toEpochMilli(), encode(entry.status()), from.toEpochMilli());
+            }
+            page.put(productId, dwell);
+        }
+        return page;
+    }
+
+    // Events strictly after from and up to to, optionally restricted to some products
+    private static Query eventsQuery(List<String> productIds, Instant from, Instant to) {
+        return Query.of(q -> q
+            .bool(b -> {
+                if (productIds != null) {
+                    List<FieldValue> values = new ArrayList<>(productIds.size());
+                    for (String productId : productIds) {
+                        values.add(FieldValue.of(productId));
+                    }
+                    b.filter(f -> f.terms(t -> t.field("productId").terms(tv -> tv.value(values))));
+                }
+                b.filter(f -> f
+                    .range(r -> r
+                        .field("timestamp")
+                        .gt(JsonData.of(DATE_FORMATTER.format(from)))
+                        .lte(JsonData.of(DATE_FORMATTER.format(to)))
+                    )
+                );
+                return b;
+            })
+        );
+    }
+
+    private int encode(String status) {
+        short code = dictionary.encode(status);
+        if (code >= MAX_STATUSES) {
+            throw new IllegalStateException("Dwell analytics supports at most " + MAX_STATUSES + " distinct statuses");
+        }
+        return code;
+    }
+
+    private static void join(CompletableFuture<?> future) throws IOException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        batchLookup.close();
+    }
+
+    /**
+     * Dwell times kept up to date incrementally. The first refresh computes the window from its start;
+     * later ones read only events after the watermark, each product's events applied in order by the
+     * worker that owns the product. Events indexed with a timestamp at or before the watermark after
+     * it has passed them are not seen, which {@code settleDelay} guards against.
+     */
+    public final class Tracker {
+        private final Instant from;
+        private final Duration settleDelay;
+        private final ConcurrentHashMap<String, ProductDwell> products = new ConcurrentHashMap<>();
+        private final FleetTotals totals = new FleetTotals();
+        private volatile Instant watermark;
+
+        private Tracker(Instant from, Duration settleDelay) {
+            this.from = from;
+            this.settleDelay = settleDelay;
+        }
+
+        // Reads everything between the watermark and now minus the settle delay; returns the new totals
+        public synchronized DwellTimes refresh() throws IOException {
+            Instant to = Instant.now().minus(settleDelay);
+            if (watermark == null) {
+                forEachPage(from, to, (id, dwell) -> {
+                    products.put(id, dwell);
+                    totals.open(dwell);
+                });
+            } else if (to.isAfter(watermark)) {
+                applyEvents(watermark, to);
+            }
+            if (watermark == null || to.isAfter(watermark)) {
+                watermark = to;
+            }
+            return fleet();
+        }
+
+        public Instant watermark() {
+            return watermark;
+        }
+
+        // Totals over all products up to the watermark
+        public DwellTimes fleet() {
+            Instant upTo = watermark;
+            return upTo == null ? new DwellTimes(new long[0]) : totals.toDwellTimes(upTo.toEpochMilli());
+        }
+
+        // The product's dwell times up to the watermark, or null if it had no status in the window
+        public DwellTimes product(String productId) {
+            ProductDwell dwell = products.get(productId);
+            Instant upTo = watermark;
+            if (dwell == null || upTo == null) {
+                return null;
+            }
+            synchronized (dwell) {
+                return dwell.toDwellTimes(upTo.toEpochMilli());
+            }
+        }
+
+        public int productCount() {
+            return products.size();
+        }
+
+        private void applyEvents(Instant after, Instant to) throws IOException {
+            long start = from.toEpochMilli();
+            List<BlockingQueue<StatusEvent>> queues = new ArrayList<>(parallelism);
+            List<CompletableFuture<Void>> workers = new ArrayList<>(parallelism);
+            for (int i = 0; i < parallelism; i++) {
+                BlockingQueue<StatusEvent> queue = new ArrayBlockingQueue<>(HISTORY_PAGE_SIZE);
+                queues.add(queue);
+                workers.add(CompletableFuture.runAsync(() -> drain(queue, start), executor));
+            }
+
+            try (StatusHistoryScroller scroller = new StatusHistoryScroller(client,
+                    eventsQuery(null, after, to), HISTORY_PAGE_SIZE, StatusHistoryScroller.PRODUCT_ORDER)) {
+                while (scroller.hasNext()) {
+                    ProductStatusHistory.StatusHistoryEntryWithString entry = scroller.next().source();
+                    StatusEvent event = new StatusEvent(entry.productId(),
+                        ProductStatusHistory.parseTimestamp(entry.timestamp()), encode(entry.status()));
+                    // The same product always goes to the same worker, which keeps its events in order
+                    put(queues.get(Math.floorMod(entry.productId().hashCode(), parallelism)), event, workers);
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                for (int i = 0; i < parallelism; i++) {
+                    put(queues.get(i), StatusEvent.END, workers);
+                }
+                join(CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0])));
+            }
+        }
+
+        private void drain(BlockingQueue<StatusEvent> queue, long start) {
+            try {
+                while (true) {
+                    StatusEvent event = queue.take();
+                    if (event == StatusEvent.END) {
+                        return;
+                    }
+                    ProductDwell dwell = products.computeIfAbsent(event.productId(), id -> new ProductDwell());
+                    synchronized (dwell) {
+                        totals.close(dwell);
+                        dwell.advance(event.epochMillis(), event.statusCode(), start);
+                        totals.open(dwell);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void put(BlockingQueue<StatusEvent> queue, StatusEvent event, List<CompletableFuture<Void>> workers) {
+            try {
+                while (!queue.offer(event, 100, TimeUnit.MILLISECONDS)) {
+                    for (CompletableFuture<Void> worker : workers) {
+                        if (worker.isCompletedExceptionally()) {
+                            // A dead worker never drains its queue; surface its failure instead of waiting forever
+                            worker.join();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while refreshing dwell times", e);
+            }
+        }
+    }
+
+    private record StatusEvent(String productId, long epochMillis, int statusCode) {
+        static final StatusEvent END = new StatusEvent(null, 0, -1);
+    }
+
+    /**
+     * One product's accumulated time per status code, plus the status it is currently in and since
+     * when. Time before the window start is never counted.
+     */
+    private final class ProductDwell {
+        private long[] totals = new long[0];
+        private int current = -1;
+        private long since;
+
+        void advance(long epochMillis, int statusCode, long windowStart) {
+            long at = Math.max(epochMillis, windowStart);
+            if (current >= 0 && at > since) {
+                totals = grow(totals, current);
+                totals[current] += at - since;
+            }
+            current = statusCode;
+            since = Math.max(since, at);
+        }
+
+        DwellTimes toDwellTimes(long upTo) {
+            long[] result = Arrays.copyOf(totals, Math.max(totals.length, current + 1));
+            if (current >= 0 && upTo > since) {
+                result[current] += upTo - since;
+            }
+            return new DwellTimes(result);
+        }
+
+        private static long[] grow(long[] values, int index) {
+            return index < values.length ? values : Arrays.copyOf(values, index + 1);
+        }
+    }
+
+    /**
+     * Fleet totals as closed time per status plus, for the open interval each product is in, the
+     * number of products per status and the sum of their start times. The total at any time T is then
+     * {@code closed + count * T - sinceSum}, computed without visiting the products.
+     */
+    private final class FleetTotals {
+        private final LongAdder[] closed = adders();
+        private final LongAdder[] openCount = adders();
+        private final LongAdder[] openSinceSum = adders();
+
+        // Adds a finished product to the totals
+        void add(ProductDwell dwell, long upTo) {
+            long[] totals = dwell.toDwellTimes(upTo).totals;
+            for (int code = 0; code < totals.length; code++) {
+                closed[code].add(totals[code]);
+            }
+        }
+
+        // Registers a tracked product's closed time and its open interval
+        void open(ProductDwell dwell) {
+            for (int code = 0; code < dwell.totals.length; code++) {
+                closed[code].add(dwell.totals[code]);
+            }
+            if (dwell.current >= 0) {
+                openCount[dwell.current].increment();
+                openSinceSum[dwell.current].add(dwell.since);
+            }
+        }
+
+        // Removes what open() added, before the product's state changes
+        void close(ProductDwell dwell) {
+            for (int code = 0; code < dwell.totals.length; code++) {
+                closed[code].add(-dwell.totals[code]);
+            }
+            if (dwell.current >= 0) {
+                openCount[dwell.current].decrement();
+                openSinceSum[dwell.current].add(-dwell.since);
+            }
+        }
+
+        DwellTimes toDwellTimes(long upTo) {
+            int statuses = dictionary.size();
+            long[] totals = new long[statuses];
+            for (int code = 0; code < statuses; code++) {
+                totals[code] = closed[code].sum() + openCount[code].sum() * upTo - openSinceSum[code].sum();
+            }
+            return new DwellTimes(totals);
+        }
+
+        private LongAdder[] adders() {
+            LongAdder[] adders = new LongAdder[MAX_STATUSES];
+            for (int i = 0; i < adders.length; i++) {
+                adders[i] = new LongAdder();
+            }
+            return adders;
+        }
+    }
+
+    /**
+     * Time spent in each status. Statuses that were never entered in the window are absent.
+     */
+    public final class DwellTimes {
+        private final long[] totals;
+
+        private DwellTimes(long[] totals) {
+            this.totals = totals;
+        }
+
+        public Duration timeIn(String status) {
+            int code = dictionary.codeOf(status);
+            return code < 0 || code >= totals.length ? Duration.ZERO : Duration.ofMillis(totals[code]);
+        }
+
+        public Map<String, Duration> byStatus() {
+            Map<String, Duration> byStatus = new LinkedHashMap<>();
+            for (int code = 0; code < totals.length; code++) {
+                if (totals[code] > 0) {
+                    byStatus.put(dictionary.decode(code), Duration.ofMillis(totals[code]));
+                }
+            }
+            return byStatus;
+        }
+
+        @Override
+        public String toString() {
+            return byStatus().toString();
+        }
+    }
+
+    @FunctionalInterface
+    public interface ProductDwellConsumer {
+        void accept(String productId, DwellTimes dwellTimes);
+    }
+
+    @FunctionalInterface
+    private interface DwellConsumer {
+        void accept(String productId, ProductDwell dwell);
+    }
+}
@@ -0,0 +1,785 @@
+package com.example.elasticsearch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * STOMP-over-WebSocket endpoint that pushes {@link StatusChangeFeed} batches to browser clients, such
+ * as the {@code @stomp/stompjs} + SockJS {@code WebSocketService} front end.
+ * <p>
+ * Serves the SockJS {@code /info} handshake and its WebSocket transport under the endpoint path
+ * ({@code <path>/<server>/<session>/websocket}), plus plain STOMP over WebSocket at
+ * {@code <path>/websocket}. The SockJS session id from the transport URL is the STOMP session, so a
+ * client subscribes to {@code /user/<session>/queue/messages} (or {@code /user/queue/messages}). The
+ * optional {@code product-ids} and {@code statuses} SUBSCRIBE headers, comma separated, narrow the feed.
+ * Each flush of the feed arrives as one MESSAGE whose body is a JSON array of changes. Only the SockJS
+ * WebSocket transport is implemented, not the XHR fallbacks. Frames clients SEND are acknowledged with
+ * a RECEIPT when asked for one and otherwise ignored.
+ * <p>
+ * Each session reads and writes on its own virtual threads (see {@link BlockingExecutors}). Frames are
+ * queued to the session's writer, so the feed and heartbeats never block on a socket; a session whose
+ * queue overflows, or whose socket accepts nothing for the write timeout, is closed.
+ */
+public class StatusFeedServer implements Closeable {
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ISO_INSTANT;
+    private static final int MAX_MESSAGE_BYTES = 64 * 1024;
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    // Queued after a session's last frame; the writer flushes up to it and closes the socket
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final StatusChangeFeed feed;
+    private final String path;
+    private final String queue;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ServerSocket serverSocket;
+    private final int maxConnections;
+    private final int maxQueuedFrames;
+    private final long writeTimeoutNanos;
+    private final ExecutorService connections;
+    private final ExecutorService writers;
+    private final ScheduledExecutorService timer;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final AtomicLong messageIds = new AtomicLong();
+    private volatile boolean closed;
+
+    private StatusFeedServer(Builder builder) throws IOException {
+        this.feed = builder.feed;
+        this.path = builder.path;
+        this.queue = builder.queue;
+        this.maxConnections = builder.maxConnections;
+        this.maxQueuedFrames = builder.maxQueuedFrames;
+        this.writeTimeoutNanos = builder.writeTimeout.toNanos();
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(builder.host, builder.port), 1024);
+
+        // A reader per connection and a writer per WebSocket session; without virtual threads the
+        // fallback pools are sized so every admitted connection gets its threads
+        this.connections = BlockingExecutors.newPerTaskExecutor("status-feed-connection", maxConnections);
+        this.writers = BlockingExecutors.newPerTaskExecutor("status-feed-writer", maxConnections);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "status-feed-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        long heartbeatMillis = builder.heartbeatInterval.toMillis();
+        timer.scheduleWithFixedDelay(this::sendHeartbeats, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        long stallCheckMillis = Math.max(1, Math.min(1000, builder.writeTimeout.toMillis() / 2));
+        timer.scheduleWithFixedDelay(this::closeStalledSessions, stallCheckMillis, stallCheckMillis, TimeUnit.MILLISECONDS);
+
+        Thread acceptor = new Thread(this::accept, "status-feed-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public static Builder builder(StatusChangeFeed feed) {
+        return new Builder(feed);
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int sessionCount() {
+        return sessions.size();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                if (connectionCount.incrementAndGet() > maxConnections) {
+                    connectionCount.decrementAndGet();
+                    socket.close();
+                    continue;
+                }
+                connections.execute(() -> {
+                    try {
+                        handle(socket);
+                    } finally {
+                        connectionCount.decrementAndGet();
+                    }
+                });
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Status feed accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        // Once a WebSocket session starts, its writer closes the socket after the last queued frame
+        boolean handedOff = false;
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            Request request = readRequest(in);
+            if (request == null) {
+                return;
+            }
+            if (!request.path().startsWith(path)) {
+                respond(out, request, 404, "Not Found", "text/plain", "Not found");
+                return;
+            }
+            String rest = request.path().substring(path.length());
+            if ("OPTIONS".equals(request.method())) {
+                respond(out, request, 204, "No Content", null, null);
+            } else if (rest.isEmpty() || rest.equals("/")) {
+                respond(out, request, 200, "OK", "text/plain; charset=UTF-8", "Welcome to SockJS!\n");
+            } else if (rest.equals("/info")) {
+                respond(out, request, 200, "OK", "application/json; charset=UTF-8",
+                    "{\"entropy\":" + (ThreadLocalRandom.current().nextInt() & Integer.MAX_VALUE)
+                        + ",\"origins\":[\"*:*\"],\"cookie_needed\":false,\"websocket\":true}");
+            } else if (rest.equals("/websocket")) {
+                handedOff = serveWebSocket(socket, in, out, request, UUID.randomUUID().toString(), false);
+            } else {
+                String[] segments = rest.substring(1).split("/");
+                if (segments.length == 3 && segments[2].equals("websocket") && validSockJsId(segments[0])
+                        && validSockJsId(segments[1])) {
+                    handedOff = serveWebSocket(socket, in, out, request, segments[1], true);
+                } else {
+                    // XHR streaming and polling transports are not supported
+                    respond(out, request, 404, "Not Found", "text/plain", "Not found");
+                }
+            }
+        } catch (IOException e) {
+            // The client went away
+        } catch (RuntimeException e) {
+            System.err.println("Status feed connection failed: " + e.getMessage());
+        } finally {
+            if (!handedOff) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+            }
+        }
+    }
+
+    private static boolean validSockJsId(String id) {
+        return !id.isEmpty() && id.indexOf('.') < 0;
+    }
+
+    // True once a session owns the socket
+    private boolean serveWebSocket(Socket socket, InputStream in, OutputStream out, Request request, String sessionId,
+                                   boolean sockJs) throws IOException {
+        String key = request.headers().get("sec-websocket-key");
+        if (key == null || !"websocket".equalsIgnoreCase(request.headers().get("upgrade"))) {
+            respond(out, request, 400, "Bad Request", "text/plain", "Can \"Upgrade\" only to \"WebSocket\".");
+            return false;
+        }
+        StringBuilder response = new StringBuilder("HTTP/1.1 101 Switching Protocols\r\n")
+            .append("Upgrade: websocket\r\nConnection: Upgrade\r\n")
+            .append("Sec-WebSocket-Accept: ").append(acceptKey(key)).append("\r\n");
+        String protocols = request.headers().get("sec-websocket-protocol");
+        if (!sockJs && protocols != null) {
+            // stompjs offers v10.stomp, v11.stomp and v12.stomp
+            Arrays.stream(protocols.split(",")).map(String::trim).filter(p -> p.equals("v12.stomp")).findFirst()
+                .ifPresent(p -> response.append("Sec-WebSocket-Protocol: ").append(p).append("\r\n"));
+        }
+        out.write(response.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+
+        Session session = new Session(socket, out, sessionId, sockJs);
+        sessions.add(session);
+        writers.execute(session::writeLoop);
+        try {
+            if (sockJs) {
+                session.sendText("o");
+            }
+            StringBuilder stomp = new StringBuilder();
+            String message;
+            while (!session.closed && (message = session.readMessage(in)) != null) {
+                if (sockJs) {
+                    if (message.isEmpty()) {
+                        continue;
+                    }
+                    // SockJS clients send a JSON array of strings (or occasionally a single string)
+                    String[] parts = message.startsWith("[")
+                        ? mapper.readValue(message, String[].class)
+                        : new String[] {mapper.readValue(message, String.class)};
+                    for (String part : parts) {
+                        stomp.append(part);
+                    }
+                } else {
+                    stomp.append(message);
+                }
+                session.receive(stomp);
+            }
+        } catch (IOException e) {
+            // Disconnected, or sent a malformed or oversized message
+        } finally {
+            session.close();
+        }
+        return true;
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                .digest((key.trim() + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Request line and headers (names lower-cased); null when the client closed first
+    private static Request readRequest(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.isEmpty()) {
+            return null;
+        }
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2) {
+            throw new IOException("Malformed request line");
+        }
+        Map<String, String> headers = new LinkedHashMap<>();
+        int headerBytes = 0;
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            headerBytes += line.length();
+            if (headerBytes > MAX_HEADER_BYTES) {
+                throw new IOException("Request headers too large");
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+        String target = parts[1];
+        int query = target.indexOf('?');
+        return new Request(parts[0], query < 0 ? target : target.substring(0, query), headers);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') {
+                int length = line.length();
+                return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+            }
+            if (line.length() > MAX_HEADER_BYTES) {
+                throw new IOException("Request line too long");
+            }
+            line.append((char) b);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static void respond(OutputStream out, Request request, int status, String reason, String contentType,
+                                String body) throws IOException {
+        byte[] bytes = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+        StringBuilder response = new StringBuilder("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        String origin = request.headers().get("origin");
+        if (origin != null && !origin.equals("null")) {
+            response.append("Access-Control-Allow-Origin: ").append(origin).append("\r\n")
+                .append("Access-Control-Allow-Credentials: true\r\n");
+        } else {
+            response.append("Access-Control-Allow-Origin: *\r\n");
+        }
+        if ("OPTIONS".equals(request.method())) {
+            response.append("Access-Control-Allow-Methods: OPTIONS, GET, POST\r\n")
+                .append("Access-Control-Max-Age: 31536000\r\n");
+            String requested = request.headers().get("access-control-request-headers");
+            if (requested != null) {
+                response.append("Access-Control-Allow-Headers: ").append(requested).append("\r\n");
+            }
+        }
+        if (contentType != null) {
+            response.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        response.append("Cache-Control: no-store, no-cache, no-transform, must-revalidate, max-age=0\r\n")
+            .append("Content-Length: ").append(bytes.length).append("\r\n")
+            .append("Connection: close\r\n\r\n");
+        out.write(response.toString().getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.flush();
+    }
+
+    private void sendHeartbeats() {
+        for (Session session : sessions) {
+            if (session.sockJs) {
+                session.sendText("h");
+            }
+        }
+    }
+
+    // A write blocked this long means the client stopped reading; closing the socket unblocks it
+    private void closeStalledSessions() {
+        long now = System.nanoTime();
+        for (Session session : sessions) {
+            long since = session.writingSince;
+            if (since != 0 && now - since > writeTimeoutNanos) {
+                session.abort();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Session session : sessions) {
+            if (session.sockJs) {
+                session.sendText("c[3000,\"Go away!\"]");
+            }
+            session.close();
+        }
+        connections.shutdown();
+        writers.shutdown();
+        // Writers get the write timeout to flush their goodbyes before the remaining sockets are closed
+        timer.schedule(() -> {
+            sessions.forEach(Session::abort);
+            timer.shutdown();
+        }, writeTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private record Request(String method, String path, Map<String, String> headers) {}
+
+    private final class Session {
+        private final Socket socket;
+        private final OutputStream out;
+        private final String id;
+        private final boolean sockJs;
+        private final Map<String, StatusChangeFeed.Subscription> subscriptions = new ConcurrentHashMap<>();
+        // Encoded frames waiting for the writer
+        private final BlockingQueue<byte[]> outbound = new ArrayBlockingQueue<>(maxQueuedFrames);
+        // System.nanoTime() when the writer's current write started, 0 while it waits for frames
+        private volatile long writingSince;
+        private volatile boolean closed;
+
+        Session(Socket socket, OutputStream out, String id, boolean sockJs) {
+            this.socket = socket;
+            this.out = out;
+            this.id = id;
+            this.sockJs = sockJs;
+        }
+
+        // Runs on the session's writer thread until the end of the stream or a failed write
+        void writeLoop() {
+            try {
+                byte[] frame;
+                while ((frame = outbound.take()) != END_OF_STREAM) {
+                    writingSince = System.nanoTime();
+                    out.write(frame);
+                    // Whatever else is queued goes out with the same flush
+                    while ((frame = outbound.poll()) != null && frame != END_OF_STREAM) {
+                        out.write(frame);
+                    }
+                    out.flush();
+                    writingSince = 0;
+                    if (frame == END_OF_STREAM) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                // The client went away or the session was aborted
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                abort();
+            }
+        }
+
+        // Next text or binary message, reassembled from fragments and answering control frames; null on close
+        String readMessage(InputStream in) throws IOException {
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            while (true) {
+                int first = in.read();
+                if (first < 0) {
+                    return null;
+                }
+                int second = readByte(in);
+                boolean fin = (first & 0x80) != 0;
+                int opcode = first & 0x0f;
+                long length = second & 0x7f;
+                if (length == 126) {
+                    length = readByte(in) << 8 | readByte(in);
+                } else if (length == 127) {
+                    length = 0;
+                    for (int i = 0; i < 8; i++) {
+                        length = length << 8 | readByte(in);
+                    }
+                }
+                if (length + message.size() > MAX_MESSAGE_BYTES) {
+                    throw new IOException("WebSocket message too large");
+                }
+                byte[] mask = (second & 0x80) != 0 ? in.readNBytes(4) : null;
+                byte[] payload = in.readNBytes((int) length);
+                if (payload.length < length || (mask != null && mask.length < 4)) {
+                    throw new EOFException();
+                }
+                if (mask != null) {
+                    for (int i = 0; i < payload.length; i++) {
+                        payload[i] ^= mask[i & 3];
+                    }
+                }
+                switch (opcode) {
+                    case 0x8 -> {
+                        sendFrame(0x8, Arrays.copyOf(payload, Math.min(payload.length, 2)));
+                        return null;
+                    }
+                    case 0x9 -> sendFrame(0xA, payload);
+                    case 0xA -> {
+                        // Unsolicited pong
+                    }
+                    default -> {
+                        message.write(payload);
+                        if (fin) {
+                            return message.toString(StandardCharsets.UTF_8);
+                        }
+                    }
+                }
+            }
+        }
+
+        private int readByte(InputStream in) throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            return b;
+        }
+
+        // Handles every complete frame in the buffer, leaving a partial frame for the next message
+        void receive(StringBuilder buffer) throws IOException {
+            while (true) {
+                int start = 0;
+                // Heart-beats are bare end-of-lines between frames
+                while (start < buffer.length() && (buffer.charAt(start) == '\n' || buffer.charAt(start) == '\r')) {
+                    start++;
+                }
+                int end = buffer.indexOf("\0", start);
+                if (end < 0) {
+                    buffer.delete(0, start);
+                    if (buffer.length() > MAX_MESSAGE_BYTES) {
+                        throw new IOException("STOMP frame too large");
+                    }
+                    return;
+                }
+                String frame = buffer.substring(start, end);
+                buffer.delete(0, end + 1);
+                handleFrame(frame);
+                if (closed) {
+                    return;
+                }
+            }
+        }
+
+        private void handleFrame(String frame) {
+            int headerEnd = frame.indexOf("\n\n");
+            String head = (headerEnd < 0 ? frame : frame.substring(0, headerEnd)).replace("\r", "");
+            String[] lines = head.split("\n");
+            String command = lines[0];
+            boolean escaped = !command.equals("CONNECT") && !command.equals("STOMP");
+            Map<String, String> headers = new LinkedHashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    String name = lines[i].substring(0, colon);
+                    String value = lines[i].substring(colon + 1);
+                    // The first occurrence of a repeated header wins
+                    headers.putIfAbsent(escaped ? unescape(name) : name, escaped ? unescape(value) : value);
+                }
+            }
+
+            switch (command) {
+                case "CONNECT", "STOMP" -> sendStomp("CONNECTED\nversion:1.2\nheart-beat:0,0\nsession:" + escape(id) + "\n\n");
+                case "SUBSCRIBE" -> subscribe(headers);
+                case "UNSUBSCRIBE" -> {
+                    StatusChangeFeed.Subscription subscription = subscriptions.remove(String.valueOf(headers.get("id")));
+                    if (subscription != null) {
+                        subscription.close();
+                    }
+                }
+                case "DISCONNECT" -> {
+                    receipt(headers);
+                    close();
+                    return;
+                }
+                case "SEND", "ACK", "NACK", "BEGIN", "COMMIT", "ABORT" -> {
+                    // Nothing to route them to
+                }
+                default -> {
+                    error("Unsupported command " + command);
+                    return;
+                }
+            }
+            receipt(headers);
+        }
+
+        private void subscribe(Map<String, String> headers) {
+            String subscriptionId = headers.get("id");
+            String destination = headers.get("destination");
+            if (subscriptionId == null || destination == null) {
+                error("SUBSCRIBE requires id and destination headers");
+                return;
+            }
+            if (!destination.equals("/user" + queue) && !destination.equals("/user/" + id + queue)) {
+                error("Unknown destination " + destination);
+                return;
+            }
+            StatusChangeFeed.Filter filter = new StatusChangeFeed.Filter(
+                headerSet(headers.get("product-ids")), headerSet(headers.get("statuses")));
+            StatusChangeFeed.Subscription subscription =
+                feed.subscribe(filter, batch -> sendMessage(subscriptionId, destination, batch));
+            StatusChangeFeed.Subscription previous = subscriptions.put(subscriptionId, subscription);
+            if (previous != null) {
+                previous.close();
+            }
+        }
+
+        private Set<String> headerSet(String value) {
+            if (value == null || value.isBlank()) {
+                return Set.of();
+            }
+            return Arrays.stream(value.split(",")).map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toSet());
+        }
+
+        private void sendMessage(String subscriptionId, String destination, List<StatusChangeFeed.Change> batch) {
+            ArrayNode body = mapper.createArrayNode();
+            for (StatusChangeFeed.Change change : batch) {
+                body.addObject()
+                    .put("productId", change.productId())
+                    .put("status", change.status())
+                    .put("timestamp", DATE_FORMATTER.format(change.timestamp()));
+            }
+            String json = body.toString();
+            if (!sendStomp("MESSAGE\ndestination:" + escape(destination)
+                    + "\nsubscription:" + escape(subscriptionId)
+                    + "\nmessage-id:" + messageIds.incrementAndGet()
+                    + "\ncontent-type:application/json"
+                    + "\ncontent-length:" + json.getBytes(StandardCharsets.UTF_8).length
+                    + "\n\n" + json)) {
+                // Thrown to the feed, which drops the subscription
+                throw new IllegalStateException("Session " + id + " is closed");
+            }
+        }
+
+        private void receipt(Map<String, String> headers) {
+            String receipt = headers.get("receipt");
+            if (receipt != null) {
+                sendStomp("RECEIPT\nreceipt-id:" + escape(receipt) + "\n\n");
+            }
+        }
+
+        // The server closes the connection after an ERROR frame
+        private void error(String message) {
+            sendStomp("ERROR\nmessage:" + escape(message) + "\n\n");
+            close();
+        }
+
+        private boolean sendStomp(String frame) {
+            String payload = frame + "\0";
+            if (!sockJs) {
+                return sendText(payload);
+            }
+            try {
+                return sendText("a" + mapper.writeValueAsString(new String[] {payload}));
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        boolean sendText(String text) {
+            return sendFrame(0x1, text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Queues the frame for the writer without blocking; a session too far behind is aborted
+        private boolean sendFrame(int opcode, byte[] payload) {
+            if (closed) {
+                return false;
+            }
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 10);
+            frame.write(0x80 | opcode);
+            if (payload.length < 126) {
+                frame.write(payload.length);
+            } else if (payload.length <= 0xffff) {
+                frame.write(126);
+                frame.write(payload.length >>> 8);
+                frame.write(payload.length & 0xff);
+            } else {
+                frame.write(127);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    frame.write((int) ((long) payload.length >>> shift) & 0xff);
+                }
+            }
+            frame.writeBytes(payload);
+            if (!outbound.offer(frame.toByteArray())) {
+                abort();
+                return false;
+            }
+            return true;
+        }
+
+        // Stops accepting frames; the writer sends what is queued and then closes the socket
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeSubscriptions();
+            if (!outbound.offer(END_OF_STREAM)) {
+                abort();
+            }
+        }
+
+        // Drops anything queued and closes the socket at once, failing a write in progress
+        void abort() {
+            closed = true;
+            sessions.remove(this);
+            closeSubscriptions();
+            outbound.clear();
+            // Wakes a writer waiting for frames
+            outbound.offer(END_OF_STREAM);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+
+        private void closeSubscriptions() {
+            subscriptions.values().forEach(StatusChangeFeed.Subscription::close);
+            subscriptions.clear();
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\r", "\\r").replace("\n", "\\n").replace(":", "\\c");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                result.append(switch (next) {
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    case 'c' -> ':';
+                    default -> next;
+                });
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    public static class Builder {
+        private final StatusChangeFeed feed;
+        private String host = "0.0.0.0";
+        private int port = 8080;
+        private String path = "/api/search/chat";
+        private String queue = "/queue/messages";
+        private Duration heartbeatInterval = Duration.ofSeconds(25);
+        private int maxConnections = 1024;
+        private int maxQueuedFrames = 256;
+        private Duration writeTimeout = Duration.ofSeconds(30);
+
+        private Builder(StatusChangeFeed feed) {
+            this.feed = feed;
+        }
+
+        // Port 0 picks an ephemeral port, see port()
+        public Builder host(String host, int port) {
+            this.host = host;
+            this.port = port;
+            return this;
+        }
+
+        // SockJS endpoint path the client connects to
+        public Builder path(String path) {
+            this.path = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+            return this;
+        }
+
+        // User queue subscribed to as /user/<session><queue>
+        public Builder queue(String queue) {
+            this.queue = queue;
+            return this;
+        }
+
+        // Interval of SockJS "h" frames, which keep proxies from closing idle connections
+        public Builder heartbeatInterval(Duration heartbeatInterval) {
+            this.heartbeatInterval = heartbeatInterval;
+            return this;
+        }
+
+        // Connections beyond this are closed as soon as they are accepted
+        public Builder maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        // Frames a session may have waiting for its socket before it is closed as too slow
+        public Builder maxQueuedFrames(int maxQueuedFrames) {
+            this.maxQueuedFrames = maxQueuedFrames;
+            return this;
+        }
+
+        // How long a single write may block before the session is closed
+        public Builder writeTimeout(Duration writeTimeout) {
+            this.writeTimeout = writeTimeout;
+            return this;
+        }
+
+        // Binds and starts accepting connections
+        public StatusFeedServer build() throws IOException {
+            if (maxConnections <= 0 || maxQueuedFrames <= 0) {
+                throw new IllegalArgumentException("maxConnections and maxQueuedFrames must be positive");
+            }
+            if (writeTimeout.isNegative() || writeTimeout.isZero()) {
+                throw new IllegalArgumentException("writeTimeout must be positive");
+            }
+            return new StatusFeedServer(this);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Run-length collapses stored status history: within each product's history, every event whose status
+ * equals the one before it is deleted, keeping the first event of each run. The status at any point in
+ * time is unchanged by this, so caches built from the history stay valid. Products are compacted in
+ * parallel, each one streamed page by page through a point in time.
+ */
+public class StatusHistoryCompactor implements Closeable {
+    private static final int PRODUCT_PAGE_SIZE = 1000;
+    private static final int HISTORY_PAGE_SIZE = 1000;
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    private final ElasticsearchClient client;
+    private final ExecutorService executor;
+
+    public StatusHistoryCompactor(ElasticsearchClient client, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.client = client;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "status-history-compactor-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Compacts the history of every product in the index
+    public Result compactAll() throws IOException {
+        Counters counters = new Counters();
+        StatusHistoryIndices.scanProductIds(client, PRODUCT_PAGE_SIZE, productIds -> {
+            List<CompletableFuture<Void>> pending = new ArrayList<>(productIds.size());
+            for (String productId : productIds) {
+                pending.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        compact(productId, counters);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, executor));
+            }
+            join(CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])));
+        });
+        return counters.result();
+    }
+
+    public Result compact(String productId) throws IOException {
+        Counters counters = new Counters();
+        compact(productId, counters);
+        return counters.result();
+    }
+
+    private void compact(String productId, Counters counters) throws IOException {
+        List<BulkOperation> deletes = new ArrayList<>();
+        String previousStatus = null;
+        long events = 0;
+        try (StatusHistoryScroller scroller = new StatusHistoryScroller(client,
+                ProductStatusHistory.historyQuery(productId, null, null), HISTORY_PAGE_SIZE)) {
+            while (scroller.hasNext()) {
+                Hit<ProductStatusHistory.StatusHistoryEntryWithString> hit = scroller.next();
+                events++;
+                String status = hit.source().status();
+                if (status.equals(previousStatus)) {
+                    deletes.add(BulkOperation.of(b -> b.delete(d -> d.index(hit.index()).id(hit.id()).routing(hit.routing()))));
+                    if (deletes.size() >= DELETE_BATCH_SIZE) {
+                        counters.deleted.add(delete(deletes));
+                        deletes.clear();
+                    }
+                }
+                previousStatus = status;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (!deletes.isEmpty()) {
+            counters.deleted.add(delete(deletes));
+        }
+        counters.products.increment();
+        counters.events.add(events);
+    }
+
+    private long delete(List<BulkOperation> deletes) throws IOException {
+        BulkResponse response = client.bulk(b -> b.operations(deletes));
+        long deleted = 0;
+        for (BulkResponseItem item : response.items()) {
+            if (item.error() == null) {
+                deleted++;
+            } else {
+                System.err.println("Failed to delete duplicate status " + item.id() + ": " + item.error().reason());
+            }
+        }
+        return deleted;
+    }
+
+    private static void join(CompletableFuture<?> future) throws IOException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private static final class Counters {
+        final LongAdder products = new LongAdder();
+        final LongAdder events = new LongAdder();
+        final LongAdder deleted = new LongAdder();
+
+        Result result() {
+            return new Result(products.sum(), events.sum(), deleted.sum());
+        }
+    }
+
+    public record Result(long productsScanned, long eventsScanned, long duplicatesRemoved) {}
+}
@@ -0,0 +1,137 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeAggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeAggregationSource;
+import co.elastic.clients.elasticsearch._types.aggregations.CompositeBucket;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage layout of the status history: one index per UTC month ({@code product_status_history-2025.04})
+ * created from a shared template, with the {@code product_status_history} alias spanning all of them
+ * for reads.
+ */
+public final class StatusHistoryIndices {
+    public static final String ALIAS = "product_status_history";
+    public static final String PARTITION_PREFIX = ALIAS + "-";
+    public static final String PARTITION_PATTERN = PARTITION_PREFIX + "*";
+    public static final String TEMPLATE_NAME = ALIAS + "_template";
+
+    private static final DateTimeFormatter PARTITION_FORMAT = DateTimeFormatter.ofPattern("yyyy.MM");
+
+    private StatusHistoryIndices() {
+    }
+
+    // Monthly partition that holds events with the given timestamp
+    public static String partitionFor(Instant timestamp) {
+        return PARTITION_PREFIX + YearMonth.from(timestamp.atOffset(ZoneOffset.UTC)).format(PARTITION_FORMAT);
+    }
+
+    // Start of the UTC month containing the timestamp, i.e. the lower bound of its partition
+    public static Instant partitionStart(Instant timestamp) {
+        return YearMonth.from(timestamp.atOffset(ZoneOffset.UTC)).atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC);
+    }
+
+    // End of the month a partition holds, or null if the index is not a monthly partition
+    public static Instant partitionEnd(String index) {
+        if (!index.startsWith(PARTITION_PREFIX)) {
+            return null;
+        }
+        try {
+            YearMonth month = YearMonth.parse(index.substring(PARTITION_PREFIX.length()), PARTITION_FORMAT);
+            return month.plusMonths(1).atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // Installs the index template so partitions are created on demand with the date mapping and read alias
+    public static void putTemplate(ElasticsearchClient client) throws IOException {
+        putTemplate(client, false);
+    }
+
+    // With routingRequired, partitions reject documents written without a routing key
+    public static void putTemplate(ElasticsearchClient client, boolean routingRequired) throws IOException {
+        client.indices().putIndexTemplate(t -> t
+            .name(TEMPLATE_NAME)
+            .indexPatterns(PARTITION_PATTERN)
+            .template(tm -> tm
+                .aliases(ALIAS, a -> a)
+                .mappings(m -> m
+                    .routing(r -> r.required(routingRequired))
+                    .properties("productId", p -> p.keyword(k -> k))
+                    .properties("status", p -> p.keyword(k -> k))
+                    .properties("timestamp", p -> p.date(d -> d.format("strict_date_optional_time||epoch_millis")))
+                )
+            )
+        );
+    }
+
+    // Concrete indices currently behind the alias, plus a legacy single index of the same name
+    public static List<String> existingIndices(ElasticsearchClient client) throws IOException {
+        return new ArrayList<>(client.indices().get(g -> g
+            .index(ALIAS, PARTITION_PATTERN)
+            .ignoreUnavailable(true)
+            .allowNoIndices(true)
+        ).result().keySet());
+    }
+
+    /**
+     * Pages through every distinct product id in the status history with a composite aggregation,
+     * handing each page of ids to the consumer in sorted order.
+     */
+    public static void scanProductIds(ElasticsearchClient client, int pageSize, ProductIdConsumer consumer) throws IOException {
+        Map<String, FieldValue> afterKey = null;
+        do {
+            Map<String, FieldValue> after = afterKey;
+            SearchResponse<Void> response = client.search(s -> s
+                .index(ALIAS)
+                .ignoreUnavailable(true)
+                .allowNoIndices(true)
+                .size(0)
+                .aggregations("products", a -> a
+                    .composite(c -> {
+                        c.size(pageSize)
+                            .sources(List.of(Map.of("productId", CompositeAggregationSource.of(src -> src.terms(t -> t.field("productId"))))));
+                        if (after != null) {
+                            c.after(after);
+                        }
+                        return c;
+                    })
+                ),
+                Void.class
+            );
+
+            if (response.aggregations().get("products") == null) {
+                return;
+            }
+            CompositeAggregate composite = response.aggregations().get("products").composite();
+            List<CompositeBucket> buckets = composite.buckets().array();
+            if (buckets.isEmpty()) {
+                return;
+            }
+            List<String> productIds = new ArrayList<>(buckets.size());
+            for (CompositeBucket bucket : buckets) {
+                productIds.add(bucket.key().get("productId").stringValue());
+            }
+            consumer.accept(productIds);
+            afterKey = buckets.size() < pageSize ? null : composite.afterKey();
+        } while (afterKey != null);
+    }
+
+    @FunctionalInterface
+    public interface ProductIdConsumer {
+        void accept(List<String> productIds) throws IOException;
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Pages through status history hits in timestamp order using a point-in-time snapshot and
+ * {@code search_after}. At most the current page and the prefetched next page are held in memory, so
+ * arbitrarily long histories can be iterated. Closing releases the point in time early.
+ */
+public class StatusHistoryScroller implements Iterator<Hit<ProductStatusHistory.StatusHistoryEntryWithString>>, Closeable {
+    static final String KEEP_ALIVE = "1m";
+
+    // Tiebreaker so events with the same sort values are neither skipped nor repeated
+    private static final SortOptions SHARD_DOC_ORDER = SortOptions.of(sort -> sort
+        .field(f -> f.field("_shard_doc").order(SortOrder.Asc)));
+    // Each product's history in turn, used for full scans
+    static final List<SortOptions> PRODUCT_ORDER = List.of(
+        SortOptions.of(sort -> sort.field(f -> f.field("productId").order(SortOrder.Asc))),
+        SortOptions.of(sort -> sort.field(f -> f.field("timestamp").order(SortOrder.Asc))),
+        SHARD_DOC_ORDER);
+    static final List<SortOptions> TIME_ORDER = List.of(
+        SortOptions.of(sort -> sort.field(f -> f.field("timestamp").order(SortOrder.Asc))),
+        SHARD_DOC_ORDER);
+
+    private static final AtomicInteger PREFETCH_THREADS = new AtomicInteger();
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "status-history-prefetch-" + PREFETCH_THREADS.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ElasticsearchClient client;
+    private final Query query;
+    private final int pageSize;
+    private final List<SortOptions> sort;
+    private final String routing;
+
+    private String pitId;
+    private List<Hit<ProductStatusHistory.StatusHistoryEntryWithString>> page = List.of();
+    private int position;
+    private CompletableFuture<SearchResponse<ProductStatusHistory.StatusHistoryEntryWithString>> nextPage;
+    private boolean exhausted;
+    private boolean closed;
+
+    public StatusHistoryScroller(ElasticsearchClient client, Query query, int pageSize) {
+        this(client, query, pageSize, TIME_ORDER);
+    }
+
+    public StatusHistoryScroller(ElasticsearchClient client, Query query, int pageSize, List<SortOptions> sort) {
+        this(client, query, pageSize, sort, null);
+    }
+
+    // With a routing key the point in time covers only the shards that key routes to
+    public StatusHistoryScroller(ElasticsearchClient client, Query query, int pageSize, List<SortOptions> sort,
+                                 String routing) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        this.client = client;
+        this.query = query;
+        this.pageSize = pageSize;
+        this.sort = sort;
+        this.routing = routing;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (position < page.size()) {
+            return true;
+        }
+        if (exhausted || closed) {
+            return false;
+        }
+        try {
+            advance();
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException(e);
+        }
+        return position < page.size();
+    }
+
+    @Override
+    public Hit<ProductStatusHistory.StatusHistoryEntryWithString> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.get(position++);
+    }
+
+    // Hits as a sequential stream; closing the stream releases the point in time
+    public Stream<Hit<ProductStatusHistory.StatusHistoryEntryWithString>> stream() {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(this::close);
+    }
+
+    private void advance() throws IOException {
+        SearchResponse<ProductStatusHistory.StatusHistoryEntryWithString> response;
+        if (nextPage == null) {
+            pitId = client.openPointInTime(p -> p
+                .index(StatusHistoryIndices.ALIAS)
+                .ignoreUnavailable(true)
+                .routing(routing)
+                .keepAlive(k -> k.time(KEEP_ALIVE))
+            ).id();
+            response = search(null);
+        } else {
+            response = awaitNextPage();
+        }
+
+        if (response.pitId() != null) {
+            pitId = response.pitId();
+        }
+        page = response.hits().hits();
+        position = 0;
+
+        if (page.size() < pageSize) {
+            // Short page: nothing left to fetch
+            exhausted = true;
+            nextPage = null;
+            closePointInTime();
+        } else {
+            List<FieldValue> searchAfter = page.get(page.size() - 1).sort();
+            nextPage = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return search(searchAfter);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, PREFETCH_EXECUTOR);
+        }
+    }
+
+    private SearchResponse<ProductStatusHistory.StatusHistoryEntryWithString> awaitNextPage() throws IOException {
+        try {
+            return nextPage.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private SearchResponse<ProductStatusHistory.StatusHistoryEntryWithString> search(List<FieldValue> searchAfter)
+            throws IOException {
+        return client.search(pageRequest(pitId, query, pageSize, searchAfter, sort),
+            ProductStatusHistory.StatusHistoryEntryWithString.class);
+    }
+
+    // One page of a point-in-time scan in timestamp order, shared with the async history reader
+    static SearchRequest pageRequest(String pitId, Query query, int pageSize, List<FieldValue> searchAfter) {
+        return pageRequest(pitId, query, pageSize, searchAfter, TIME_ORDER);
+    }
+
+    static SearchRequest pageRequest(String pitId, Query query, int pageSize, List<FieldValue> searchAfter,
+                                     List<SortOptions> sort) {
+        return SearchRequest.of(s -> {
+            s.pit(p -> p.id(pitId).keepAlive(k -> k.time(KEEP_ALIVE)))
+                .query(query)
+                .sort(sort)
+                .trackTotalHits(t -> t.enabled(false))
+                .size(pageSize);
+            if (searchAfter != null) {
+                s.searchAfter(searchAfter);
+            }
+            return s;
+        });
+    }
+
+    private void closePointInTime() {
+        String id = pitId;
+        pitId = null;
+        if (id == null) {
+            return;
+        }
+        try {
+            client.closePointInTime(c -> c.id(id));
+        } catch (IOException | RuntimeException e) {
+            // The point in time expires on its own after the keep-alive
+            System.err.println("Failed to close point in time: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        page = List.of();
+        if (nextPage != null) {
+            // Let an in-flight prefetch finish before releasing the point in time it uses
+            nextPage.handle((response, error) -> null).join();
+            nextPage = null;
+        }
+        closePointInTime();
+    }
+}
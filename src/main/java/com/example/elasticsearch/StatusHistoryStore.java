@@ -0,0 +1,35 @@
+package com.example.elasticsearch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage for product status history: recording changes, the status at a point in time, and a
+ * product's full history in time order. {@link ProductStatusHistory} implements it on Elasticsearch;
+ * {@link EmbeddedStatusHistoryStore} implements it on local files.
+ */
+public interface StatusHistoryStore extends Closeable {
+
+    // Records a change to the given status as of now
+    void recordStatusChange(String productId, String status) throws IOException;
+
+    // Records a change at the entry's timestamp; recording the same product and timestamp again replaces it
+    void recordStatusChangeWithTimestamp(ProductStatusHistory.StatusHistoryEntry entry) throws IOException;
+
+    // Completes with the id of the recorded change
+    CompletableFuture<String> recordStatusChangeAsync(String productId, String status);
+
+    // Status from the latest change at or before the given time (millisecond precision)
+    Optional<String> findStatusAtTime(String productId, Instant time) throws IOException;
+
+    // All changes of the product, oldest first
+    List<ProductStatusHistory.StatusHistoryEntryWithString> findStatusHistory(String productId) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,561 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only local journal of status changes, shipped to Elasticsearch in the background.
+ * <p>
+ * Records are appended to fixed-size memory-mapped segment files, so accepting an event costs a memory
+ * copy rather than a network round trip and keeps working while the cluster is down. Producers claim
+ * space with a single atomic add on the journal tail and then write their record independently; a
+ * record becomes visible to the shipper once its length header is published. A shipper thread reads
+ * records in order, sends them as {@code _bulk} batches, and after each acknowledged batch persists a
+ * checkpoint and deletes the segments behind it. On restart shipping resumes from the checkpoint, so
+ * delivery is at-least-once; records carry document ids, which makes replays idempotent.
+ * <p>
+ * A producer that fails after claiming space turns the claimed range into padding, or, when its segment
+ * cannot even be mapped, registers it as a hole the shipper skips, so one failed append never stalls
+ * shipping. Read and I/O errors in the shipper are logged and retried with backoff.
+ */
+public class StatusJournal implements Closeable {
+    // Record header: payload length (negative for padding, total size) and CRC32C of the payload
+    private static final int HEADER_BYTES = 8;
+    private static final int ALIGNMENT = 8;
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final VarHandle INT_HANDLE = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final ElasticsearchClient client;
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final int batchSize;
+    private final long syncIntervalNanos;
+    private final ConcurrentHashMap<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+    // Claimed ranges (offset to length) abandoned by a failed append that could not be padded in place
+    private final ConcurrentHashMap<Long, Integer> holes = new ConcurrentHashMap<>();
+    private final AtomicLong tail;
+    // Segments below this index were written before the journal was opened and may end in a torn record
+    private final long firstLiveSegment;
+    private final Thread shipper;
+    private volatile long checkpoint;
+    private volatile long shipped;
+    private volatile boolean closed;
+
+    private StatusJournal(Builder builder) throws IOException {
+        this.client = builder.client;
+        this.directory = builder.directory;
+        this.segmentSize = builder.segmentSize;
+        this.maxSegments = builder.maxSegments;
+        this.batchSize = builder.batchSize;
+        this.syncIntervalNanos = builder.syncInterval.toNanos();
+
+        Files.createDirectories(directory);
+        List<Long> existing = listSegments();
+        long restored = readCheckpoint();
+        if (!existing.isEmpty()) {
+            restored = Math.max(restored, existing.get(0) * segmentSize);
+            // New records go to a fresh segment so they never follow a record torn by a crash
+            firstLiveSegment = Math.max(existing.get(existing.size() - 1) + 1, segmentIndex(restored));
+        } else {
+            firstLiveSegment = segmentIndex(restored + segmentSize - 1);
+        }
+        this.checkpoint = restored;
+        this.tail = new AtomicLong(Math.max(restored, firstLiveSegment * segmentSize));
+
+        this.shipper = new Thread(this::shipLoop, "status-journal-shipper");
+        this.shipper.setDaemon(true);
+        this.shipper.start();
+    }
+
+    public static Builder builder(ElasticsearchClient client, Path directory) {
+        return new Builder(client, directory);
+    }
+
+    /**
+     * Appends a status change. Returns once the record is in the mapped segment; it reaches the cluster
+     * asynchronously. Fails only when the journal is closed or the shipper is {@code maxSegments}
+     * segments behind.
+     */
+    public void append(String index, String id, ProductStatusHistory.StatusHistoryEntryWithString document) throws IOException {
+        append(index, id, null, document);
+    }
+
+    // Like append, with a custom routing key (null for the default, routing by id)
+    public void append(String index, String id, String routing, ProductStatusHistory.StatusHistoryEntryWithString document)
+            throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Status journal is closed");
+        }
+        byte[] payload = encode(index, id, routing, document);
+        int total = align(HEADER_BYTES + payload.length);
+        if (total > segmentSize) {
+            throw new IllegalArgumentException("Status change does not fit in a journal segment");
+        }
+        if (segmentIndex(tail.get()) - segmentIndex(checkpoint) >= maxSegments) {
+            throw new IOException("Status journal is full: " + maxSegments + " segments waiting to be shipped");
+        }
+
+        while (true) {
+            long offset = tail.getAndAdd(total);
+            long segment = segmentIndex(offset);
+            int position = (int) (offset - segment * segmentSize);
+            try {
+                if (position + total <= segmentSize) {
+                    writeRecord(segment(segment), position, payload);
+                    break;
+                }
+                // The claimed range straddles a segment boundary: turn both halves into padding and retry
+                long boundary = (segment + 1) * segmentSize;
+                writePadding(segment(segment), position, (int) (boundary - offset));
+                writePadding(segment(segment + 1), 0, (int) (offset + total - boundary));
+            } catch (RuntimeException e) {
+                abandon(offset, total);
+                LockSupport.unpark(shipper);
+                if (e instanceof UncheckedIOException io) {
+                    throw io.getCause();
+                }
+                throw e;
+            }
+        }
+        LockSupport.unpark(shipper);
+    }
+
+    // Makes a claimed range the shipper can step over, one piece per segment it touches
+    private void abandon(long offset, int length) {
+        long end = offset + length;
+        while (offset < end) {
+            long segment = segmentIndex(offset);
+            int position = (int) (offset - segment * segmentSize);
+            int piece = (int) Math.min(end - offset, segmentSize - position);
+            try {
+                writePadding(segment(segment), position, piece);
+            } catch (RuntimeException e) {
+                holes.put(offset, piece);
+            }
+            offset += piece;
+        }
+    }
+
+    // Bytes appended but not yet acknowledged by the cluster
+    public long pendingBytes() {
+        return Math.max(0, tail.get() - checkpoint);
+    }
+
+    public long shippedCount() {
+        return shipped;
+    }
+
+    // Waits until everything appended so far is acknowledged; returns false on timeout
+    public boolean awaitShipped(Duration timeout) throws InterruptedException {
+        long target = tail.get();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (checkpoint < target) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            if (!shipper.isAlive()) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private void writeRecord(ByteBuffer segment, int position, byte[] payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        segment.put(position + HEADER_BYTES, payload);
+        segment.putInt(position + 4, (int) crc.getValue());
+        // Publishing the length last makes the record visible only once it is complete
+        INT_HANDLE.setRelease(segment, position, payload.length);
+    }
+
+    private static void writePadding(ByteBuffer segment, int position, int length) {
+        INT_HANDLE.setRelease(segment, position, -length);
+    }
+
+    private void shipLoop() {
+        long readPosition = checkpoint;
+        long lastSync = System.nanoTime();
+        long backoffNanos = TimeUnit.MILLISECONDS.toNanos(100);
+        List<JournalRecord> batch = new ArrayList<>(batchSize);
+
+        while (true) {
+            long position = readPosition;
+            batch.clear();
+            try {
+                while (batch.size() < batchSize) {
+                    JournalRecord record = read(position);
+                    if (record == null) {
+                        break;
+                    }
+                    position = record.next();
+                    if (record.document() != null) {
+                        batch.add(record);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // E.g. a segment that cannot be mapped right now; shipping resumes from the same position
+                System.err.println("Failed to read status journal at offset " + position + ", retrying: " + e);
+                if (closed) {
+                    break;
+                }
+                LockSupport.parkNanos(backoffNanos);
+                backoffNanos = Math.min(backoffNanos * 2, MAX_BACKOFF_NANOS);
+                continue;
+            }
+
+            if (!batch.isEmpty()) {
+                try {
+                    ship(batch);
+                    backoffNanos = TimeUnit.MILLISECONDS.toNanos(100);
+                } catch (IOException | RuntimeException e) {
+                    // Keep the records and retry; the cluster may be down for a while
+                    System.err.println("Failed to ship " + batch.size() + " journaled status changes, retrying: " + e.getMessage());
+                    if (closed) {
+                        break;
+                    }
+                    LockSupport.parkNanos(backoffNanos);
+                    backoffNanos = Math.min(backoffNanos * 2, MAX_BACKOFF_NANOS);
+                    continue;
+                }
+                shipped += batch.size();
+            }
+            if (position != readPosition) {
+                readPosition = position;
+                advanceCheckpoint(readPosition);
+            }
+
+            if (System.nanoTime() - lastSync >= syncIntervalNanos) {
+                sync();
+                lastSync = System.nanoTime();
+            }
+            if (batch.isEmpty()) {
+                if (closed) {
+                    break;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+            }
+        }
+        sync();
+    }
+
+    // Next record at or after the position, skipping padding; null when nothing complete is there yet
+    private JournalRecord read(long position) {
+        while (position < tail.get()) {
+            Integer hole = holes.isEmpty() ? null : holes.get(position);
+            if (hole != null) {
+                return new JournalRecord(null, null, null, null, position + hole);
+            }
+            long segmentIndex = segmentIndex(position);
+            int offset = (int) (position - segmentIndex * segmentSize);
+            boolean recovered = segmentIndex < firstLiveSegment;
+            if (recovered && !Files.exists(segmentPath(segmentIndex))) {
+                position = (segmentIndex + 1) * segmentSize;
+                continue;
+            }
+
+            ByteBuffer segment = segment(segmentIndex);
+            int length = (int) INT_HANDLE.getAcquire(segment, offset);
+            if (length == 0) {
+                if (recovered) {
+                    // End of what was written before the restart
+                    position = (segmentIndex + 1) * segmentSize;
+                    continue;
+                }
+                // Claimed by a producer that has not finished writing it
+                return null;
+            }
+            if (length < 0) {
+                return new JournalRecord(null, null, null, null, position - length);
+            }
+
+            byte[] payload = new byte[length];
+            segment.get(offset + HEADER_BYTES, payload);
+            CRC32C crc = new CRC32C();
+            crc.update(payload);
+            if ((int) crc.getValue() != segment.getInt(offset + 4)) {
+                if (recovered) {
+                    System.err.println("Skipping torn record in status journal segment " + segmentIndex);
+                    position = (segmentIndex + 1) * segmentSize;
+                    continue;
+                }
+                throw new IllegalStateException("Corrupt record in status journal at offset " + position);
+            }
+            return decode(payload, position + align(HEADER_BYTES + length));
+        }
+        return null;
+    }
+
+    private void ship(List<JournalRecord> batch) throws IOException {
+        BulkRequest.Builder request = new BulkRequest.Builder();
+        for (JournalRecord record : batch) {
+            request.operations(op -> op.index(i -> {
+                i.index(record.index()).document(record.document());
+                if (record.id() != null) {
+                    i.id(record.id());
+                }
+                if (record.routing() != null) {
+                    i.routing(record.routing());
+                }
+                return i;
+            }));
+        }
+        BulkResponse response = client.bulk(request.build());
+        if (!response.errors()) {
+            return;
+        }
+        for (BulkResponseItem item : response.items()) {
+            if (item.error() == null) {
+                continue;
+            }
+            if (item.status() == 429 || item.status() >= 500) {
+                // Retrying the whole batch is safe: succeeded items are overwritten by id
+                throw new IOException("Bulk item rejected with status " + item.status() + ": " + item.error().reason());
+            }
+            // Mapping or validation errors will not succeed on retry
+            System.err.println("Dropping journaled status change " + item.id() + ": " + item.error().reason());
+        }
+    }
+
+    private void advanceCheckpoint(long position) {
+        boolean segmentDone = segmentIndex(position) > segmentIndex(checkpoint);
+        checkpoint = position;
+        try {
+            writeCheckpoint(position);
+        } catch (IOException e) {
+            // Shipping continues; a restart replays from the last persisted checkpoint
+            System.err.println("Failed to persist status journal checkpoint: " + e.getMessage());
+            return;
+        }
+        if (!segmentDone) {
+            return;
+        }
+        holes.keySet().removeIf(offset -> offset < position);
+        long firstNeeded = segmentIndex(position);
+        List<Long> existing;
+        try {
+            existing = listSegments();
+        } catch (UncheckedIOException e) {
+            System.err.println("Failed to list status journal segments: " + e.getMessage());
+            return;
+        }
+        for (Long segment : existing) {
+            if (segment < firstNeeded) {
+                segments.remove(segment);
+                try {
+                    Files.deleteIfExists(segmentPath(segment));
+                } catch (IOException e) {
+                    System.err.println("Failed to delete status journal segment " + segment + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void sync() {
+        for (MappedByteBuffer segment : segments.values()) {
+            try {
+                segment.force();
+            } catch (UncheckedIOException e) {
+                System.err.println("Failed to sync status journal segment: " + e.getMessage());
+            }
+        }
+    }
+
+    private MappedByteBuffer segment(long index) {
+        return segments.computeIfAbsent(index, i -> {
+            try (FileChannel channel = FileChannel.open(segmentPath(i),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private long segmentIndex(long offset) {
+        return offset / segmentSize;
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("%020d%s", index, SEGMENT_SUFFIX));
+    }
+
+    private List<Long> listSegments() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .map(path -> path.getFileName().toString())
+                .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                .sorted()
+                .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        Path path = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        return Long.parseLong(Files.readString(path).trim());
+    }
+
+    private void writeCheckpoint(long position) throws IOException {
+        Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.writeString(temp, Long.toString(position));
+        Files.move(temp, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int align(int bytes) {
+        return (bytes + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    private static byte[] encode(String index, String id, String routing,
+                                 ProductStatusHistory.StatusHistoryEntryWithString document) {
+        // Routing comes last so records written before it existed still decode
+        byte[][] fields = {
+            bytes(index), bytes(id), bytes(document.productId()), bytes(document.status()), bytes(document.timestamp()),
+            bytes(routing)
+        };
+        int length = 0;
+        for (byte[] field : fields) {
+            length += 2 + (field == null ? 0 : field.length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (byte[] field : fields) {
+            if (field == null) {
+                buffer.putShort((short) -1);
+            } else {
+                buffer.putShort((short) field.length).put(field);
+            }
+        }
+        return buffer.array();
+    }
+
+    private static JournalRecord decode(byte[] payload, long next) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        String index = string(buffer);
+        String id = string(buffer);
+        ProductStatusHistory.StatusHistoryEntryWithString document =
+            new ProductStatusHistory.StatusHistoryEntryWithString(string(buffer), string(buffer), string(buffer));
+        String routing = buffer.hasRemaining() ? string(buffer) : null;
+        return new JournalRecord(index, id, routing, document, next);
+    }
+
+    private static byte[] bytes(String value) {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Journal field too long: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    private static String string(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * Stops accepting appends and stops the shipper after its current batch. Records not yet shipped
+     * stay on disk and are shipped the next time the journal is opened.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(shipper);
+        try {
+            shipper.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // A decoded record; document is null for padding
+    private record JournalRecord(String index, String id, String routing,
+                                 ProductStatusHistory.StatusHistoryEntryWithString document, long next) {}
+
+    public static class Builder {
+        private final ElasticsearchClient client;
+        private final Path directory;
+        private int segmentSize = 64 * 1024 * 1024;
+        private int maxSegments = 64;
+        private int batchSize = 1000;
+        private Duration syncInterval = Duration.ofSeconds(1);
+
+        private Builder(ElasticsearchClient client, Path directory) {
+            this.client = client;
+            this.directory = directory;
+        }
+
+        public Builder segmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        // Appends fail once this many segments are waiting to be shipped
+        public Builder maxSegments(int maxSegments) {
+            this.maxSegments = maxSegments;
+            return this;
+        }
+
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        // How often mapped segments are forced to disk
+        public Builder syncInterval(Duration syncInterval) {
+            this.syncInterval = syncInterval;
+            return this;
+        }
+
+        public StatusJournal build() throws IOException {
+            if (segmentSize < 4096 || segmentSize % ALIGNMENT != 0 || maxSegments <= 0 || batchSize <= 0) {
+                throw new IllegalArgumentException("Journal segments must be at least 4KB and 8-byte aligned, limits positive");
+            }
+            return new StatusJournal(this);
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package com.example.elasticsearch;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.datatype.jsr310.DecimalUtils;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Hand-written Jackson codecs for the documents this project indexes and reads back: {@link Product},
+ * {@link ProductStatusHistory.StatusHistoryEntry} and {@link ProductStatusHistory.StatusHistoryEntryWithString}.
+ * <p>
+ * Serializers write the fields straight to the generator, without bean or record introspection, and
+ * format instants as ISO-8601 UTC (the output of {@link DateTimeFormatter#ISO_INSTANT}) into a reused
+ * per-thread char buffer instead of an intermediate String. Deserializers read the token stream field
+ * by field, so search hits, which the client hands to Jackson as a parser positioned on {@code _source},
+ * become objects without an intermediate tree. Product timestamps keep the decimal epoch seconds the
+ * default Instant serializer writes, since {@code products} indices created before {@link ProductIndex}
+ * mapped the field dynamically as a float; ISO strings are read as well.
+ * <p>
+ * {@link ElasticsearchClientFactory} registers the module on its mapper.
+ */
+public class StatusJsonModule extends SimpleModule {
+    private static final long serialVersionUID = 1L;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ISO_INSTANT;
+    // yyyy-MM-ddTHH:mm:ss.nnnnnnnnnZ, and also fits positive epoch seconds with nine fraction digits
+    private static final int MAX_INSTANT_CHARS = 30;
+    private static final ThreadLocal<char[]> INSTANT_BUFFER = ThreadLocal.withInitial(() -> new char[MAX_INSTANT_CHARS]);
+
+    public StatusJsonModule() {
+        super("StatusJsonModule");
+        addSerializer(Product.class, new ProductSerializer());
+        addDeserializer(Product.class, new ProductDeserializer());
+        addSerializer(ProductStatusHistory.StatusHistoryEntry.class, new StatusHistoryEntrySerializer());
+        addDeserializer(ProductStatusHistory.StatusHistoryEntry.class, new StatusHistoryEntryDeserializer());
+        addSerializer(ProductStatusHistory.StatusHistoryEntryWithString.class, new StatusHistoryEntryWithStringSerializer());
+        addDeserializer(ProductStatusHistory.StatusHistoryEntryWithString.class, new StatusHistoryEntryWithStringDeserializer());
+    }
+
+    static void writeInstantField(JsonGenerator gen, String name, Instant instant) throws IOException {
+        if (instant == null) {
+            gen.writeNullField(name);
+            return;
+        }
+        gen.writeFieldName(name);
+        char[] buffer = INSTANT_BUFFER.get();
+        int length = formatInstant(instant.getEpochSecond(), instant.getNano(), buffer);
+        if (length < 0) {
+            gen.writeString(DATE_FORMATTER.format(instant));
+        } else {
+            gen.writeString(buffer, 0, length);
+        }
+    }
+
+    // Decimal epoch seconds with nine fraction digits, as the default Instant serializer writes them
+    static void writeEpochSecondsField(JsonGenerator gen, String name, Instant instant) throws IOException {
+        if (instant == null) {
+            gen.writeNullField(name);
+            return;
+        }
+        gen.writeFieldName(name);
+        long seconds = instant.getEpochSecond();
+        if (seconds <= 0) {
+            // Zero and pre-epoch values have their own formatting there
+            gen.writeNumber(DecimalUtils.toBigDecimal(seconds, instant.getNano()));
+            return;
+        }
+        char[] buffer = INSTANT_BUFFER.get();
+        int position = buffer.length;
+        int nanos = instant.getNano();
+        for (int i = 0; i < 9; i++) {
+            buffer[--position] = (char) ('0' + nanos % 10);
+            nanos /= 10;
+        }
+        buffer[--position] = '.';
+        do {
+            buffer[--position] = (char) ('0' + seconds % 10);
+            seconds /= 10;
+        } while (seconds > 0);
+        gen.writeNumber(buffer, position, buffer.length - position);
+    }
+
+    /**
+     * Writes the instant as ISO_INSTANT does (fraction in groups of three digits, omitted when zero)
+     * and returns the length, or -1 for years outside 0000-9999, which ISO_INSTANT writes with a sign.
+     */
+    static int formatInstant(long epochSecond, int nanos, char[] buffer) {
+        long epochDay = Math.floorDiv(epochSecond, 86400);
+        int secondOfDay = Math.floorMod(epochSecond, 86400);
+        // Civil date from days since the epoch, with March-based years (H. Hinnant, "chrono-compatible
+        // low-level date algorithms")
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+        int month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            return -1;
+        }
+
+        writeDigits(buffer, 0, (int) year, 4);
+        buffer[4] = '-';
+        writeDigits(buffer, 5, month, 2);
+        buffer[7] = '-';
+        writeDigits(buffer, 8, day, 2);
+        buffer[10] = 'T';
+        writeDigits(buffer, 11, secondOfDay / 3600, 2);
+        buffer[13] = ':';
+        writeDigits(buffer, 14, secondOfDay / 60 % 60, 2);
+        buffer[16] = ':';
+        writeDigits(buffer, 17, secondOfDay % 60, 2);
+        int position = 19;
+        if (nanos > 0) {
+            buffer[position++] = '.';
+            if (nanos % 1_000_000 == 0) {
+                writeDigits(buffer, position, nanos / 1_000_000, 3);
+                position += 3;
+            } else if (nanos % 1000 == 0) {
+                writeDigits(buffer, position, nanos / 1000, 6);
+                position += 6;
+            } else {
+                writeDigits(buffer, position, nanos, 9);
+                position += 9;
+            }
+        }
+        buffer[position++] = 'Z';
+        return position;
+    }
+
+    private static void writeDigits(char[] buffer, int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    // Instant from a string, number (epoch seconds, possibly fractional) or null token
+    static Instant readInstant(JsonParser p) throws IOException {
+        return switch (p.currentToken()) {
+            case VALUE_STRING -> {
+                Instant parsed = parseInstant(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+                yield parsed != null ? parsed : Instant.parse(p.getText());
+            }
+            case VALUE_NUMBER_INT -> Instant.ofEpochSecond(p.getLongValue());
+            // Read as the default Instant deserializer does, which pairs with how pre-epoch values are written
+            case VALUE_NUMBER_FLOAT -> DecimalUtils.extractSecondsAndNanos(p.getDecimalValue(), Instant::ofEpochSecond);
+            case VALUE_NULL -> null;
+            default -> throw new IOException("Expected a timestamp but found " + p.currentToken());
+        };
+    }
+
+    /**
+     * Parses {@code yyyy-MM-ddTHH:mm:ss[.fraction]Z} without allocating; returns null for anything else
+     * (offsets, lenient forms), which callers hand to {@link Instant#parse}.
+     */
+    static Instant parseInstant(char[] chars, int offset, int length) {
+        if (length < 20 || chars[offset + length - 1] != 'Z' || chars[offset + 4] != '-' || chars[offset + 7] != '-'
+                || chars[offset + 10] != 'T' || chars[offset + 13] != ':' || chars[offset + 16] != ':') {
+            return null;
+        }
+        int year = readDigits(chars, offset, 4);
+        int month = readDigits(chars, offset + 5, 2);
+        int day = readDigits(chars, offset + 8, 2);
+        int hour = readDigits(chars, offset + 11, 2);
+        int minute = readDigits(chars, offset + 14, 2);
+        int second = readDigits(chars, offset + 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > monthLength(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return null;
+        }
+        int nanos = 0;
+        int fractionLength = length - 20;
+        if (fractionLength > 0) {
+            if (chars[offset + 19] != '.' || fractionLength > 10 || fractionLength < 2) {
+                return null;
+            }
+            int digits = fractionLength - 1;
+            nanos = readDigits(chars, offset + 20, digits);
+            if (nanos < 0) {
+                return null;
+            }
+            for (int i = digits; i < 9; i++) {
+                nanos *= 10;
+            }
+        }
+        // Days since the epoch from a civil date (inverse of the algorithm in formatInstant)
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long epochDay = (long) era * 146097 + dayOfEra - 719468;
+        return Instant.ofEpochSecond(epochDay * 86400 + hour * 3600L + minute * 60L + second, nanos);
+    }
+
+    // Non-negative value of the digits, or -1 if any is not a digit
+    private static int readDigits(char[] chars, int offset, int digits) {
+        int value = 0;
+        for (int i = offset; i < offset + digits; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int monthLength(int year, int month) {
+        return switch (month) {
+            case 2 -> (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    // Moves from START_OBJECT (or an already-consumed one) to the first field name
+    private static JsonToken firstField(JsonParser p) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = p.nextToken();
+        }
+        return token;
+    }
+
+    static final class ProductSerializer extends StdSerializer<Product> {
+        private static final long serialVersionUID = 1L;
+
+        ProductSerializer() {
+            super(Product.class);
+        }
+
+        @Override
+        public void serialize(Product product, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject(product);
+            gen.writeStringField("id", product.getId());
+            gen.writeStringField("name", product.getName());
+            gen.writeStringField("description", product.getDescription());
+            gen.writeNumberField("price", product.getPrice());
+            gen.writeStringField("category", product.getCategory());
+            gen.writeStringField("status", product.getStatus());
+            writeEpochSecondsField(gen, "timestamp", product.getTimestamp());
+            gen.writeEndObject();
+        }
+    }
+
+    static final class ProductDeserializer extends StdDeserializer<Product> {
+        private static final long serialVersionUID = 1L;
+
+        ProductDeserializer() {
+            super(Product.class);
+        }
+
+        @Override
+        public Product deserialize(JsonParser p, DeserializationContext context) throws IOException {
+            Product product = new Product();
+            String status = null;
+            Instant timestamp = null;
+            boolean hasTimestamp = false;
+            for (JsonToken token = firstField(p); token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+                String field = p.currentName();
+                p.nextToken();
+                switch (field) {
+                    case "id" -> product.setId(p.getValueAsString());
+                    case "name" -> product.setName(p.getValueAsString());
+                    case "description" -> product.setDescription(p.getValueAsString());
+                    case "price" -> product.setPrice(p.getValueAsDouble());
+                    case "category" -> product.setCategory(p.getValueAsString());
+                    case "status" -> status = p.getValueAsString();
+                    case "timestamp" -> {
+                        timestamp = readInstant(p);
+                        hasTimestamp = true;
+                    }
+                    default -> p.skipChildren();
+                }
+            }
+            // setStatus stamps the current time, so the stored timestamp is applied after it
+            if (status != null) {
+                product.setStatus(status);
+            }
+            if (hasTimestamp) {
+                product.setTimestamp(timestamp);
+            }
+            return product;
+        }
+    }
+
+    static final class StatusHistoryEntrySerializer extends StdSerializer<ProductStatusHistory.StatusHistoryEntry> {
+        private static final long serialVersionUID = 1L;
+
+        StatusHistoryEntrySerializer() {
+            super(ProductStatusHistory.StatusHistoryEntry.class);
+        }
+
+        @Override
+        public void serialize(ProductStatusHistory.StatusHistoryEntry entry, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            gen.writeStartObject(entry);
+            gen.writeStringField("productId", entry.productId());
+            gen.writeStringField("status", entry.status());
+            writeInstantField(gen, "timestamp", entry.timestamp());
+            gen.writeEndObject();
+        }
+    }
+
+    static final class StatusHistoryEntryDeserializer extends StdDeserializer<ProductStatusHistory.StatusHistoryEntry> {
+        private static final long serialVersionUID = 1L;
+
+        StatusHistoryEntryDeserializer() {
+            super(ProductStatusHistory.StatusHistoryEntry.class);
+        }
+
+        @Override
+        public ProductStatusHistory.StatusHistoryEntry deserialize(JsonParser p, DeserializationContext context)
+                throws IOException {
+            String productId = null;
+            String status = null;
+            Instant timestamp = null;
+            for (JsonToken token = firstField(p); token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+                String field = p.currentName();
+                p.nextToken();
+                switch (field) {
+                    case "productId" -> productId = p.getValueAsString();
+                    case "status" -> status = p.getValueAsString();
+                    case "timestamp" -> timestamp = readInstant(p);
+                    default -> p.skipChildren();
+                }
+            }
+            return new ProductStatusHistory.StatusHistoryEntry(productId, status, timestamp);
+        }
+    }
+
+    static final class StatusHistoryEntryWithStringSerializer
+            extends StdSerializer<ProductStatusHistory.StatusHistoryEntryWithString> {
+        private static final long serialVersionUID = 1L;
+
+        StatusHistoryEntryWithStringSerializer() {
+            super(ProductStatusHistory.StatusHistoryEntryWithString.class);
+        }
+
+        @Override
+        public void serialize(ProductStatusHistory.StatusHistoryEntryWithString entry, JsonGenerator gen,
+                              SerializerProvider provider) throws IOException {
+            gen.writeStartObject(entry);
+            gen.writeStringField("productId", entry.productId());
+            gen.writeStringField("status", entry.status());
+            gen.writeStringField("timestamp", entry.timestamp());
+            gen.writeEndObject();
+        }
+    }
+
+    static final class StatusHistoryEntryWithStringDeserializer
+            extends StdDeserializer<ProductStatusHistory.StatusHistoryEntryWithString> {
+        private static final long serialVersionUID = 1L;
+
+        StatusHistoryEntryWithStringDeserializer() {
+            super(ProductStatusHistory.StatusHistoryEntryWithString.class);
+        }
+
+        @Override
+        public ProductStatusHistory.StatusHistoryEntryWithString deserialize(JsonParser p, DeserializationContext context)
+                throws IOException {
+            String productId = null;
+            String status = null;
+            String timestamp = null;
+            for (JsonToken token = firstField(p); token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+                String field = p.currentName();
+                p.nextToken();
+                switch (field) {
+                    case "productId" -> productId = p.getValueAsString();
+                    case "status" -> status = p.getValueAsString();
+                    case "timestamp" -> timestamp = p.getValueAsString();
+                    default -> p.skipChildren();
+                }
+            }
+            return new ProductStatusHistory.StatusHistoryEntryWithString(productId, status, timestamp);
+        }
+    }
+}
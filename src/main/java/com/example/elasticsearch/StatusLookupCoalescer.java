@@ -0,0 +1,255 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.core.MsearchResponse;
+import co.elastic.clients.elasticsearch.core.msearch.MultiSearchResponseItem;
+import co.elastic.clients.elasticsearch.core.msearch.RequestItem;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent "latest status change in a range" searches, the searches behind
+ * {@link ProductStatusHistory#findStatusAtTime} and {@link ProductStatusHistory#getStatusAtTimeAsync}.
+ * <p>
+ * Identical lookups (same index, product, range and routing) that are already queued or in flight
+ * share one future instead of issuing another search, so a lookup can be answered by a search that
+ * started slightly before it. Distinct lookups are grouped: the first lookup of a batch starts a short
+ * window, and the batch goes out as one {@code _msearch} when the window closes or the batch reaches
+ * its size limit, whichever comes first. Each lookup then completes with its own item of the response.
+ * Once closed, lookups are sent on their own right away.
+ */
+public class StatusLookupCoalescer implements Closeable {
+    private final ElasticsearchAsyncClient asyncClient;
+    private final ClientMetrics metrics;
+    private final Duration window;
+    private final int maxBatchSize;
+    private final Map<Key, CompletableFuture<ProductStatusHistory.StatusHistoryEntryWithString>> inFlight =
+        new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final Object lock = new Object();
+    private List<Pending> batch = new ArrayList<>();
+    private ScheduledFuture<?> flushTimer;
+    private boolean closed;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    private StatusLookupCoalescer(Builder builder) {
+        this.asyncClient = builder.asyncClient;
+        this.metrics = builder.metrics;
+        this.window = builder.window;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "status-lookup-coalescer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Server-side time of each search is recorded as GET_STATUS_AT_TIME
+    public static Builder builder(ElasticsearchAsyncClient asyncClient, ClientMetrics metrics) {
+        return new Builder(asyncClient, metrics);
+    }
+
+    /**
+     * Latest entry within [from, to] (either bound may be null), or null when there is none. Each
+     * caller gets its own copy of the shared future, so cancelling or completing it affects no one else.
+     */
+    public CompletableFuture<ProductStatusHistory.StatusHistoryEntryWithString> latestEntry(
+            String index, String productId, Instant from, Instant to, String routing) {
+        lookups.increment();
+        Key key = new Key(index, productId, from, to, routing);
+        CompletableFuture<ProductStatusHistory.StatusHistoryEntryWithString> existing = inFlight.get(key);
+        if (existing != null) {
+            shared.increment();
+            return existing.copy();
+        }
+        CompletableFuture<ProductStatusHistory.StatusHistoryEntryWithString> future = new CompletableFuture<>();
+        existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            shared.increment();
+            return existing.copy();
+        }
+        future.whenComplete((entry, error) -> inFlight.remove(key, future));
+
+        Pending pending = new Pending(key, future);
+        List<Pending> full = null;
+        synchronized (lock) {
+            if (closed) {
+                // The timer is gone, so nothing would send a batch
+                full = List.of(pending);
+            } else {
+                batch.add(pending);
+                if (batch.size() >= maxBatchSize) {
+                    full = takeBatch();
+                } else if (batch.size() == 1) {
+                    flushTimer = timer.schedule(this::flushWindow, window.toNanos(), TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return future.copy();
+    }
+
+    // Blocking variant of latestEntry
+    public ProductStatusHistory.StatusHistoryEntryWithString findLatestEntry(String index, String productId, Instant from,
+                                                                            Instant to, String routing) throws IOException {
+        try {
+            return latestEntry(index, productId, from, to, routing).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw e;
+        }
+    }
+
+    // Caller holds the lock
+    private List<Pending> takeBatch() {
+        List<Pending> taken = batch;
+        batch = new ArrayList<>();
+        if (flushTimer != null) {
+            flushTimer.cancel(false);
+            flushTimer = null;
+        }
+        return taken;
+    }
+
+    private void flushWindow() {
+        List<Pending> due;
+        synchronized (lock) {
+            due = takeBatch();
+        }
+        if (!due.isEmpty()) {
+            send(due);
+        }
+    }
+
+    private void send(List<Pending> pending) {
+        batches.increment();
+        searches.add(pending.size());
+        List<RequestItem> items = new ArrayList<>(pending.size());
+        for (Pending p : pending) {
+            Key key = p.key();
+            items.add(RequestItem.of(item -> item
+                .header(h -> h
+                    .index(key.index())
+                    .routing(key.routing())
+                    .ignoreUnavailable(true)
+                    .allowNoIndices(true))
+                .body(ProductStatusHistory.latestEntryBody(key.productId(), key.from(), key.to()))));
+        }
+
+        CompletableFuture<MsearchResponse<ProductStatusHistory.StatusHistoryEntryWithString>> response;
+        try {
+            response = asyncClient.msearch(m -> m.searches(items), ProductStatusHistory.StatusHistoryEntryWithString.class);
+        } catch (RuntimeException e) {
+            pending.forEach(p -> p.future().completeExceptionally(e));
+            return;
+        }
+        response.whenComplete((result, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                pending.forEach(p -> p.future().completeExceptionally(cause));
+                return;
+            }
+            List<MultiSearchResponseItem<ProductStatusHistory.StatusHistoryEntryWithString>> responses = result.responses();
+            for (int i = 0; i < pending.size(); i++) {
+                CompletableFuture<ProductStatusHistory.StatusHistoryEntryWithString> future = pending.get(i).future();
+                if (i >= responses.size()) {
+                    future.completeExceptionally(new IOException("Missing _msearch response item " + i));
+                    continue;
+                }
+                MultiSearchResponseItem<ProductStatusHistory.StatusHistoryEntryWithString> item = responses.get(i);
+                if (item.isFailure()) {
+                    future.completeExceptionally(new IOException("Status lookup failed: " + item.failure().error().reason()));
+                } else {
+                    metrics.serverTook(ClientMetrics.Operation.GET_STATUS_AT_TIME, item.result().took());
+                    List<Hit<ProductStatusHistory.StatusHistoryEntryWithString>> hits = item.result().hits().hits();
+                    future.complete(hits.isEmpty() ? null : hits.get(0).source());
+                }
+            }
+        });
+    }
+
+    public Stats stats() {
+        return new Stats(lookups.sum(), shared.sum(), searches.sum(), batches.sum());
+    }
+
+    // Sends whatever is queued and stops the window timer; later lookups are sent unbatched
+    @Override
+    public void close() {
+        List<Pending> due;
+        synchronized (lock) {
+            closed = true;
+            due = takeBatch();
+        }
+        if (!due.isEmpty()) {
+            send(due);
+        }
+        timer.shutdown();
+    }
+
+    private record Key(String index, String productId, Instant from, Instant to, String routing) {}
+
+    private record Pending(Key key, CompletableFuture<ProductStatusHistory.StatusHistoryEntryWithString> future) {}
+
+    // Shared: lookups answered by an identical one already in flight; searches: _msearch items sent
+    public record Stats(long lookups, long shared, long searches, long batches) {
+        public double averageBatchSize() {
+            return batches == 0 ? 0.0 : (double) searches / batches;
+        }
+    }
+
+    public static class Builder {
+        private final ElasticsearchAsyncClient asyncClient;
+        private final ClientMetrics metrics;
+        private Duration window = Duration.ofMillis(1);
+        private int maxBatchSize = 64;
+
+        private Builder(ElasticsearchAsyncClient asyncClient, ClientMetrics metrics) {
+            this.asyncClient = asyncClient;
+            this.metrics = metrics;
+        }
+
+        // Longest a lookup waits for others to share its _msearch
+        public Builder window(Duration window) {
+            this.window = window;
+            return this;
+        }
+
+        // A batch is sent as soon as it holds this many lookups
+        public Builder maxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        public StatusLookupCoalescer build() {
+            if (window.isNegative() || window.isZero() || maxBatchSize <= 0) {
+                throw new IllegalArgumentException("window and maxBatchSize must be positive");
+            }
+            return new StatusLookupCoalescer(this);
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package com.example.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.GetResponse;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonData;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downsampled status history: for every product and every day (or hour) in which its status changed,
+ * one snapshot document holding the status in effect at the end of that period.
+ * <p>
+ * A point-in-time lookup for an instant the rollup covers then reads the raw events since the start of
+ * the instant's period (in practice none or a few) and otherwise the latest snapshot at or before that
+ * start, instead of sorting every raw event the product ever had. Snapshots are written incrementally
+ * from a watermark persisted in the snapshot index; rolling up the same period again overwrites the
+ * same documents. With a retention configured, monthly raw partitions that lie entirely before both
+ * the retention cutoff and the watermark are deleted.
+ */
+public class StatusSnapshotRollup implements Closeable {
+    public static final String INDEX_PREFIX = StatusHistoryIndices.ALIAS + "_snapshots_";
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ISO_INSTANT;
+    private static final String STATE_ID = "_rollup_state";
+    private static final int HISTORY_PAGE_SIZE = 1000;
+    private static final int WRITE_BATCH_SIZE = 1000;
+
+    public enum Granularity {
+        HOURLY(ChronoUnit.HOURS),
+        DAILY(ChronoUnit.DAYS);
+
+        private final ChronoUnit unit;
+
+        Granularity(ChronoUnit unit) {
+            this.unit = unit;
+        }
+
+        // Start of the period containing the instant; periods never straddle a monthly partition
+        public Instant periodStart(Instant instant) {
+            return instant.truncatedTo(unit);
+        }
+    }
+
+    private final ElasticsearchClient client;
+    private final Granularity granularity;
+    private final String index;
+    private final Duration settleDelay;
+    private final Duration retention;
+    private final Object rollupLock = new Object();
+    private volatile Instant watermark;
+    private ScheduledExecutorService scheduler;
+
+    private StatusSnapshotRollup(Builder builder) throws IOException {
+        this.client = builder.client;
+        this.granularity = builder.granularity;
+        this.index = INDEX_PREFIX + granularity.name().toLowerCase(Locale.ROOT);
+        this.settleDelay = builder.settleDelay;
+        this.retention = builder.retention;
+        this.watermark = readWatermark();
+    }
+
+    public static Builder builder(ElasticsearchClient client) {
+        return new Builder(client);
+    }
+
+    public Granularity granularity() {
+        return granularity;
+    }
+
+    // Snapshots cover every change before this instant; null before the first rollup
+    public Instant watermark() {
+        return watermark;
+    }
+
+    // Whether applyRetention may drop raw partitions, leaving the snapshots as the only record
+    boolean dropsRawEvents() {
+        return retention != null;
+    }
+
+    /**
+     * Writes snapshots for the periods between the watermark and the last period that ended at least
+     * {@code settleDelay} ago, then advances the watermark. The first run reads the entire history.
+     * Changes recorded later with a timestamp before the watermark are only picked up by
+     * {@link #rollUp(Instant, Instant)}.
+     */
+    public Result rollUp() throws IOException {
+        synchronized (rollupLock) {
+            Instant until = granularity.periodStart(Instant.now().minus(settleDelay));
+            Instant from = watermark;
+            if (from != null && !until.isAfter(from)) {
+                return new Result(0, 0);
+            }
+            Result result = rollUp(from, until);
+            writeWatermark(until);
+            watermark = until;
+            return result;
+        }
+    }
+
+    /**
+     * Rewrites the snapshots of the periods in [from, until) from the raw events, e.g. after a backfill.
+     * Both bounds are rounded down to the start of their period; a null {@code from} means the beginning.
+     */
+    public Result rollUp(Instant from, Instant until) throws IOException {
+        createIndexIfMissing();
+        Instant start = from == null ? null : granularity.periodStart(from);
+        Instant end = granularity.periodStart(until);
+
+        List<BulkOperation> writes = new ArrayList<>();
+        long events = 0;
+        long snapshots = 0;
+        ProductStatusHistory.StatusHistoryEntryWithString pending = null;
+        Instant pendingEnd = null;
+        try (StatusHistoryScroller scroller = new StatusHistoryScroller(client, eventsQuery(start, end),
+                HISTORY_PAGE_SIZE, StatusHistoryScroller.PRODUCT_ORDER)) {
+            while (scroller.hasNext()) {
+                ProductStatusHistory.StatusHistoryEntryWithString entry = scroller.next().source();
+                events++;
+                Instant periodEnd = periodEnd(Instant.parse(entry.timestamp()));
+                // Events arrive by product, then time; the last one of each period becomes its snapshot
+                if (pending != null && (!pending.productId().equals(entry.productId()) || !pendingEnd.equals(periodEnd))) {
+                    writes.add(snapshotOperation(pending, pendingEnd));
+                    snapshots++;
+                    if (writes.size() >= WRITE_BATCH_SIZE) {
+                        write(writes);
+                        writes.clear();
+                    }
+                }
+                pending = entry;
+                pendingEnd = periodEnd;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (pending != null) {
+            writes.add(snapshotOperation(pending, pendingEnd));
+            snapshots++;
+        }
+        if (!writes.isEmpty()) {
+            write(writes);
+        }
+        return new Result(events, snapshots);
+    }
+
+    /**
+     * Deletes the monthly raw partitions that end before both the retention cutoff and the watermark,
+     * so only rolled-up events are dropped. Returns the deleted indices. After this, point-in-time
+     * lookups before the cutoff need snapshot lookups enabled and resolve to the status at the start
+     * of the instant's period, and status histories start at the oldest remaining partition.
+     */
+    public List<String> applyRetention() throws IOException {
+        Instant rolledUp = watermark;
+        if (retention == null || rolledUp == null) {
+            return List.of();
+        }
+        Instant cutoff = Instant.now().minus(retention);
+        if (rolledUp.isBefore(cutoff)) {
+            cutoff = rolledUp;
+        }
+        List<String> expired = new ArrayList<>();
+        for (String partition : StatusHistoryIndices.existingIndices(client)) {
+            Instant end = StatusHistoryIndices.partitionEnd(partition);
+            if (end != null && !end.isAfter(cutoff)) {
+                expired.add(partition);
+            }
+        }
+        if (!expired.isEmpty()) {
+            client.indices().delete(d -> d.index(expired));
+            System.out.println("Dropped rolled-up status history partitions " + expired);
+        }
+        return expired;
+    }
+
+    /**
+     * Rolls up and applies retention every {@code interval} on a background thread until closed.
+     * Failures are logged and retried at the next run.
+     */
+    public synchronized void start(Duration interval) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Snapshot rollup already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "status-snapshot-rollup");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                Result result = rollUp();
+                if (result.snapshotsWritten() > 0) {
+                    System.out.println("Rolled up " + result.eventsScanned() + " status changes into "
+                        + result.snapshotsWritten() + " snapshots");
+                }
+                applyRetention();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Status snapshot rollup failed: " + e.getMessage());
+            }
+        }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Start of the period a point-in-time lookup should read raw events from: the start of the
+     * instant's period, or the watermark when the instant is newer than the rollup. Null when nothing
+     * has been rolled up.
+     */
+    Instant lookupBoundary(Instant time) {
+        Instant rolledUp = watermark;
+        if (rolledUp == null) {
+            return null;
+        }
+        Instant periodStart = granularity.periodStart(time);
+        return periodStart.isBefore(rolledUp) ? periodStart : rolledUp;
+    }
+
+    // Status in effect at the boundary, taken from the latest snapshot at or before it
+    SearchRequest snapshotRequest(String productId, Instant boundary) {
+        return SearchRequest.of(s -> s
+            .index(index)
+            .ignoreUnavailable(true)
+            .allowNoIndices(true)
+            .query(q -> q
+                .bool(b -> b
+                    .filter(f -> f.term(t -> t.field("productId").value(productId)))
+                    .filter(f -> f.range(r -> r.field("periodEnd").lte(JsonData.of(DATE_FORMATTER.format(boundary)))))
+                )
+            )
+            .sort(sort -> sort.field(f -> f.field("periodEnd").order(SortOrder.Desc)))
+            .size(1)
+        );
+    }
+
+    ProductStatusHistory.StatusHistoryEntryWithString findSnapshot(String productId, Instant boundary) throws IOException {
+        return toEntry(client.search(snapshotRequest(productId, boundary), Snapshot.class));
+    }
+
+    static ProductStatusHistory.StatusHistoryEntryWithString toEntry(SearchResponse<Snapshot> response) {
+        List<Hit<Snapshot>> hits = response.hits().hits();
+        if (hits.isEmpty()) {
+            return null;
+        }
+        Snapshot snapshot = hits.get(0).source();
+        return new ProductStatusHistory.StatusHistoryEntryWithString(snapshot.productId(), snapshot.status(), snapshot.changedAt());
+    }
+
+    private Instant periodEnd(Instant timestamp) {
+        return granularity.periodStart(timestamp).plus(1, granularity.unit);
+    }
+
+    private static Query eventsQuery(Instant from, Instant until) {
+        return Query.of(q -> q
+            .range(r -> {
+                r.field("timestamp").lt(JsonData.of(DATE_FORMATTER.format(until)));
+                if (from != null) {
+                    r.gte(JsonData.of(DATE_FORMATTER.format(from)));
+                }
+                return r;
+            })
+        );
+    }
+
+    private BulkOperation snapshotOperation(ProductStatusHistory.StatusHistoryEntryWithString entry, Instant periodEnd) {
+        String end = DATE_FORMATTER.format(periodEnd);
+        return BulkOperation.of(b -> b.index(i -> i
+            .index(index)
+            .id(entry.productId() + "_" + end)
+            .document(new Snapshot(entry.productId(), entry.status(), end, entry.timestamp()))
+        ));
+    }
+
+    private void write(List<BulkOperation> writes) throws IOException {
+        BulkResponse response = client.bulk(b -> b.operations(writes));
+        if (!response.errors()) {
+            return;
+        }
+        for (BulkResponseItem item : response.items()) {
+            if (item.error() != null) {
+                // The watermark must not pass a period whose snapshot is missing
+                throw new IOException("Failed to write status snapshot " + item.id() + ": " + item.error().reason());
+            }
+        }
+    }
+
+    private void createIndexIfMissing() throws IOException {
+        if (client.indices().exists(e -> e.index(index)).value()) {
+            return;
+        }
+        client.indices().create(c -> c
+            .index(index)
+            .mappings(m -> m
+                .properties("productId", p -> p.keyword(k -> k))
+                .properties("status", p -> p.keyword(k -> k))
+                .properties("periodEnd", p -> p.date(d -> d.format("strict_date_optional_time||epoch_millis")))
+                .properties("changedAt", p -> p.date(d -> d.format("strict_date_optional_time||epoch_millis")))
+                .properties("watermark", p -> p.date(d -> d.format("strict_date_optional_time||epoch_millis")))
+            )
+        );
+    }
+
+    private Instant readWatermark() throws IOException {
+        if (!client.indices().exists(e -> e.index(index)).value()) {
+            return null;
+        }
+        GetResponse<RollupState> state = client.get(g -> g.index(index).id(STATE_ID), RollupState.class);
+        return state.found() && state.source() != null ? Instant.parse(state.source().watermark()) : null;
+    }
+
+    private void writeWatermark(Instant until) throws IOException {
+        client.index(i -> i
+            .index(index)
+            .id(STATE_ID)
+            .document(new RollupState(DATE_FORMATTER.format(until)))
+        );
+    }
+
+    public record Snapshot(String productId, String status, String periodEnd, String changedAt) {}
+
+    public record RollupState(String watermark) {}
+
+    public record Result(long eventsScanned, long snapshotsWritten) {}
+
+    public static class Builder {
+        private final ElasticsearchClient client;
+        private Granularity granularity = Granularity.DAILY;
+        private Duration settleDelay = Duration.ofMinutes(5);
+        private Duration retention;
+
+        private Builder(ElasticsearchClient client) {
+            this.client = client;
+        }
+
+        public Builder granularity(Granularity granularity) {
+            this.granularity = granularity;
+            return this;
+        }
+
+        // How long after a period ends before it is rolled up, so late writes still land in raw form first
+        public Builder settleDelay(Duration settleDelay) {
+            this.settleDelay = settleDelay;
+            return this;
+        }
+
+        // Raw events older than this are dropped once rolled up; null (the default) keeps them forever
+        public Builder retention(Duration retention) {
+            this.retention = retention;
+            return this;
+        }
+
+        // Reads the persisted watermark, so lookups use existing snapshots right away
+        public StatusSnapshotRollup build() throws IOException {
+            if (settleDelay.isNegative() || (retention != null && retention.isNegative())) {
+                throw new IllegalArgumentException("settleDelay and retention must not be negative");
+            }
+            return new StatusSnapshotRollup(this);
+        }
+    }
+}
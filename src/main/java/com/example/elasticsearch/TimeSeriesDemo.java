@@ -57,6 +57,8 @@ public class TimeSeriesDemo {
         } catch (Exception e) {
             System.err.println("Unexpected error: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            ElasticsearchClientFactory.shutdownDefault();
         }
     }
 } 
\ No newline at end of file